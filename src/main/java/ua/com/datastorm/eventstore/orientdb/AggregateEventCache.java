@@ -0,0 +1,268 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-through cache of deserialized event streams of recently read aggregates: last Snapshot Event, if any,
+ * followed by Domain Events appended after it.
+ * <p/>
+ * Stream is cached when aggregate is read from the database, Domain Events and Snapshot Events appended
+ * by the same {@link OrientEventStore} are added to the cached stream after transaction is committed, so cached
+ * aggregate is read without any database access. Cache is bounded by amount of aggregates and by estimated size
+ * of their events, which is the length of serialized events; least recently used aggregates are evicted first.
+ * <p/>
+ * Events appended to the same database by other applications are not visible through the cache,
+ * so it should be used only when EventStore is the single writer of the aggregates.
+ * <p/>
+ * To use cache pass it to {@link OrientEventStore#setAggregateEventCache(AggregateEventCache)}.
+ *
+ * @author EniSh
+ */
+public class AggregateEventCache {
+    private static final int VERSION_STRIPES = 64;
+
+    private int maxEntries = 1000;
+    private long maxBytes = 64L * 1024 * 1024;
+
+    private final LinkedHashMap<AggregateKey, CachedEvents> entries =
+            new LinkedHashMap<AggregateKey, CachedEvents>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxEntries Maximum amount of cached aggregates, default value is 1000.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum amount of entries should be positive.");
+        }
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * @param maxBytes Maximum estimated size of all cached events, default value is 64 megabytes.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Maximum size should be positive.");
+        }
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return Amount of reads which were served by the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Amount of reads of aggregates which were not cached.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return Amount of aggregates evicted because size limits were exceeded.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return Current amount of cached aggregates.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Current estimated size of all cached events.
+     */
+    public synchronized long getEstimatedBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Removes all cached aggregates.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Returns cached events of the aggregate and counts hit or miss.
+     *
+     * @param key Aggregate key.
+     * @return Unmodifiable list of events or <code>null</code> if aggregate is not cached.
+     */
+    synchronized List<DomainEvent> get(AggregateKey key) {
+        final CachedEvents cached = entries.get(key);
+        if (cached == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return cached.events;
+    }
+
+    /**
+     * Returns modification counter of the aggregate, it should be taken before events are read from the database
+     * and passed in {@link #put(AggregateKey, long, List, long)}.
+     *
+     * @param key Aggregate key.
+     * @return Current value of the counter.
+     */
+    long version(AggregateKey key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * Caches events read from the database. Events are not cached if events of the aggregate were committed
+     * after the version was taken, because read events may be already outdated.
+     *
+     * @param key     Aggregate key.
+     * @param version Value returned by {@link #version(AggregateKey)} before events were read.
+     * @param events  Snapshot Event, if any, and following Domain Events.
+     * @param bytes   Estimated size of the events.
+     */
+    synchronized void put(AggregateKey key, long version, List<DomainEvent> events, long bytes) {
+        if (versions.get(stripe(key)) != version || bytes > maxBytes) {
+            return;
+        }
+        store(key, new CachedEvents(Collections.unmodifiableList(new ArrayList<DomainEvent>(events)), bytes));
+    }
+
+    /**
+     * Adds committed events to the cached streams. Events of aggregates which are not cached are ignored,
+     * cached aggregate is removed if committed events do not follow its cached events.
+     *
+     * @param committedEntries Committed entries in the order they were appended.
+     */
+    synchronized void entriesCommitted(List<DomainEventEntry> committedEntries) {
+        int start = 0;
+        while (start < committedEntries.size()) {
+            final DomainEventEntry first = committedEntries.get(start);
+            final AggregateKey key = new AggregateKey(first.getAggregateType(), first.getAggregateIdentifier());
+            final boolean snapshot = first instanceof SnapshotEventEntry;
+            int end = start + 1;
+            while (!snapshot && end < committedEntries.size()) {
+                final DomainEventEntry next = committedEntries.get(end);
+                if (next instanceof SnapshotEventEntry || !next.getAggregateType().equals(key.getType()) ||
+                        !next.getAggregateIdentifier().equals(key.getIdentifier())) {
+                    break;
+                }
+                end++;
+            }
+
+            versions.incrementAndGet(stripe(key));
+            final CachedEvents cached = entries.get(key);
+            if (cached != null) {
+                final List<DomainEventEntry> group = committedEntries.subList(start, end);
+                final CachedEvents updated = snapshot ? replaceSnapshot(cached, first) : appendTail(cached, group);
+                if (updated == null) {
+                    remove(key);
+                } else {
+                    store(key, updated);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private CachedEvents appendTail(CachedEvents cached, List<DomainEventEntry> group) {
+        final long lastSequenceNumber = cached.events.isEmpty() ? Long.MIN_VALUE :
+                cached.events.get(cached.events.size() - 1).getSequenceNumber();
+        if (lastSequenceNumber != Long.MIN_VALUE && group.get(0).getSequenceNumber() != lastSequenceNumber + 1) {
+            return null;
+        }
+
+        final List<DomainEvent> events = new ArrayList<DomainEvent>(cached.events.size() + group.size());
+        events.addAll(cached.events);
+        long bytes = cached.bytes;
+        for (DomainEventEntry entry : group) {
+            if (entry.getEvent() == null) {
+                return null;
+            }
+            events.add(entry.getEvent());
+            bytes += Math.max(entry.getSerializedSize(), 0);
+        }
+        return new CachedEvents(Collections.unmodifiableList(events), bytes);
+    }
+
+    private CachedEvents replaceSnapshot(CachedEvents cached, DomainEventEntry snapshotEntry) {
+        final DomainEvent snapshotEvent = snapshotEntry.getEvent();
+        final List<DomainEvent> events = new ArrayList<DomainEvent>(cached.events.size() + 1);
+        events.add(snapshotEvent);
+        int keptCount = 0;
+        for (DomainEvent event : cached.events) {
+            if (event.getSequenceNumber() > snapshotEvent.getSequenceNumber()) {
+                events.add(event);
+                keptCount++;
+            }
+        }
+        final long keptBytes = cached.events.isEmpty() ? 0 : cached.bytes * keptCount / cached.events.size();
+        return new CachedEvents(Collections.unmodifiableList(events),
+                keptBytes + Math.max(snapshotEntry.getSerializedSize(), 0));
+    }
+
+    private void store(AggregateKey key, CachedEvents cachedEvents) {
+        remove(key);
+        entries.put(key, cachedEvents);
+        totalBytes += cachedEvents.bytes;
+        evict();
+    }
+
+    private void remove(AggregateKey key) {
+        final CachedEvents removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<AggregateKey, CachedEvents>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+            totalBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private static int stripe(AggregateKey key) {
+        return (key.hashCode() & 0x7FFFFFFF) % VERSION_STRIPES;
+    }
+
+    /**
+     * Immutable stream of the cached aggregate.
+     */
+    private static final class CachedEvents {
+        private final List<DomainEvent> events;
+        private final long bytes;
+
+        private CachedEvents(List<DomainEvent> events, long bytes) {
+            this.events = events;
+            this.bytes = bytes;
+        }
+    }
+}
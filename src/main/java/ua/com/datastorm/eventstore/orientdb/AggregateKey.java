@@ -0,0 +1,50 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+/**
+ * Identity of the aggregate in the EventStore: pair of aggregate type and String presentation of
+ * aggregate identifier. Used as a key of the caches.
+ *
+ * @author EniSh
+ */
+final class AggregateKey {
+    private final String type;
+    private final String identifier;
+    private final int hashCode;
+
+    AggregateKey(String type, String identifier) {
+        this.type = type;
+        this.identifier = identifier;
+        this.hashCode = 31 * type.hashCode() + identifier.hashCode();
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getIdentifier() {
+        return identifier;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final AggregateKey that = (AggregateKey) o;
+        return hashCode == that.hashCode && type.equals(that.type) && identifier.equals(that.identifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + identifier + "]";
+    }
+}
@@ -0,0 +1,361 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexCallback;
+import com.orientechnologies.orient.core.index.OIndexManager;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ordered index of event documents by composite key (aggregate type, aggregate identifier, sequence number).
+ * <p/>
+ * Key is presented as String which is compared in the same order as the tuple: type and identifier are separated
+ * by character with zero code and sequence number is written as fixed length hexadecimal number with inverted sign
+ * bit. So all events of the single aggregate occupy continuous key range ordered by sequence number and can be
+ * fetched by single range scan. Entries of the range are sorted by the sequence number parsed from their keys,
+ * so order of the results does not depend on the order in which index returns them.
+ * <p/>
+ * Index is maintained by {@link AggregateSequenceIndexHook}. Index changes are saved after the data transaction
+ * is committed, so index of the database which was not closed properly should be repaired by {@link #rebuild()}.
+ *
+ * @author EniSh
+ */
+class AggregateSequenceIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AggregateSequenceIndex.class);
+
+    private static final char SEPARATOR = '\u0000';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Field of the index entry document which contains entry key.
+     */
+    private static final String KEY_FIELD = "key";
+
+    /**
+     * Field of the index entry document which contains identity of the indexed document.
+     */
+    private static final String RID_FIELD = "rid";
+
+    /**
+     * Maximum amount of index entries fetched at once by {@link #count(String, String, long, long)}.
+     */
+    private static final int COUNT_WINDOW_SIZE = 1024;
+
+    private static final Comparator<ODocument> SEQUENCE_ORDER = new Comparator<ODocument>() {
+        @Override
+        public int compare(ODocument first, ODocument second) {
+            final long firstSequenceNumber = parseSequenceNumber(first.<String>field(KEY_FIELD));
+            final long secondSequenceNumber = parseSequenceNumber(second.<String>field(KEY_FIELD));
+            return firstSequenceNumber < secondSequenceNumber ? -1 :
+                    (firstSequenceNumber == secondSequenceNumber ? 0 : 1);
+        }
+    };
+
+    /**
+     * Callback that is used to rebuild index.
+     */
+    static final OIndexCallback INDEX_CALLBACK = new OIndexCallback() {
+        @Override
+        public Object getDocumentValueToIndex(ODocument iDocument) {
+            return generateKey(iDocument);
+        }
+    };
+
+    private final OIndex index;
+
+    private AggregateSequenceIndex(OIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns index for the documents of the given class, index is created and filled by existing documents
+     * if it does not exist.
+     *
+     * @param database   Current database instance.
+     * @param eventClass Class of event documents.
+     * @return Index of event documents.
+     */
+    static AggregateSequenceIndex createIndex(ODatabaseDocument database, OClass eventClass) {
+        final String indexName = indexName(eventClass.getName());
+        final OIndexManager indexManager = database.getMetadata().getIndexManager();
+
+        OIndex index = indexManager.getIndex(indexName);
+        if (index == null) {
+            index = indexManager.createIndex(indexName, OProperty.INDEX_TYPE.NOTUNIQUE.toString(),
+                    eventClass.getClusterIds(), INDEX_CALLBACK, null, true);
+            index.rebuild();
+            logger.debug("Index \"{}\" was created and filled by existing documents.", indexName);
+        }
+        return new AggregateSequenceIndex(index);
+    }
+
+    /**
+     * @param className Name of the indexed class.
+     * @return Name of the index.
+     */
+    static String indexName(String className) {
+        return className + ".aggregateSequence";
+    }
+
+    /**
+     * Generates index key for the given event document.
+     *
+     * @param document Event document.
+     * @return Index key.
+     */
+    static String generateKey(ODocument document) {
+        return generateKey(document.<String>field(DomainEventEntry.AGGREGATE_TYPE_FIELD),
+                document.<String>field(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD),
+                document.<Long>field(DomainEventEntry.SEQUENCE_NUMBER_FIELD));
+    }
+
+    /**
+     * Generates index key for the given composite value.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @param sequenceNumber      Sequence number of the event.
+     * @return Index key.
+     */
+    static String generateKey(String aggregateType, String aggregateIdentifier, long sequenceNumber) {
+        final int prefixLength = aggregateType.length() + aggregateIdentifier.length() + 2;
+        final char[] key = new char[prefixLength + 16];
+
+        aggregateType.getChars(0, aggregateType.length(), key, 0);
+        key[aggregateType.length()] = SEPARATOR;
+        aggregateIdentifier.getChars(0, aggregateIdentifier.length(), key, aggregateType.length() + 1);
+        key[prefixLength - 1] = SEPARATOR;
+
+        final long orderedValue = sequenceNumber ^ Long.MIN_VALUE;
+        for (int i = 0; i < 16; i++) {
+            key[prefixLength + i] = HEX_DIGITS[(int) (orderedValue >>> (60 - 4 * i)) & 0xF];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Extracts sequence number from the index key.
+     *
+     * @param key Key generated by {@link #generateKey(String, String, long)}.
+     * @return Sequence number of the event.
+     */
+    static long parseSequenceNumber(String key) {
+        long orderedValue = 0;
+        for (int i = key.length() - 16; i < key.length(); i++) {
+            orderedValue = (orderedValue << 4) | Character.digit(key.charAt(i), 16);
+        }
+        return orderedValue ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns identities of events of the given aggregate which have sequence number in the passed in range.
+     * Identities are returned in the order of sequence numbers.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @param fromSequenceNumber  Minimal sequence number, inclusive.
+     * @param toSequenceNumber    Maximal sequence number, inclusive.
+     * @return Identities of found event documents.
+     */
+    Collection<OIdentifiable> getRange(String aggregateType, String aggregateIdentifier,
+                                       long fromSequenceNumber, long toSequenceNumber) {
+        final List<ODocument> entries = new ArrayList<ODocument>(index.getEntriesBetween(
+                generateKey(aggregateType, aggregateIdentifier, fromSequenceNumber),
+                generateKey(aggregateType, aggregateIdentifier, toSequenceNumber)));
+        Collections.sort(entries, SEQUENCE_ORDER);
+
+        final List<OIdentifiable> identities = new ArrayList<OIdentifiable>(entries.size());
+        for (ODocument entry : entries) {
+            identities.add(entry.<OIdentifiable>field(RID_FIELD));
+        }
+        return identities;
+    }
+
+    /**
+     * Returns the greatest sequence number of the given aggregate, it is read from index keys,
+     * documents are not loaded.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @return Sequence number or <code>null</code> if aggregate has no events.
+     */
+    Long getLastSequenceNumber(String aggregateType, String aggregateIdentifier) {
+        final SnapshotPosition lastPosition = getLastPosition(aggregateType, aggregateIdentifier);
+        return lastPosition == SnapshotPosition.NONE ? null : lastPosition.getFirstEventSequenceNumber() - 1;
+    }
+
+    /**
+     * Returns identity and sequence number of the last event of the given aggregate, they are read from index
+     * entry, document is not loaded. Used to find the last Snapshot Event.
+     * <p/>
+     * Index can not be scanned backwards, so entries of the aggregate are not fetched by range scan. Sequence numbers
+     * of the aggregate usually start from 0 or 1 and have no gaps, so the last one is found by point lookups of
+     * sequence numbers which grow twice until lookup fails and then by binary search. The rest of the range is
+     * checked by single scan, which finds nothing unless sequence numbers have gaps. Aggregate whose sequence
+     * numbers do not start from 0 or 1, like Snapshot Events, is scanned as a whole.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @return Position of the last event or {@link SnapshotPosition#NONE} if aggregate has no events.
+     */
+    SnapshotPosition getLastPosition(String aggregateType, String aggregateIdentifier) {
+        long last = 0;
+        OIdentifiable lastId = lookup(aggregateType, aggregateIdentifier, last);
+        if (lastId == null) {
+            last = 1;
+            lastId = lookup(aggregateType, aggregateIdentifier, last);
+        }
+
+        long scanFrom = Long.MIN_VALUE;
+        if (lastId != null) {
+            long missing = Long.MAX_VALUE;
+            for (long step = 1; step <= Long.MAX_VALUE - last; step *= 2) {
+                final OIdentifiable id = lookup(aggregateType, aggregateIdentifier, last + step);
+                if (id == null) {
+                    missing = last + step;
+                    break;
+                }
+                lastId = id;
+                last += step;
+                if (step > Long.MAX_VALUE / 2) {
+                    break;
+                }
+            }
+            while (missing - last > 1) {
+                final long middle = last + (missing - last) / 2;
+                final OIdentifiable id = lookup(aggregateType, aggregateIdentifier, middle);
+                if (id != null) {
+                    lastId = id;
+                    last = middle;
+                } else {
+                    missing = middle;
+                }
+            }
+            if (last == Long.MAX_VALUE) {
+                return new SnapshotPosition(lastId.getIdentity(), last);
+            }
+            scanFrom = last + 1;
+        }
+
+        ODocument lastEntry = null;
+        for (ODocument entry : index.getEntriesBetween(generateKey(aggregateType, aggregateIdentifier, scanFrom),
+                generateKey(aggregateType, aggregateIdentifier, Long.MAX_VALUE))) {
+            if (lastEntry == null || SEQUENCE_ORDER.compare(entry, lastEntry) >= 0) {
+                lastEntry = entry;
+            }
+        }
+        if (lastEntry != null) {
+            return new SnapshotPosition(lastEntry.<OIdentifiable>field(RID_FIELD).getIdentity(),
+                    parseSequenceNumber(lastEntry.<String>field(KEY_FIELD)));
+        }
+        return lastId == null ? SnapshotPosition.NONE : new SnapshotPosition(lastId.getIdentity(), last);
+    }
+
+    /**
+     * @return Identity of the event with given sequence number or <code>null</code> if there is no such event.
+     */
+    private OIdentifiable lookup(String aggregateType, String aggregateIdentifier, long sequenceNumber) {
+        final Object value = index.get(generateKey(aggregateType, aggregateIdentifier, sequenceNumber));
+        if (value instanceof Collection) {
+            final Collection<?> identities = (Collection<?>) value;
+            return identities.isEmpty() ? null : (OIdentifiable) identities.iterator().next();
+        }
+        return (OIdentifiable) value;
+    }
+
+    /**
+     * Counts events of the given aggregate which have sequence number in the passed in range,
+     * documents are not loaded. Range is limited by the last sequence number of the aggregate and scanned
+     * backwards by windows of {@link #COUNT_WINDOW_SIZE} sequence numbers, so entries are not fetched all at once.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @param fromSequenceNumber  Minimal sequence number, inclusive.
+     * @param toSequenceNumber    Maximal sequence number, inclusive.
+     * @return Amount of events.
+     */
+    int count(String aggregateType, String aggregateIdentifier, long fromSequenceNumber, long toSequenceNumber) {
+        final SnapshotPosition lastPosition = getLastPosition(aggregateType, aggregateIdentifier);
+        if (lastPosition == SnapshotPosition.NONE) {
+            return 0;
+        }
+
+        long to = Math.min(toSequenceNumber, lastPosition.getFirstEventSequenceNumber() - 1);
+        int count = 0;
+        while (to >= fromSequenceNumber) {
+            final long distance = to - fromSequenceNumber;
+            final long from = distance >= 0 && distance < COUNT_WINDOW_SIZE ? fromSequenceNumber :
+                    to - COUNT_WINDOW_SIZE + 1;
+            final int found = index.getValuesBetween(generateKey(aggregateType, aggregateIdentifier, from),
+                    generateKey(aggregateType, aggregateIdentifier, to)).size();
+            if (found == 0 && from != fromSequenceNumber) {
+                // events before the gap, usually there are none
+                return count + index.getValuesBetween(
+                        generateKey(aggregateType, aggregateIdentifier, fromSequenceNumber),
+                        generateKey(aggregateType, aggregateIdentifier, from - 1)).size();
+            }
+            count += found;
+            if (from == fromSequenceNumber) {
+                break;
+            }
+            to = from - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Adds saved document to the index.
+     *
+     * @param key      Key of the document generated by {@link #generateKey(ODocument)}.
+     * @param document Event document.
+     */
+    void put(String key, ODocument document) {
+        index.put(key, document.placeholder());
+    }
+
+    /**
+     * Removes deleted document from the index.
+     *
+     * @param key      Key of the document generated by {@link #generateKey(ODocument)}.
+     * @param document Event document.
+     */
+    void remove(String key, ODocument document) {
+        index.remove(key, document.placeholder());
+    }
+
+    /**
+     * Schedules saving of the index changes.
+     */
+    void save() {
+        index.lazySave();
+    }
+
+    /**
+     * Registers cluster of the indexed class in the index, so its documents are indexed by {@link #rebuild()}.
+     *
+     * @param clusterName Name of the cluster.
+     * @return <code>true</code> if cluster was not registered yet, index manager should be saved in such case.
+     */
+    boolean addCluster(String clusterName) {
+        return EventStoreSchema.addCluster(index, clusterName);
+    }
+
+    /**
+     * Refills index from the existing documents.
+     */
+    void rebuild() {
+        index.rebuild();
+        logger.debug("Index \"{}\" was rebuilt.", index.getName());
+    }
+}
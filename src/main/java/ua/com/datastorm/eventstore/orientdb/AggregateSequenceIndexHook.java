@@ -0,0 +1,84 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Keeps {@link AggregateSequenceIndex}es of Domain Events and Snapshot Events and {@link AggregateTimestampIndex}
+ * of Domain Events up to date. Indexes are saved once per transaction after it is committed, see
+ * {@link OrientEventStore#rebuildIndexes()}.
+ *
+ * @author EniSh
+ */
+class AggregateSequenceIndexHook extends ODocumentHookAbstract {
+    private final ConnectionHooks connectionHooks;
+    private final AggregateSequenceIndex domainEventIndex;
+    private final AggregateSequenceIndex snapshotEventIndex;
+    private final AggregateTimestampIndex timestampIndex;
+    private boolean domainEventIndexDirty;
+    private boolean snapshotEventIndexDirty;
+
+    AggregateSequenceIndexHook(ConnectionHooks connectionHooks, AggregateSequenceIndex domainEventIndex,
+                               AggregateSequenceIndex snapshotEventIndex, AggregateTimestampIndex timestampIndex) {
+        this.connectionHooks = connectionHooks;
+        this.domainEventIndex = domainEventIndex;
+        this.snapshotEventIndex = snapshotEventIndex;
+        this.timestampIndex = timestampIndex;
+    }
+
+    @Override
+    public boolean onRecordAfterCreate(ODocument iDocument) {
+        final AggregateSequenceIndex index = indexOf(iDocument);
+        if (index != null) {
+            index.put(connectionHooks.keyOf(iDocument), iDocument);
+            if (index == domainEventIndex) {
+                timestampIndex.put(AggregateTimestampIndex.generateKey(iDocument), iDocument);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onRecordAfterDelete(ODocument iDocument) {
+        final AggregateSequenceIndex index = indexOf(iDocument);
+        if (index != null) {
+            index.remove(connectionHooks.keyOf(iDocument), iDocument);
+            if (index == domainEventIndex) {
+                timestampIndex.remove(AggregateTimestampIndex.generateKey(iDocument), iDocument);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves indexes which were changed.
+     */
+    void flush() {
+        if (domainEventIndexDirty) {
+            domainEventIndex.save();
+            timestampIndex.save();
+            domainEventIndexDirty = false;
+        }
+        if (snapshotEventIndexDirty) {
+            snapshotEventIndex.save();
+            snapshotEventIndexDirty = false;
+        }
+    }
+
+    private AggregateSequenceIndex indexOf(ODocument iDocument) {
+        final OClass schemaClass = iDocument.getSchemaClass();
+        if (schemaClass == null) {
+            return null;
+        }
+        if (schemaClass.getName().equals(DomainEventEntry.DOMAIN_EVENT_CLASS)) {
+            domainEventIndexDirty = true;
+            return domainEventIndex;
+        }
+        if (schemaClass.getName().equals(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS)) {
+            snapshotEventIndexDirty = true;
+            return snapshotEventIndex;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,188 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexCallback;
+import com.orientechnologies.orient.core.index.OIndexManager;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ordered index of Domain Event documents by composite key (aggregate type, time stamp).
+ * <p/>
+ * Key is presented as String in the same way as key of {@link AggregateSequenceIndex}: type is followed by character
+ * with zero code and time stamp in milliseconds written as fixed length hexadecimal number with inverted sign bit.
+ * So events of the single aggregate type which happened in the given period occupy continuous key range ordered
+ * by time stamp and can be fetched by single range scan. Time stamp of documents of any {@link StorageFormat}
+ * is indexed.
+ * <p/>
+ * Index is maintained by {@link AggregateSequenceIndexHook} and repaired by {@link #rebuild()} in the same way as
+ * {@link AggregateSequenceIndex}.
+ *
+ * @author EniSh
+ */
+class AggregateTimestampIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AggregateTimestampIndex.class);
+
+    private static final char SEPARATOR = '\u0000';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final String KEY_FIELD = "key";
+    private static final String RID_FIELD = "rid";
+
+    /**
+     * Keys of the single aggregate type have the same prefix, so they can be compared as strings.
+     */
+    private static final Comparator<ODocument> KEY_ORDER = new Comparator<ODocument>() {
+        @Override
+        public int compare(ODocument first, ODocument second) {
+            return first.<String>field(KEY_FIELD).compareTo(second.<String>field(KEY_FIELD));
+        }
+    };
+
+    /**
+     * Callback that is used to rebuild index.
+     */
+    static final OIndexCallback INDEX_CALLBACK = new OIndexCallback() {
+        @Override
+        public Object getDocumentValueToIndex(ODocument iDocument) {
+            return generateKey(iDocument);
+        }
+    };
+
+    private final OIndex index;
+
+    private AggregateTimestampIndex(OIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns index for the documents of the given class, index is created and filled by existing documents
+     * if it does not exist.
+     *
+     * @param database   Current database instance.
+     * @param eventClass Class of event documents.
+     * @return Index of event documents.
+     */
+    static AggregateTimestampIndex createIndex(ODatabaseDocument database, OClass eventClass) {
+        final String indexName = eventClass.getName() + ".aggregateTimestamp";
+        final OIndexManager indexManager = database.getMetadata().getIndexManager();
+
+        OIndex index = indexManager.getIndex(indexName);
+        if (index == null) {
+            index = indexManager.createIndex(indexName, OProperty.INDEX_TYPE.NOTUNIQUE.toString(),
+                    eventClass.getClusterIds(), INDEX_CALLBACK, null, true);
+            index.rebuild();
+            logger.debug("Index \"{}\" was created and filled by existing documents.", indexName);
+        }
+        return new AggregateTimestampIndex(index);
+    }
+
+    /**
+     * Generates index key for the given event document.
+     *
+     * @param document Event document.
+     * @return Index key.
+     */
+    static String generateKey(ODocument document) {
+        return generateKey(document.<String>field(DomainEventEntry.AGGREGATE_TYPE_FIELD),
+                DomainEventEntry.getTimestampMillis(document));
+    }
+
+    /**
+     * Generates index key for the given composite value.
+     *
+     * @param aggregateType   Type of the aggregate.
+     * @param timestampMillis Time stamp of the event in milliseconds since epoch.
+     * @return Index key.
+     */
+    static String generateKey(String aggregateType, long timestampMillis) {
+        final int prefixLength = aggregateType.length() + 1;
+        final char[] key = new char[prefixLength + 16];
+
+        aggregateType.getChars(0, aggregateType.length(), key, 0);
+        key[prefixLength - 1] = SEPARATOR;
+
+        final long orderedValue = timestampMillis ^ Long.MIN_VALUE;
+        for (int i = 0; i < 16; i++) {
+            key[prefixLength + i] = HEX_DIGITS[(int) (orderedValue >>> (60 - 4 * i)) & 0xF];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Returns identities of events of the given aggregate type which have time stamp in the passed in range.
+     * Identities are returned in the order of time stamps.
+     *
+     * @param aggregateType Type of the aggregate.
+     * @param fromMillis    Minimal time stamp, inclusive.
+     * @param toMillis      Maximal time stamp, inclusive.
+     * @return Identities of found event documents.
+     */
+    Collection<OIdentifiable> getRange(String aggregateType, long fromMillis, long toMillis) {
+        final List<ODocument> entries = new ArrayList<ODocument>(index.getEntriesBetween(
+                generateKey(aggregateType, fromMillis), generateKey(aggregateType, toMillis)));
+        Collections.sort(entries, KEY_ORDER);
+
+        final List<OIdentifiable> identities = new ArrayList<OIdentifiable>(entries.size());
+        for (ODocument entry : entries) {
+            identities.add(entry.<OIdentifiable>field(RID_FIELD));
+        }
+        return identities;
+    }
+
+    /**
+     * Adds saved document to the index.
+     *
+     * @param key      Key of the document generated by {@link #generateKey(ODocument)}.
+     * @param document Event document.
+     */
+    void put(String key, ODocument document) {
+        index.put(key, document.placeholder());
+    }
+
+    /**
+     * Removes deleted document from the index.
+     *
+     * @param key      Key of the document generated by {@link #generateKey(ODocument)}.
+     * @param document Event document.
+     */
+    void remove(String key, ODocument document) {
+        index.remove(key, document.placeholder());
+    }
+
+    /**
+     * Schedules saving of the index changes.
+     */
+    void save() {
+        index.lazySave();
+    }
+
+    /**
+     * Registers cluster of the indexed class in the index, so its documents are indexed by {@link #rebuild()}.
+     *
+     * @param clusterName Name of the cluster.
+     * @return <code>true</code> if cluster was not registered yet, index manager should be saved in such case.
+     */
+    boolean addCluster(String clusterName) {
+        return EventStoreSchema.addCluster(index, clusterName);
+    }
+
+    /**
+     * Refills index from the existing documents.
+     */
+    void rebuild() {
+        index.rebuild();
+        logger.debug("Index \"{}\" was rebuilt.", index.getName());
+    }
+}
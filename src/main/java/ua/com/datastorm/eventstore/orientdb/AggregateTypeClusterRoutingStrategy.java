@@ -0,0 +1,58 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.Locale;
+
+/**
+ * Stores Domain Events of each aggregate type in its own cluster. Name of the cluster is built from
+ * configurable prefix and aggregate type in lower case, all characters which are not allowed
+ * in cluster names are replaced by underscore. Lower case is taken by the rules of English locale, so cluster
+ * name does not depend on default locale of JVM.
+ * <p/>
+ * Queries of single aggregate touch only cluster of its type, and all events of the type can be archived
+ * or removed by operations on the single cluster.
+ *
+ * @author EniSh
+ */
+public class AggregateTypeClusterRoutingStrategy implements ClusterRoutingStrategy {
+    private final String prefix;
+
+    /**
+     * Creates strategy which uses "domainevent_" prefix for cluster names.
+     */
+    public AggregateTypeClusterRoutingStrategy() {
+        this("domainevent_");
+    }
+
+    /**
+     * @param prefix Prefix of cluster names.
+     */
+    public AggregateTypeClusterRoutingStrategy(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClusterName(String aggregateType, String aggregateIdentifier) {
+        return toClusterName(prefix + aggregateType);
+    }
+
+    /**
+     * Converts passed in string to the valid cluster name.
+     *
+     * @param name String to be converted.
+     * @return Name in lower case where all characters except letters, digits and underscore are replaced
+     *         by underscore.
+     */
+    static String toClusterName(String name) {
+        final char[] chars = name.toLowerCase(Locale.ENGLISH).toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            final char c = chars[i];
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) {
+                chars[i] = '_';
+            }
+        }
+        return new String(chars);
+    }
+}
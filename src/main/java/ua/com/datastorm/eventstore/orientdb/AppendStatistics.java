@@ -0,0 +1,95 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe counters of batches written by {@link OrientEventStore}.
+ * Each call of {@link OrientEventStore#appendEvents} or {@link OrientEventStore#appendSnapshotEvent}
+ * is counted as a single batch.
+ *
+ * @author EniSh
+ */
+public class AppendStatistics {
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Registers written batch.
+     *
+     * @param events Amount of events in the batch.
+     * @param nanos  Time which was spent to write the batch in nanoseconds.
+     */
+    void record(int events, long nanos) {
+        batchCount.incrementAndGet();
+        eventCount.addAndGet(events);
+        totalNanos.addAndGet(nanos);
+
+        long currentMax = maxNanos.get();
+        while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)) {
+            currentMax = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return Amount of written batches.
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return Amount of written events.
+     */
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * @return Overall time which was spent to write all batches in milliseconds.
+     */
+    public long getTotalTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    /**
+     * @return Average time which was spent to write single batch in microseconds.
+     */
+    public long getAverageBatchTimeMicros() {
+        final long batches = batchCount.get();
+        if (batches == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / batches);
+    }
+
+    /**
+     * @return The longest time which was spent to write single batch in microseconds.
+     */
+    public long getMaxBatchTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    /**
+     * Clears all counters.
+     */
+    public void reset() {
+        batchCount.set(0);
+        eventCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "AppendStatistics{" +
+                "batches=" + getBatchCount() +
+                ", events=" + getEventCount() +
+                ", totalTime=" + getTotalTimeMillis() + "ms" +
+                ", averageBatchTime=" + getAverageBatchTimeMicros() + "us" +
+                ", maxBatchTime=" + getMaxBatchTimeMicros() + "us" +
+                '}';
+    }
+}
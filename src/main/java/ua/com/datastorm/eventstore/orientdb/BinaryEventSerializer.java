@@ -0,0 +1,586 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.EventSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binary {@link EventSerializer} which is faster and more compact than {@link org.axonframework.eventstore.XStreamEventSerializer}.
+ * <p/>
+ * Events are serialized field by field using reflection, including fields of {@link DomainEvent} itself, such as
+ * aggregate identifier, sequence number and meta data. Classes are written as small integer ids of
+ * {@link ClassDictionary} which is stored in the database. Fields of each class are resolved once and cached.
+ * Objects are created without calling of their constructors, the same way as Java serialization does.
+ * <p/>
+ * Strings, boxed primitives, byte arrays, {@link UUID}, {@link DateTime}, enums, object arrays and common
+ * <code>java.util</code> lists, sets and maps are written in compact form. Other JDK classes are written by
+ * Java serialization, so they should be {@link Serializable}. Shared references and cycles are preserved.
+ * <p/>
+ * Fields are written in the fixed order without names, so if fields of the event class are changed, events
+ * written before the change can not be read. Use {@link OrientEventStore#setSerializerVersion(int)} to mark
+ * events written by different versions of classes.
+ * <p/>
+ * Class which is not in the dictionary yet is registered by {@link #serialize(DomainEvent)} using separate
+ * connection, even if event is serialized inside of the transaction of the caller. To avoid that, register
+ * event classes by {@link #registerClasses(Class[])} at startup.
+ * <p/>
+ * Each thread reuses its output buffer, buffer which grew larger than {@link #MAX_RETAINED_BUFFER_SIZE}
+ * is dropped after use, so serialization of a single large event does not pin its memory.
+ *
+ * @author EniSh
+ */
+public class BinaryEventSerializer implements EventSerializer {
+    private static final byte FORMAT_VERSION = 1;
+
+    /**
+     * Maximum size of the output buffer kept by thread between serializations, in bytes.
+     */
+    public static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte REFERENCE = 1;
+    private static final byte OBJECT = 2;
+    private static final byte STRING = 3;
+    private static final byte LONG = 4;
+    private static final byte INTEGER = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte CHARACTER = 11;
+    private static final byte BYTES = 12;
+    private static final byte UUID_VALUE = 13;
+    private static final byte DATE_TIME = 14;
+    private static final byte ENUM = 15;
+    private static final byte COLLECTION = 16;
+    private static final byte MAP = 17;
+    private static final byte ARRAY = 18;
+    private static final byte SERIALIZABLE = 19;
+
+    private final ClassDictionary dictionary;
+    private final ConcurrentMap<Class<?>, ClassDescriptor> descriptors =
+            new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+
+    private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(1024);
+        }
+    };
+
+    /**
+     * @param connectionManager Manager which provides connections to the database where class dictionary
+     *                          is stored, usually the same database where events are stored.
+     */
+    public BinaryEventSerializer(ConnectionManager connectionManager) {
+        this.dictionary = new ClassDictionary(connectionManager);
+    }
+
+    /**
+     * Registers given classes in the dictionary if they are not registered yet. Classes of the fields are
+     * registered when the first event which contains them is serialized.
+     *
+     * @param types Classes of the events.
+     */
+    public void registerClasses(Class<?>... types) {
+        for (Class<?> type : types) {
+            dictionary.getId(type);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize(DomainEvent event) {
+        final ByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+        try {
+            final DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(FORMAT_VERSION);
+            new Writer(out).writeObject(event);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Event " + event + " can not be serialized.", e);
+        } finally {
+            if (buffer.size() > MAX_RETAINED_BUFFER_SIZE) {
+                buffers.remove();
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DomainEvent deserialize(byte[] serializedEvent) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(serializedEvent));
+        try {
+            final byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException("Serialization format " + version + " is not supported.");
+            }
+            return (DomainEvent) new Reader(in).readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Event can not be deserialized.", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Event can not be deserialized.", e);
+        }
+    }
+
+    private ClassDescriptor descriptor(Class<?> type) {
+        ClassDescriptor descriptor = descriptors.get(type);
+        if (descriptor == null) {
+            descriptor = new ClassDescriptor(type);
+            descriptors.putIfAbsent(type, descriptor);
+        }
+        return descriptor;
+    }
+
+    private static boolean isJdkClass(Class<?> type) {
+        final String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") ||
+                name.startsWith("org.joda.");
+    }
+
+    private static boolean isCompactCollection(Object value) {
+        final Class<?> type = value.getClass();
+        return type == ArrayList.class || type == LinkedList.class || type == HashSet.class ||
+                type == LinkedHashSet.class;
+    }
+
+    private static boolean isCompactMap(Object value) {
+        final Class<?> type = value.getClass();
+        return type == HashMap.class || type == LinkedHashMap.class;
+    }
+
+    private class Writer {
+        private final DataOutputStream out;
+        private final Map<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeObject(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+                return;
+            }
+
+            final Class<?> type = value.getClass();
+            if (type == String.class) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (type == Long.class) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (type == Integer.class) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (type == Boolean.class) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (type == Double.class) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (type == Float.class) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (type == Short.class) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (type == Byte.class) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (type == Character.class) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) value);
+            } else if (type == byte[].class) {
+                out.writeByte(BYTES);
+                out.writeInt(((byte[]) value).length);
+                out.write((byte[]) value);
+            } else if (type == UUID.class) {
+                out.writeByte(UUID_VALUE);
+                out.writeLong(((UUID) value).getMostSignificantBits());
+                out.writeLong(((UUID) value).getLeastSignificantBits());
+            } else if (type == DateTime.class) {
+                out.writeByte(DATE_TIME);
+                out.writeLong(((DateTime) value).getMillis());
+                writeString(((DateTime) value).getZone().getID());
+            } else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                out.writeInt(dictionary.getId(((Enum<?>) value).getDeclaringClass()));
+                writeString(((Enum<?>) value).name());
+            } else if (writeReference(value)) {
+                return;
+            } else if (isCompactCollection(value)) {
+                out.writeByte(COLLECTION);
+                out.writeInt(dictionary.getId(type));
+                out.writeInt(((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value) {
+                    writeObject(element);
+                }
+            } else if (isCompactMap(value)) {
+                out.writeByte(MAP);
+                out.writeInt(dictionary.getId(type));
+                out.writeInt(((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (type.isArray() && !type.getComponentType().isPrimitive()) {
+                out.writeByte(ARRAY);
+                out.writeInt(dictionary.getId(type));
+                final Object[] array = (Object[]) value;
+                out.writeInt(array.length);
+                for (Object element : array) {
+                    writeObject(element);
+                }
+            } else if (isJdkClass(type) || type.isArray()) {
+                writeSerializable(value);
+            } else {
+                out.writeByte(OBJECT);
+                out.writeInt(dictionary.getId(type));
+                descriptor(type).writeFields(this, value);
+            }
+        }
+
+        /**
+         * Writes back reference if object was already written, registers object otherwise.
+         */
+        private boolean writeReference(Object value) throws IOException {
+            final Integer reference = references.get(value);
+            if (reference != null) {
+                out.writeByte(REFERENCE);
+                out.writeInt(reference);
+                return true;
+            }
+            references.put(value, references.size());
+            return false;
+        }
+
+        private void writeSerializable(Object value) throws IOException {
+            if (!(value instanceof Serializable)) {
+                throw new IllegalArgumentException("Object of class " + value.getClass().getName() +
+                        " can not be serialized.");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+
+            out.writeByte(SERIALIZABLE);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+
+        private void writeString(String value) throws IOException {
+            final byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private class Reader {
+        private final DataInputStream in;
+        private final List<Object> references = new ArrayList<Object>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object readObject() throws IOException, ClassNotFoundException {
+            final byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case REFERENCE:
+                    return references.get(in.readInt());
+                case STRING:
+                    return readString();
+                case LONG:
+                    return in.readLong();
+                case INTEGER:
+                    return in.readInt();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case CHARACTER:
+                    return in.readChar();
+                case BYTES: {
+                    final byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    return bytes;
+                }
+                case UUID_VALUE:
+                    return new UUID(in.readLong(), in.readLong());
+                case DATE_TIME: {
+                    final long millis = in.readLong();
+                    return new DateTime(millis, DateTimeZone.forID(readString()));
+                }
+                case ENUM: {
+                    final Class enumType = dictionary.getClass(in.readInt());
+                    return Enum.valueOf(enumType, readString());
+                }
+                case COLLECTION: {
+                    final Collection<Object> collection = (Collection<Object>) newCollection();
+                    references.add(collection);
+                    final int size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        collection.add(readObject());
+                    }
+                    return collection;
+                }
+                case MAP: {
+                    final Map<Object, Object> map = (Map<Object, Object>) newCollection();
+                    references.add(map);
+                    final int size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        final Object key = readObject();
+                        map.put(key, readObject());
+                    }
+                    return map;
+                }
+                case ARRAY: {
+                    final Class<?> arrayType = dictionary.getClass(in.readInt());
+                    final Object[] array = (Object[]) Array.newInstance(arrayType.getComponentType(),
+                            in.readInt());
+                    references.add(array);
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = readObject();
+                    }
+                    return array;
+                }
+                case SERIALIZABLE: {
+                    final byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    final ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                    final Object value = objectIn.readObject();
+                    references.add(value);
+                    return value;
+                }
+                case OBJECT: {
+                    final ClassDescriptor descriptor = descriptor(dictionary.getClass(in.readInt()));
+                    final Object value = descriptor.newInstance();
+                    references.add(value);
+                    descriptor.readFields(this, value);
+                    return value;
+                }
+                default:
+                    throw new IllegalStateException("Unknown value tag " + tag + ".");
+            }
+        }
+
+        private Object newCollection() throws IOException {
+            final Class<?> type = dictionary.getClass(in.readInt());
+            try {
+                return type.newInstance();
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Collection of class " + type.getName() + " can not be created.", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Collection of class " + type.getName() + " can not be created.", e);
+            }
+        }
+
+        private String readString() throws IOException {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+    }
+
+    /**
+     * Cached fields and constructor of the serialized class.
+     */
+    private static final class ClassDescriptor {
+        private static final Object reflectionFactory = reflectionFactory();
+
+        private final Class<?> type;
+        private final Field[] fields;
+        private final Constructor<?> constructor;
+
+        private ClassDescriptor(Class<?> type) {
+            this.type = type;
+            this.fields = collectFields(type);
+            this.constructor = serializationConstructor(type);
+        }
+
+        private Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Object of class " + type.getName() + " can not be created.", e);
+            }
+        }
+
+        private void writeFields(Writer writer, Object value) throws IOException {
+            final DataOutputStream out = writer.out;
+            try {
+                for (Field field : fields) {
+                    final Class<?> fieldType = field.getType();
+                    if (!fieldType.isPrimitive()) {
+                        writer.writeObject(field.get(value));
+                    } else if (fieldType == long.class) {
+                        out.writeLong(field.getLong(value));
+                    } else if (fieldType == int.class) {
+                        out.writeInt(field.getInt(value));
+                    } else if (fieldType == boolean.class) {
+                        out.writeBoolean(field.getBoolean(value));
+                    } else if (fieldType == double.class) {
+                        out.writeDouble(field.getDouble(value));
+                    } else if (fieldType == float.class) {
+                        out.writeFloat(field.getFloat(value));
+                    } else if (fieldType == short.class) {
+                        out.writeShort(field.getShort(value));
+                    } else if (fieldType == byte.class) {
+                        out.writeByte(field.getByte(value));
+                    } else {
+                        out.writeChar(field.getChar(value));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Fields of class " + type.getName() + " can not be read.", e);
+            }
+        }
+
+        private void readFields(Reader reader, Object value) throws IOException, ClassNotFoundException {
+            final DataInputStream in = reader.in;
+            try {
+                for (Field field : fields) {
+                    final Class<?> fieldType = field.getType();
+                    if (!fieldType.isPrimitive()) {
+                        field.set(value, reader.readObject());
+                    } else if (fieldType == long.class) {
+                        field.setLong(value, in.readLong());
+                    } else if (fieldType == int.class) {
+                        field.setInt(value, in.readInt());
+                    } else if (fieldType == boolean.class) {
+                        field.setBoolean(value, in.readBoolean());
+                    } else if (fieldType == double.class) {
+                        field.setDouble(value, in.readDouble());
+                    } else if (fieldType == float.class) {
+                        field.setFloat(value, in.readFloat());
+                    } else if (fieldType == short.class) {
+                        field.setShort(value, in.readShort());
+                    } else if (fieldType == byte.class) {
+                        field.setByte(value, in.readByte());
+                    } else {
+                        field.setChar(value, in.readChar());
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Fields of class " + type.getName() + " can not be set.", e);
+            }
+        }
+
+        /**
+         * Collects instance fields from the top of hierarchy down, fields of each class are sorted by name,
+         * so order does not depend on JVM.
+         */
+        private static Field[] collectFields(Class<?> type) {
+            final LinkedList<Class<?>> hierarchy = new LinkedList<Class<?>>();
+            for (Class<?> current = type; current != null && current != Object.class;
+                 current = current.getSuperclass()) {
+                hierarchy.addFirst(current);
+            }
+
+            final List<Field> fields = new ArrayList<Field>();
+            for (Class<?> current : hierarchy) {
+                final Field[] declared = current.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    @Override
+                    public int compare(Field first, Field second) {
+                        return first.getName().compareTo(second.getName());
+                    }
+                });
+                for (Field field : declared) {
+                    final int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+
+        /**
+         * Returns constructor which creates instance without calling of constructors of the class, the same way
+         * as Java serialization does. If it is not supported by JVM, no-argument constructor is used.
+         */
+        private static Constructor<?> serializationConstructor(Class<?> type) {
+            if (reflectionFactory != null) {
+                try {
+                    final Method method = reflectionFactory.getClass().getMethod("newConstructorForSerialization",
+                            Class.class, Constructor.class);
+                    final Constructor<?> constructor = (Constructor<?>) method.invoke(reflectionFactory, type,
+                            Object.class.getDeclaredConstructor());
+                    constructor.setAccessible(true);
+                    return constructor;
+                } catch (Exception e) {
+                    // fall back to no-argument constructor
+                }
+            }
+
+            try {
+                final Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Class " + type.getName() + " can not be instantiated.", e);
+            }
+        }
+
+        private static Object reflectionFactory() {
+            try {
+                final Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+                return factoryClass.getMethod("getReflectionFactory").invoke(null);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.EventSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes Domain Events committed by {@link OrientEventStore} to its {@link ChangeFeedSubscription}s.
+ * <p/>
+ * Entries are passed to the feed by {@link ConnectionHooks} after transaction is committed. Publishing only puts
+ * entries into the buffers of subscriptions, it never waits for listeners and does not deserialize events:
+ * entries appended in serialized form are deserialized by the delivery threads of subscriptions,
+ * see {@link #toEvent(DomainEventEntry)}. Subscriptions deliver entries in the order of positions and hold back
+ * entries while lower position is in flight, so feed also notifies them when positions are released.
+ *
+ * @author EniSh
+ */
+class ChangeFeed {
+    private final EventSerializer eventSerializer;
+    private final List<ChangeFeedSubscription> subscriptions = new CopyOnWriteArrayList<ChangeFeedSubscription>();
+    private volatile PositionAllocator positionAllocator;
+
+    /**
+     * @param eventSerializer Serializer which is used to deserialize entries appended in serialized form.
+     */
+    ChangeFeed(EventSerializer eventSerializer) {
+        this.eventSerializer = eventSerializer;
+    }
+
+    /**
+     * @param positionAllocator Allocator of positions of the published entries, <code>null</code> if positions
+     *                          are not allocated.
+     */
+    void setPositionAllocator(PositionAllocator positionAllocator) {
+        this.positionAllocator = positionAllocator;
+    }
+
+    /**
+     * @return Current allocator of positions or <code>null</code> if positions are not allocated.
+     */
+    PositionAllocator getPositionAllocator() {
+        return positionAllocator;
+    }
+
+    void add(ChangeFeedSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    void remove(ChangeFeedSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Publishes committed entries to all subscriptions. Entries without position are not published.
+     *
+     * @param committedEntries Committed entries in the order they were appended.
+     */
+    synchronized void entriesCommitted(List<DomainEventEntry> committedEntries) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>(committedEntries.size());
+        for (DomainEventEntry entry : committedEntries) {
+            if (entry.getPosition() >= 0) {
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        for (ChangeFeedSubscription subscription : subscriptions) {
+            subscription.publish(entries);
+        }
+    }
+
+    /**
+     * Notifies subscriptions that positions in flight were released by finished transaction.
+     */
+    void positionsReleased() {
+        for (ChangeFeedSubscription subscription : subscriptions) {
+            subscription.positionsReleased();
+        }
+    }
+
+    /**
+     * Converts published entry to the event which is passed to listener, entry appended in serialized form
+     * is deserialized. Called by delivery thread of subscription.
+     *
+     * @param entry Published entry.
+     * @return Event together with its position.
+     */
+    PositionedDomainEvent toEvent(DomainEventEntry entry) {
+        final DomainEvent event = entry.getEvent() != null ? entry.getEvent() :
+                eventSerializer.deserialize(entry.getSerializedBody());
+        return new PositionedDomainEvent(entry.getPosition(), entry.getAggregateType(), event);
+    }
+}
@@ -0,0 +1,19 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+/**
+ * Receiver of Domain Events committed to {@link OrientEventStore}, see
+ * {@link OrientEventStore#subscribe(ChangeFeedListener, long, int)}.
+ * <p/>
+ * Listener is called by the delivery thread of its subscription, so it is never called concurrently
+ * and slow listener does not delay appending threads.
+ *
+ * @author EniSh
+ */
+public interface ChangeFeedListener {
+    /**
+     * Called for each committed Domain Event.
+     *
+     * @param event Event together with its global position.
+     */
+    void onEvent(PositionedDomainEvent event);
+}
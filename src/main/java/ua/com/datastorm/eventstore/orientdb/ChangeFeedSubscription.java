@@ -0,0 +1,327 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Subscription of {@link ChangeFeedListener} to the events committed by {@link OrientEventStore}.
+ * <p/>
+ * Committed events are put into the bounded buffer of the subscription and delivered by its own thread in the order
+ * of positions. Buffered event is held back while lower position allocated by the EventStore is still in flight,
+ * so live events are delivered in the order of positions even though transactions are committed in other order.
+ * If listener falls behind and buffer overflows, buffered events are dropped and subscription switches to catch-up
+ * mode: events after the last delivered position are read from the store page by page by
+ * {@link OrientEventStore#readEventsAfter(long, int)}, which never returns events past the lowest position in flight.
+ * New subscription starts in catch-up mode from the position passed to
+ * {@link OrientEventStore#subscribe(ChangeFeedListener, long, int)}.
+ * <p/>
+ * When catch-up reaches the end of the store, live events are buffered again. Events of the EventStore which were
+ * published before that have positions lower than the end of positions allocated at that moment, so subscription
+ * waits until the store is settled up to that end and reads the rest of the store again. Events which are read and
+ * buffered both are delivered once, so every event committed by the EventStore is delivered exactly once and in the
+ * order of positions.
+ * <p/>
+ * Events appended by other EventStore instances are not published to the buffer, they are delivered only by
+ * catch-up reads. Event of other instance whose position is lower than the last delivered one when catch-up is
+ * started again is not delivered, so consumers of events appended by several instances should poll
+ * {@link OrientEventStore#readEventsAfter(long, int)} instead.
+ * <p/>
+ * Exceptions thrown by listener are logged and the event is skipped. If delivery itself fails, for example
+ * connection can not be opened or event can not be read, failure is logged and exposed by {@link #getFailure()},
+ * then delivery is retried in catch-up mode after the last delivered position. Delay between attempts is doubled
+ * while they fail, up to {@link #MAX_RETRY_DELAY_MILLIS}. Subscription stops only when it is cancelled.
+ *
+ * @author EniSh
+ */
+public class ChangeFeedSubscription {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeedSubscription.class);
+
+    private static final long MIN_RETRY_DELAY_MILLIS = 100;
+
+    /**
+     * Interval of checks whether the store is settled before the subscription rejoins the live feed.
+     */
+    private static final long SETTLING_CHECK_INTERVAL_MILLIS = 10;
+
+    /**
+     * Maximum delay before the next attempt to deliver events after failure, in milliseconds.
+     */
+    public static final long MAX_RETRY_DELAY_MILLIS = 10000;
+
+    private final OrientEventStore eventStore;
+    private final ChangeFeed changeFeed;
+    private final ChangeFeedListener listener;
+    private final int bufferSize;
+
+    private final TreeMap<Long, DomainEventEntry> buffer = new TreeMap<Long, DomainEventEntry>();
+    private boolean overflowed = true;
+    private volatile boolean cancelled;
+
+    private volatile long lastPosition;
+    private volatile long deliveredCount;
+    private volatile long catchUpCount;
+    private volatile Throwable failure;
+
+    /**
+     * @param eventStore    EventStore which is used to read events in catch-up mode.
+     * @param changeFeed    Feed which publishes events to the subscription.
+     * @param listener      Receiver of the events.
+     * @param afterPosition Position after which events are delivered.
+     * @param bufferSize    Maximum amount of events waiting for delivery, it is also size of the catch-up page.
+     */
+    ChangeFeedSubscription(OrientEventStore eventStore, ChangeFeed changeFeed, ChangeFeedListener listener,
+                           long afterPosition, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size should be positive.");
+        }
+        this.eventStore = eventStore;
+        this.changeFeed = changeFeed;
+        this.listener = listener;
+        this.bufferSize = bufferSize;
+        this.lastPosition = afterPosition;
+    }
+
+    /**
+     * Starts delivery thread.
+     *
+     * @param connectionManager Manager which provides connection used by catch-up reads.
+     */
+    void start(final ConnectionManager connectionManager) {
+        final Thread deliverer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long retryDelay = MIN_RETRY_DELAY_MILLIS;
+                long deliveredAtFailure = -1;
+                while (!cancelled) {
+                    ODatabaseDocument db = null;
+                    try {
+                        db = connectionManager.getNewConnection();
+                        deliver(db);
+                    } catch (InterruptedException e) {
+                        logger.warn("Delivery thread was interrupted, subscription is cancelled.", e);
+                        cancel();
+                    } catch (Throwable e) {
+                        retryDelay = deliveredCount != deliveredAtFailure ? MIN_RETRY_DELAY_MILLIS :
+                                Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                        deliveredAtFailure = deliveredCount;
+                        failure = e;
+                        logger.warn("Delivery to " + listener + " failed, it will be retried in " + retryDelay +
+                                " ms.", e);
+                        if (!awaitRetry(retryDelay)) {
+                            logger.warn("Delivery thread was interrupted, subscription is cancelled.");
+                            cancel();
+                        }
+                    } finally {
+                        if (db != null) {
+                            db.close();
+                        }
+                    }
+                }
+            }
+        }, "ChangeFeedSubscription-" + listener.getClass().getSimpleName());
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    /**
+     * Waits before the next attempt to deliver events, buffered events are dropped and will be read by catch-up.
+     *
+     * @return <code>false</code> if thread was interrupted.
+     */
+    private synchronized boolean awaitRetry(long delayMillis) {
+        overflowed = true;
+        buffer.clear();
+        final long deadline = System.currentTimeMillis() + delayMillis;
+        try {
+            long remaining = delayMillis;
+            while (!cancelled && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops delivery, events which are already buffered are not delivered.
+     */
+    public void cancel() {
+        changeFeed.remove(this);
+        synchronized (this) {
+            cancelled = true;
+            buffer.clear();
+            notifyAll();
+        }
+        logger.debug("Subscription of {} was cancelled.", listener);
+    }
+
+    /**
+     * @return Position of the last delivered event, or position passed at subscription if nothing was delivered.
+     */
+    public long getLastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * @return Amount of delivered events.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return Amount of switches to catch-up mode, including the initial one.
+     */
+    public long getCatchUpCount() {
+        return catchUpCount;
+    }
+
+    /**
+     * @return Last failure of the delivery or <code>null</code> if delivery did not fail or has recovered since.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Puts entries into the buffer, if they do not fit subscription is switched to catch-up mode.
+     * Entries are converted to events by delivery thread.
+     *
+     * @param entries Committed entries which have positions.
+     */
+    synchronized void publish(List<DomainEventEntry> entries) {
+        if (cancelled || overflowed) {
+            return;
+        }
+        if (buffer.size() + entries.size() > bufferSize) {
+            overflowed = true;
+            buffer.clear();
+            logger.debug("Buffer of {} overflowed, subscription is switched to catch-up mode.", listener);
+        } else {
+            for (DomainEventEntry entry : entries) {
+                buffer.put(entry.getPosition(), entry);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Wakes up delivery thread which waits for positions in flight.
+     */
+    synchronized void positionsReleased() {
+        notifyAll();
+    }
+
+    private void deliver(ODatabaseDocument db) throws InterruptedException {
+        while (!cancelled) {
+            final List<DomainEventEntry> entries;
+            final boolean catchUp;
+            synchronized (this) {
+                while (!cancelled && !overflowed && !hasSettledEntries()) {
+                    wait();
+                }
+                if (cancelled) {
+                    return;
+                }
+                catchUp = overflowed;
+                entries = catchUp ? null : takeSettledEntries();
+            }
+
+            if (catchUp) {
+                catchUp(db);
+                continue;
+            }
+            for (DomainEventEntry entry : entries) {
+                if (!cancelled && entry.getPosition() > lastPosition) {
+                    deliverEvent(changeFeed.toEvent(entry));
+                }
+            }
+            failure = null;
+        }
+    }
+
+    /**
+     * Buffered entry is settled if there is no lower position in flight, no entry can be published before it anymore.
+     */
+    private boolean hasSettledEntries() {
+        return !buffer.isEmpty() && buffer.firstKey() < getLowestInFlight();
+    }
+
+    private List<DomainEventEntry> takeSettledEntries() {
+        final SortedMap<Long, DomainEventEntry> settled = buffer.headMap(getLowestInFlight());
+        final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>(settled.values());
+        settled.clear();
+        return entries;
+    }
+
+    private long getLowestInFlight() {
+        final PositionAllocator allocator = changeFeed.getPositionAllocator();
+        return allocator != null ? allocator.getLowestInFlight() : Long.MAX_VALUE;
+    }
+
+    private void catchUp(ODatabaseDocument db) throws InterruptedException {
+        catchUpCount++;
+        logger.debug("{} catches up after position {}.", listener, lastPosition);
+
+        while (!cancelled && readPage(db)) {
+            // continue until the end of the store is reached
+        }
+
+        final long rejoinEnd;
+        synchronized (this) {
+            overflowed = false;
+            buffer.clear();
+            final PositionAllocator allocator = changeFeed.getPositionAllocator();
+            rejoinEnd = allocator != null ? allocator.getAllocatedEnd() : 0;
+        }
+        // events published before buffering was switched on have lower positions, they are read from the store
+        while (!cancelled && PositionAllocator.readSafeEnd(db) < rejoinEnd) {
+            synchronized (this) {
+                if (overflowed) {
+                    return;
+                }
+                wait(SETTLING_CHECK_INTERVAL_MILLIS);
+            }
+        }
+        while (!cancelled && readPage(db)) {
+            // events read from now on can be buffered as well
+        }
+        failure = null;
+        logger.debug("{} rejoined live feed at position {}.", listener, lastPosition);
+    }
+
+    /**
+     * @return <code>true</code> if page was full and there may be more events to read.
+     */
+    private boolean readPage(ODatabaseDocument db) {
+        final List<PositionedDomainEvent> page = eventStore.readEventsAfter(db, lastPosition, bufferSize);
+        for (PositionedDomainEvent event : page) {
+            if (cancelled) {
+                return false;
+            }
+            deliverEvent(event);
+        }
+        return page.size() == bufferSize;
+    }
+
+    private void deliverEvent(PositionedDomainEvent event) {
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            logger.warn("Listener failed to process " + event + ", event is skipped.", e);
+        }
+        if (event.getPosition() > lastPosition) {
+            lastPosition = event.getPosition();
+        }
+        deliveredCount++;
+    }
+}
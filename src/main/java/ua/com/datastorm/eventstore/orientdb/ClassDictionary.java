@@ -0,0 +1,217 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary of the classes used by {@link BinaryEventSerializer}, each class is presented in serialized events
+ * by small integer id instead of its name.
+ * <p/>
+ * Dictionary is stored in the documents of {@link #DICTIONARY_CLASS} class. New classes are registered using
+ * separate connection and transaction, so registration is not rolled back together with the transaction of
+ * serialized events. Registration opens that connection from the thread of the caller, even if caller has active
+ * transaction on its own connection. Ids are unique, so if other process registers the same id concurrently,
+ * dictionary is reloaded and registration is retried.
+ * <p/>
+ * Array of classes is never changed after it is published, it is replaced by the updated copy, so readers
+ * do not need synchronization.
+ *
+ * @author EniSh
+ */
+class ClassDictionary {
+    private static final Logger logger = LoggerFactory.getLogger(ClassDictionary.class);
+
+    /**
+     * Name of the document class that is used to store dictionary.
+     */
+    static final String DICTIONARY_CLASS = "EventClassDictionary";
+
+    /**
+     * Name of the field that contains name of the registered class.
+     * <p/>
+     * OrientDb type : {@link OType#STRING}. Mandatory. Not Null. Unique.
+     */
+    static final String CLASS_NAME_FIELD = "className";
+
+    /**
+     * Name of the field that contains id of the registered class.
+     * <p/>
+     * OrientDb type : {@link OType#INTEGER}. Mandatory. Not Null. Unique.
+     */
+    static final String CLASS_ID_FIELD = "classId";
+
+    private static final int REGISTRATION_ATTEMPTS = 3;
+
+    private final ConnectionManager connectionManager;
+    private final ConcurrentMap<Class<?>, Integer> ids = new ConcurrentHashMap<Class<?>, Integer>();
+    private volatile Class<?>[] classes;
+
+    /**
+     * @param connectionManager Manager which provides connections to the database where dictionary is stored.
+     */
+    ClassDictionary(ConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Returns id of the class, class is registered if it is not in the dictionary yet.
+     *
+     * @param type Class to be presented by id.
+     * @return Id of the class.
+     */
+    int getId(Class<?> type) {
+        final Integer id = ids.get(type);
+        if (id != null) {
+            return id;
+        }
+        return register(type);
+    }
+
+    /**
+     * Returns class registered with given id. If id is unknown dictionary is reloaded, because class could be
+     * registered by other process.
+     *
+     * @param id Id of the class.
+     * @return Registered class.
+     * @throws IllegalStateException if there is no class with given id or class can not be loaded.
+     */
+    Class<?> getClass(int id) {
+        Class<?> type = lookup(id);
+        if (type != null) {
+            return type;
+        }
+
+        synchronized (this) {
+            type = lookup(id);
+            if (type == null) {
+                final ODatabaseDocument database = connectionManager.getNewConnection();
+                try {
+                    load(database);
+                } finally {
+                    database.close();
+                }
+                type = lookup(id);
+            }
+        }
+        if (type == null) {
+            throw new IllegalStateException("Class with id " + id + " is not registered or can not be loaded.");
+        }
+        return type;
+    }
+
+    private Class<?> lookup(int id) {
+        final Class<?>[] current = classes;
+        if (current == null || id < 0 || id >= current.length) {
+            return null;
+        }
+        return current[id];
+    }
+
+    private synchronized int register(Class<?> type) {
+        Integer id = ids.get(type);
+        if (id != null) {
+            return id;
+        }
+
+        final ODatabaseDocument database = connectionManager.getNewConnection();
+        try {
+            RuntimeException failure = null;
+            for (int attempt = 0; attempt < REGISTRATION_ATTEMPTS; attempt++) {
+                load(database);
+                id = ids.get(type);
+                if (id != null) {
+                    return id;
+                }
+
+                final int newId = classes.length;
+                try {
+                    final ODocument document = new ODocument(database, DICTIONARY_CLASS);
+                    document.field(CLASS_NAME_FIELD, type.getName());
+                    document.field(CLASS_ID_FIELD, newId);
+                    document.save();
+                } catch (RuntimeException e) {
+                    logger.debug("Registration of class \"{}\" failed, dictionary will be reloaded.",
+                            type.getName());
+                    failure = e;
+                    continue;
+                }
+
+                put(type, newId);
+                logger.debug("Class \"{}\" was registered with id {}.", type.getName(), newId);
+                return newId;
+            }
+            throw new IllegalStateException("Class \"" + type.getName() + "\" can not be registered.", failure);
+        } finally {
+            database.close();
+        }
+    }
+
+    private void load(ODatabaseDocument database) {
+        createClass(database);
+
+        final Map<Class<?>, Integer> loaded = new HashMap<Class<?>, Integer>();
+        int length = classes != null ? classes.length : 0;
+        for (ODocument document : database.browseClass(DICTIONARY_CLASS)) {
+            final String className = document.field(CLASS_NAME_FIELD);
+            final int id = document.<Number>field(CLASS_ID_FIELD).intValue();
+            length = Math.max(length, id + 1);
+            try {
+                loaded.put(Class.forName(className, false, classLoader()), id);
+            } catch (ClassNotFoundException e) {
+                logger.debug("Class \"{}\" of the dictionary can not be loaded.", className);
+            }
+        }
+        publish(loaded, length);
+    }
+
+    private void put(Class<?> type, int id) {
+        publish(Collections.<Class<?>, Integer>singletonMap(type, id), id + 1);
+    }
+
+    /**
+     * Publishes copy of the array of classes which contains given classes, then adds them to the map of ids.
+     */
+    private void publish(Map<Class<?>, Integer> added, int minLength) {
+        final Class<?>[] current = classes;
+        final Class<?>[] updated = current == null ? new Class<?>[minLength] :
+                Arrays.copyOf(current, Math.max(current.length, minLength));
+        for (Map.Entry<Class<?>, Integer> entry : added.entrySet()) {
+            updated[entry.getValue()] = entry.getKey();
+        }
+        classes = updated;
+        ids.putAll(added);
+    }
+
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : ClassDictionary.class.getClassLoader();
+    }
+
+    private static void createClass(ODatabaseDocument database) {
+        final OSchema schema = database.getMetadata().getSchema();
+        if (schema.existsClass(DICTIONARY_CLASS)) {
+            return;
+        }
+
+        final OClass dictionaryClass = schema.createClass(DICTIONARY_CLASS);
+        dictionaryClass.createProperty(CLASS_NAME_FIELD, OType.STRING).setMandatory(true).setNotNull(true).
+                createIndex(OProperty.INDEX_TYPE.UNIQUE);
+        dictionaryClass.createProperty(CLASS_ID_FIELD, OType.INTEGER).setMandatory(true).setNotNull(true).
+                createIndex(OProperty.INDEX_TYPE.UNIQUE);
+        schema.save();
+        logger.debug("OClass \"{}\" was created.", DICTIONARY_CLASS);
+    }
+}
@@ -0,0 +1,163 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline tool which moves existing Domain Events to the clusters chosen by new {@link ClusterRoutingStrategy},
+ * for example after changing of amount of shards of {@link HashShardingClusterRoutingStrategy}.
+ * <p/>
+ * Tool should be run when no EventStore writes to the database. Clusters are scanned by pages of record positions
+ * and misplaced events are moved in transactions of configurable size, so only one page of events is kept in
+ * memory. Event indexes are not updated together with the moved documents, they are rebuilt from the stored
+ * documents when all events are moved. So interrupted run can be simply started again: it moves the rest of
+ * the events and repairs indexes even if nothing is left to move.
+ * <p/>
+ * Usage: <code>ClusterResharder &lt;database url&gt; &lt;user&gt; &lt;password&gt; &lt;shard count&gt;
+ * [cluster prefix]</code>
+ *
+ * @author EniSh
+ */
+public class ClusterResharder {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterResharder.class);
+
+    private final ODatabaseDocument database;
+    private final ClusterRoutingStrategy targetStrategy;
+    private int transactionSize = 1000;
+
+    /**
+     * @param database       Database which contains events to be moved.
+     * @param targetStrategy Strategy which will be used by EventStore after resharding.
+     */
+    public ClusterResharder(ODatabaseDocument database, ClusterRoutingStrategy targetStrategy) {
+        this.database = database;
+        this.targetStrategy = targetStrategy;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: ClusterResharder <database url> <user> <password> <shard count> " +
+                    "[cluster prefix]");
+            return;
+        }
+
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(args[0]).open(args[1], args[2]);
+        try {
+            final int shardCount = Integer.parseInt(args[3]);
+            final HashShardingClusterRoutingStrategy strategy = args.length > 4 ?
+                    new HashShardingClusterRoutingStrategy(args[4], shardCount) :
+                    new HashShardingClusterRoutingStrategy(shardCount);
+
+            final long moved = new ClusterResharder(database, strategy).reshard();
+            System.out.println(moved + " events were moved to " + shardCount + " shards.");
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * @param transactionSize Amount of events which are moved in single transaction, default value is 1000.
+     */
+    public void setTransactionSize(int transactionSize) {
+        if (transactionSize < 1) {
+            throw new IllegalArgumentException("Transaction size should be positive.");
+        }
+        this.transactionSize = transactionSize;
+    }
+
+    /**
+     * Moves all Domain Events which are stored not in the cluster chosen by target strategy.
+     *
+     * @return Amount of moved events.
+     */
+    public long reshard() {
+        final EventStoreSchema schema = EventStoreSchema.initialize(database);
+
+        long moved = 0;
+        for (int clusterId : schema.getDomainEventClass().getClusterIds()) {
+            moved += moveMisplacedEvents(schema, clusterId);
+        }
+        schema.rebuildIndexes();
+
+        logger.info("{} events were moved.", moved);
+        return moved;
+    }
+
+    private long moveMisplacedEvents(EventStoreSchema schema, int clusterId) {
+        final long[] range = database.getStorage().getClusterDataRange(clusterId);
+        final List<ODocument> misplaced = new ArrayList<ODocument>(transactionSize);
+        long moved = 0;
+
+        for (long position = Math.max(range[0], 0); position <= range[1]; position += transactionSize) {
+            final long end = Math.min(range[1] + 1, position + transactionSize);
+            final List<ORID> rids = new ArrayList<ORID>((int) (end - position));
+            for (long p = position; p < end; p++) {
+                rids.add(new ORecordId(clusterId, p));
+            }
+
+            for (ODocument document : PagedDomainEventStream.loadDocuments(database, rids)) {
+                if (document != null && targetClusterId(schema, document) != clusterId) {
+                    misplaced.add(document);
+                }
+            }
+            if (misplaced.size() >= transactionSize) {
+                final List<ODocument> page = misplaced.subList(0, transactionSize);
+                moveEvents(page, schema.getDomainEventClass());
+                moved += page.size();
+                page.clear();
+            }
+        }
+        if (!misplaced.isEmpty()) {
+            moveEvents(misplaced, schema.getDomainEventClass());
+            moved += misplaced.size();
+        }
+
+        logger.debug("{} events of cluster \"{}\" were moved.", moved, database.getClusterNameById(clusterId));
+        return moved;
+    }
+
+    private int targetClusterId(EventStoreSchema schema, ODocument document) {
+        final String clusterName = targetStrategy.getClusterName(
+                document.<String>field(DomainEventEntry.AGGREGATE_TYPE_FIELD),
+                document.<String>field(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD));
+        if (clusterName == null) {
+            return schema.getDomainEventClass().getDefaultClusterId();
+        }
+        return schema.getDomainEventClusterId(database, clusterName);
+    }
+
+    private void moveEvents(List<ODocument> originals, OClass eventClass) {
+        database.begin();
+        try {
+            for (ODocument original : originals) {
+                final ODocument copy = new ODocument(eventClass);
+                for (String fieldName : original.fieldNames()) {
+                    copy.field(fieldName, original.field(fieldName));
+                }
+
+                final String clusterName = targetStrategy.getClusterName(
+                        original.<String>field(DomainEventEntry.AGGREGATE_TYPE_FIELD),
+                        original.<String>field(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD));
+                if (clusterName == null) {
+                    copy.save(database.getClusterNameById(eventClass.getDefaultClusterId()));
+                } else {
+                    copy.save(clusterName);
+                }
+                original.delete();
+            }
+            database.commit();
+        } catch (RuntimeException e) {
+            database.rollback();
+            throw e;
+        }
+    }
+}
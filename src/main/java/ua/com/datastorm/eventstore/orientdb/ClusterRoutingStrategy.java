@@ -0,0 +1,22 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+/**
+ * Strategy which chooses OrientDB cluster where Domain Event of the given aggregate is stored.
+ * <p/>
+ * Strategy should always return the same cluster for the same aggregate, so all its events are kept together.
+ * Clusters which do not exist are created by {@link OrientEventStore} and added to the
+ * {@link DomainEventEntry#DOMAIN_EVENT_CLASS} class.
+ *
+ * @author EniSh
+ */
+public interface ClusterRoutingStrategy {
+
+    /**
+     * Returns name of the cluster where events of given aggregate should be stored.
+     *
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @return Name of the cluster or <code>null</code> if default cluster of the class should be used.
+     */
+    String getClusterName(String aggregateType, String aggregateIdentifier);
+}
@@ -0,0 +1,168 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Decides which serialized events are compressed before they are stored and performs Deflate compression.
+ * <p/>
+ * Body is compressed if its size is not less than {@link #setMinimumSize(int) minimum size} and compression
+ * is enabled for the aggregate type of the event. Compressed body is stored only if it is smaller than original one.
+ * Compressed bodies are marked in the document, so compressed and uncompressed events can coexist and policy can be
+ * changed at any time.
+ * <p/>
+ * Each call uses its own {@link Deflater} or {@link Inflater} whose native memory is released by
+ * <code>end()</code> before the call returns, so no native memory is held by idle threads.
+ * <p/>
+ * To use policy pass it to {@link OrientEventStore#setCompressionPolicy(CompressionPolicy)}.
+ *
+ * @author EniSh
+ */
+public class CompressionPolicy {
+    /**
+     * Identifier of the Deflate compression which is written to the documents.
+     */
+    static final int DEFLATE = 1;
+
+    private int minimumSize = 256;
+    private int level = Deflater.BEST_SPEED;
+    private boolean enabledByDefault = true;
+    private Map<String, Boolean> aggregateTypes = new HashMap<String, Boolean>();
+
+    /**
+     * @param minimumSize Bodies smaller than given amount of bytes are not compressed, default value is 256.
+     */
+    public void setMinimumSize(int minimumSize) {
+        if (minimumSize < 0) {
+            throw new IllegalArgumentException("Minimum size can not be negative.");
+        }
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * @param level Deflate compression level from 1 to 9, default value is 1 (best speed).
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level should be in range from 1 to 9.");
+        }
+        this.level = level;
+    }
+
+    /**
+     * @param enabledByDefault Whether events of aggregate types which are not listed in
+     *                         {@link #setAggregateTypes(Map)} are compressed, default value is <code>true</code>.
+     */
+    public void setEnabledByDefault(boolean enabledByDefault) {
+        this.enabledByDefault = enabledByDefault;
+    }
+
+    /**
+     * @param aggregateTypes Map of aggregate type to the flag which switches compression of its events on or off.
+     */
+    public void setAggregateTypes(Map<String, Boolean> aggregateTypes) {
+        this.aggregateTypes = new HashMap<String, Boolean>(aggregateTypes);
+    }
+
+    /**
+     * @param aggregateType Type of the aggregate.
+     * @param bodySize      Size of serialized event.
+     * @return <code>true</code> if body should be compressed.
+     */
+    boolean shouldCompress(String aggregateType, int bodySize) {
+        if (bodySize < minimumSize) {
+            return false;
+        }
+        final Boolean enabled = aggregateTypes.get(aggregateType);
+        return enabled == null ? enabledByDefault : enabled;
+    }
+
+    /**
+     * Compresses body if it is required by policy.
+     *
+     * @param aggregateType Type of the aggregate.
+     * @param body          Serialized event.
+     * @return Compressed body or <code>null</code> if body should be stored as is.
+     */
+    byte[] compress(String aggregateType, byte[] body) {
+        if (!shouldCompress(aggregateType, body.length)) {
+            return null;
+        }
+
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 4);
+            out.write(body.length >>> 24);
+            out.write(body.length >>> 16);
+            out.write(body.length >>> 8);
+            out.write(body.length);
+            final byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+                if (out.size() >= body.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Restores body compressed by {@link #compress(String, byte[])}.
+     *
+     * @param compression Identifier of compression written to the document.
+     * @param compressed  Compressed body.
+     * @return Original body.
+     * @throws IllegalStateException if compression is not supported or data are corrupted.
+     */
+    static byte[] decompress(int compression, byte[] compressed) {
+        return decompress(compression, compressed, 0, compressed.length);
+    }
+
+    /**
+     * Restores body compressed by {@link #compress(String, byte[])} which is stored in the part of the array.
+     *
+     * @param compression Identifier of compression written to the document.
+     * @param bytes       Array which contains compressed body.
+     * @param offset      Offset of the compressed body.
+     * @param size        Size of the compressed body.
+     * @return Original body.
+     * @throws IllegalStateException if compression is not supported or data are corrupted.
+     */
+    static byte[] decompress(int compression, byte[] bytes, int offset, int size) {
+        if (compression != DEFLATE) {
+            throw new IllegalStateException("Compression " + compression + " is not supported.");
+        }
+
+        final int length = ByteBuffer.wrap(bytes, offset, size).getInt();
+        final byte[] body = new byte[length];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset + 4, size - 4);
+            int inflated = 0;
+            while (inflated < length) {
+                final int count = inflater.inflate(body, inflated, length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed body is truncated.");
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed body is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+        return body;
+    }
+}
@@ -0,0 +1,261 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hooks of {@link OrientEventStore} which are registered once per database connection.
+ * <p/>
+ * Composite index key of each event document is calculated once and shared by all hooks until
+ * transaction is finished. Changes of indexes are saved once per transaction after it is committed.
+ * Sequence numbers of appended events are published to {@link LastSequenceCache} and appended events
+ * are published to {@link AggregateEventCache} and {@link ChangeFeed} after commit as well. Aggregates reserved
+ * in {@link LastSequenceCache} and positions allocated in the transaction are released when it is finished in any
+ * way, after committed state is published.
+ *
+ * @author EniSh
+ */
+class ConnectionHooks implements ODatabaseListener {
+    private final Map<ODocument, String> keys = new IdentityHashMap<ODocument, String>();
+    private final Map<AggregateKey, Long> appendedSequences = new HashMap<AggregateKey, Long>();
+    private LastSequenceCache lastSequenceCache;
+    private final Set<AggregateKey> reservedAggregates = new HashSet<AggregateKey>();
+    private final List<DomainEventEntry> appendedEntries = new ArrayList<DomainEventEntry>();
+    private AggregateEventCache aggregateEventCache;
+    private final List<DomainEventEntry> publishedEntries = new ArrayList<DomainEventEntry>();
+    private ChangeFeed changeFeed;
+    private final Map<PositionAllocator, List<Long>> allocatedPositions =
+            new IdentityHashMap<PositionAllocator, List<Long>>();
+    private final AggregateSequenceIndexHook sequenceIndexHook;
+    private DomainEventUniquenessHook uniquenessHook;
+
+    /**
+     * Creates and registers hooks which maintain indexes of aggregate sequence.
+     *
+     * @param database Connection where hooks should be registered.
+     * @param schema   Initialized event store schema.
+     */
+    ConnectionHooks(ODatabaseDocument database, EventStoreSchema schema) {
+        sequenceIndexHook = new AggregateSequenceIndexHook(this, schema.getDomainEventIndex(),
+                schema.getSnapshotEventIndex(), schema.getTimestampIndex());
+        database.registerHook(sequenceIndexHook);
+        database.registerListener(this);
+    }
+
+    /**
+     * Registers {@link DomainEventUniquenessHook} if it was not registered yet.
+     *
+     * @param database Connection where hook should be registered.
+     * @param schema   Initialized event store schema.
+     */
+    void registerUniquenessHook(ODatabaseDocument database, EventStoreSchema schema) {
+        if (uniquenessHook == null) {
+            uniquenessHook = new DomainEventUniquenessHook(this, schema.getUniquenessIndex(database));
+            database.registerHook(uniquenessHook);
+        }
+    }
+
+    /**
+     * Returns composite index key of the event document, key is calculated only once per transaction.
+     *
+     * @param document Event document.
+     * @return Key generated by {@link AggregateSequenceIndex#generateKey(ODocument)}.
+     */
+    String keyOf(ODocument document) {
+        String key = keys.get(document);
+        if (key == null) {
+            key = AggregateSequenceIndex.generateKey(document);
+            keys.put(document, key);
+        }
+        return key;
+    }
+
+    /**
+     * Returns last sequence number of the aggregate appended in the current transaction.
+     *
+     * @param key Aggregate key.
+     * @return Sequence number or <code>null</code> if events of the aggregate were not appended.
+     */
+    Long getAppendedSequenceNumber(AggregateKey key) {
+        return appendedSequences.get(key);
+    }
+
+    /**
+     * Reserves aggregate in the cache until the current transaction is finished, aggregate which is already
+     * reserved by this connection is reserved again.
+     *
+     * @param cache Cache which keeps reservations.
+     * @param key   Aggregate key.
+     * @return <code>false</code> if aggregate is reserved by concurrent transaction.
+     */
+    boolean reserveAggregate(LastSequenceCache cache, AggregateKey key) {
+        if (!cache.reserve(key, this)) {
+            return false;
+        }
+        lastSequenceCache = cache;
+        reservedAggregates.add(key);
+        return true;
+    }
+
+    /**
+     * Remembers sequence numbers appended in the current transaction, they are published to the cache
+     * when transaction is committed and forgotten when it is rolled back.
+     *
+     * @param cache     Cache to be updated.
+     * @param sequences Last appended sequence number per aggregate.
+     */
+    void sequencesAppended(LastSequenceCache cache, Map<AggregateKey, Long> sequences) {
+        lastSequenceCache = cache;
+        appendedSequences.putAll(sequences);
+    }
+
+    /**
+     * Remembers entries appended in the current transaction, they are added to the cache
+     * when transaction is committed and forgotten when it is rolled back.
+     *
+     * @param cache   Cache to be updated.
+     * @param entries Appended entries.
+     */
+    void entriesAppended(AggregateEventCache cache, List<DomainEventEntry> entries) {
+        aggregateEventCache = cache;
+        appendedEntries.addAll(entries);
+    }
+
+    /**
+     * Remembers entries appended in the current transaction, they are published to the feed
+     * when transaction is committed and forgotten when it is rolled back.
+     *
+     * @param feed    Feed to publish entries to.
+     * @param entries Appended entries.
+     */
+    void entriesAppended(ChangeFeed feed, List<DomainEventEntry> entries) {
+        changeFeed = feed;
+        publishedEntries.addAll(entries);
+    }
+
+    /**
+     * Remembers position allocated in the current transaction, it is released when transaction is finished.
+     *
+     * @param allocator Allocator which returned the position.
+     * @param feed      Feed whose subscriptions wait for positions in flight.
+     * @param position  Allocated position.
+     */
+    void positionAllocated(PositionAllocator allocator, ChangeFeed feed, long position) {
+        changeFeed = feed;
+        List<Long> positions = allocatedPositions.get(allocator);
+        if (positions == null) {
+            positions = new ArrayList<Long>();
+            allocatedPositions.put(allocator, positions);
+        }
+        positions.add(position);
+    }
+
+    /**
+     * Saves changed indexes and forgets calculated keys.
+     */
+    void flush() {
+        sequenceIndexHook.flush();
+        if (uniquenessHook != null) {
+            uniquenessHook.flush();
+        }
+        keys.clear();
+    }
+
+    @Override
+    public void onAfterTxCommit(ODatabase iDatabase) {
+        flush();
+        if (lastSequenceCache != null) {
+            for (Map.Entry<AggregateKey, Long> entry : appendedSequences.entrySet()) {
+                lastSequenceCache.update(entry.getKey(), entry.getValue());
+            }
+        }
+        appendedSequences.clear();
+        releaseAggregates();
+        if (aggregateEventCache != null && !appendedEntries.isEmpty()) {
+            aggregateEventCache.entriesCommitted(appendedEntries);
+        }
+        appendedEntries.clear();
+        if (changeFeed != null && !publishedEntries.isEmpty()) {
+            changeFeed.entriesCommitted(publishedEntries);
+        }
+        publishedEntries.clear();
+        releasePositions();
+    }
+
+    @Override
+    public void onAfterTxRollback(ODatabase iDatabase) {
+        keys.clear();
+        appendedSequences.clear();
+        releaseAggregates();
+        appendedEntries.clear();
+        publishedEntries.clear();
+        releasePositions();
+    }
+
+    @Override
+    public void onClose(ODatabase iDatabase) {
+        flush();
+        appendedSequences.clear();
+        releaseAggregates();
+        appendedEntries.clear();
+        publishedEntries.clear();
+        releasePositions();
+    }
+
+    /**
+     * Releases aggregates after the cache is updated, so the next transaction checks the new last sequence number.
+     */
+    private void releaseAggregates() {
+        for (AggregateKey key : reservedAggregates) {
+            lastSequenceCache.release(key, this);
+        }
+        reservedAggregates.clear();
+    }
+
+    private void releasePositions() {
+        if (allocatedPositions.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<PositionAllocator, List<Long>> entry : allocatedPositions.entrySet()) {
+            entry.getKey().release(entry.getValue());
+        }
+        allocatedPositions.clear();
+        if (changeFeed != null) {
+            changeFeed.positionsReleased();
+        }
+    }
+
+    @Override
+    public void onCreate(ODatabase iDatabase) {
+    }
+
+    @Override
+    public void onDelete(ODatabase iDatabase) {
+    }
+
+    @Override
+    public void onOpen(ODatabase iDatabase) {
+    }
+
+    @Override
+    public void onBeforeTxBegin(ODatabase iDatabase) {
+    }
+
+    @Override
+    public void onBeforeTxRollback(ODatabase iDatabase) {
+    }
+
+    @Override
+    public void onBeforeTxCommit(ODatabase iDatabase) {
+    }
+}
@@ -0,0 +1,17 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+/**
+ * Stores all Domain Events in the default cluster of {@link DomainEventEntry#DOMAIN_EVENT_CLASS} class.
+ *
+ * @author EniSh
+ */
+public class DefaultClusterRoutingStrategy implements ClusterRoutingStrategy {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClusterName(String aggregateType, String aggregateIdentifier) {
+        return null;
+    }
+}
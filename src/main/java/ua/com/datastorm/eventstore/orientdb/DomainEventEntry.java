@@ -9,6 +9,10 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 import org.axonframework.domain.AggregateIdentifier;
 import org.axonframework.domain.DomainEvent;
 import org.axonframework.eventstore.EventSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,16 +26,30 @@ import org.slf4j.LoggerFactory;
  * <li>{@link #AGGREGATE_IDENTIFIER_FIELD}</li>
  * <li>{@link #AGGREGATE_TYPE_FIELD}</li>
  * <li>{@link #SEQUENCE_NUMBER_FIELD}</li>
- * <li>{@link #TIMESTAMP_FIELD}</li>
+ * <li>{@link #TIMESTAMP_MILLIS_FIELD}</li>
+ * <li>{@link #TIMESTAMP_OFFSET_FIELD}</li>
+ * <li>{@link #FORMAT_FIELD}</li>
  * <li>{@link #BODY_FIELD}</li>
+ * <li>{@link #POSITION_FIELD}</li>
  * </ol>
+ * In {@link StorageFormat#BINARY_ENVELOPE} format {@link #TIMESTAMP_OFFSET_FIELD} and {@link #BODY_FIELD}
+ * are replaced by {@link #ENVELOPE_FIELD}. Use {@link #getBody(ODocument)} to read body of any document.
+ * <p/>
+ * Body can be compressed according to {@link CompressionPolicy}, compression is marked by
+ * {@link #COMPRESSION_FIELD} or by the flag of {@link EventEnvelope}.
+ * <p/>
+ * Documents written by previous versions contain {@link #TIMESTAMP_FIELD} instead of time stamp in
+ * milliseconds, use {@link #getTimestamp(ODocument)} to read time stamp of any document and
+ * {@link TimestampFormatConverter} to convert them.
  * <p/>
  * Document will have class named {@link #DOMAIN_EVENT_CLASS}.
+ * Documents are indexed by {@link AggregateSequenceIndex}.
  *
  * @author Andrey Lomakin
  */
 class DomainEventEntry {
     private static final Logger logger = LoggerFactory.getLogger(DomainEventEntry.class);
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = ISODateTimeFormat.dateTime().withOffsetParsed();
 
     /**
      * Name of the document class that will be used to store Domain Events.
@@ -61,25 +79,79 @@ class DomainEventEntry {
     static final String SEQUENCE_NUMBER_FIELD = "sequenceNumber";
 
     /**
-     * Name of the field that will contain time stamp (yyyy-MM-ddTHH:mm:ss.SSSZZ)
-     * String presentation  of the stored Domain Event.
+     * Name of the field that contained time stamp (yyyy-MM-ddTHH:mm:ss.SSSZZ)
+     * String presentation of the stored Domain Event in {@link StorageFormat#STRING_TIMESTAMP} format.
+     * New documents do not contain this field.
      * <p/>
-     * OrientDb type : {@link OType#STRING}. Mandatory. Not Null. Max And Min length equals to 29.
+     * OrientDb type : {@link OType#STRING}. Max And Min length equals to 29.
      */
     static final String TIMESTAMP_FIELD = "timestamp";
 
+    /**
+     * Name of the field that will contain time stamp of the stored Domain Event as milliseconds since epoch.
+     * Field is indexed, so it can be used in range queries.
+     * <p/>
+     * OrientDb type : {@link OType#LONG}. Absent in {@link StorageFormat#STRING_TIMESTAMP} documents.
+     */
+    static final String TIMESTAMP_MILLIS_FIELD = "timestampMillis";
+
+    /**
+     * Name of the field that will contain offset of the time zone of the Domain Event time stamp in milliseconds.
+     * <p/>
+     * OrientDb type : {@link OType#INTEGER}. Absent in {@link StorageFormat#STRING_TIMESTAMP} documents.
+     */
+    static final String TIMESTAMP_OFFSET_FIELD = "timestampOffset";
+
+    /**
+     * Name of the field that will contain version of the {@link StorageFormat} of the document.
+     * <p/>
+     * OrientDb type : {@link OType#INTEGER}. Absent in {@link StorageFormat#STRING_TIMESTAMP} documents.
+     */
+    static final String FORMAT_FIELD = "format";
+
     /**
      * Name of the field that will contain generated by {@link EventSerializer} byte presentation
      * of the stored Domain Event.
      * <p/>
-     * OrientDb type : {@link OType#BINARY}. Mandatory. Not Null.
+     * OrientDb type : {@link OType#BINARY}. Absent in {@link StorageFormat#BINARY_ENVELOPE} documents.
      */
     static final String BODY_FIELD = "body";
 
+    /**
+     * Name of the field that will contain {@link EventEnvelope} of the stored Domain Event.
+     * <p/>
+     * OrientDb type : {@link OType#BINARY}. Present only in {@link StorageFormat#BINARY_ENVELOPE} documents.
+     */
+    static final String ENVELOPE_FIELD = "envelope";
+
+    /**
+     * Name of the field that will contain identifier of compression of the {@link #BODY_FIELD}.
+     * <p/>
+     * OrientDb type : {@link OType#INTEGER}. Present only if body is compressed.
+     */
+    static final String COMPRESSION_FIELD = "compression";
+
+    /**
+     * Name of the field that will contain global position of the Domain Event allocated by
+     * {@link PositionAllocator}. Field is indexed, so events can be read in the order of positions.
+     * <p/>
+     * OrientDb type : {@link OType#LONG}. Present only if positions are allocated.
+     */
+    static final String POSITION_FIELD = "position";
+
     private final EventSerializer eventSerializer;
     private final DomainEvent event;
-    private AggregateIdentifier aggregateIdentifier;
-    private String aggregateType;
+    private final String aggregateIdentifier;
+    private final String aggregateType;
+    private final long sequenceNumber;
+    private final DateTime timestamp;
+    private final byte[] serializedBody;
+    private String clusterName;
+    private StorageFormat storageFormat = StorageFormat.CURRENT;
+    private int serializerVersion;
+    private CompressionPolicy compressionPolicy;
+    private int serializedSize = -1;
+    private long position = -1;
 
     /**
      * @param aggregateType   Type of the related aggregate.
@@ -89,13 +161,31 @@ class DomainEventEntry {
      */
     DomainEventEntry(String aggregateType, DomainEvent event, EventSerializer eventSerializer) {
         this.aggregateType = aggregateType;
-        this.aggregateIdentifier = event.getAggregateIdentifier();
+        this.aggregateIdentifier = event.getAggregateIdentifier().asString();
+        this.sequenceNumber = event.getSequenceNumber();
+        this.timestamp = event.getTimestamp();
         this.event = event;
         this.eventSerializer = eventSerializer;
+        this.serializedBody = null;
     }
 
     /**
-     * @return Domain Event to be stored.
+     * Creates entry of already serialized event, serializer is not used.
+     *
+     * @param serializedEvent Serialized event to be stored.
+     */
+    DomainEventEntry(SerializedDomainEvent serializedEvent) {
+        this.aggregateType = serializedEvent.getAggregateType();
+        this.aggregateIdentifier = serializedEvent.getAggregateIdentifier();
+        this.sequenceNumber = serializedEvent.getSequenceNumber();
+        this.timestamp = serializedEvent.getTimestamp();
+        this.serializedBody = serializedEvent.getBody();
+        this.event = null;
+        this.eventSerializer = null;
+    }
+
+    /**
+     * @return Domain Event to be stored or <code>null</code> if entry was created from serialized event.
      */
     DomainEvent getEvent() {
         return event;
@@ -108,11 +198,97 @@ class DomainEventEntry {
         return aggregateType;
     }
 
+    /**
+     * @return String presentation of the related Aggregate identifier.
+     */
+    String getAggregateIdentifier() {
+        return aggregateIdentifier;
+    }
+
+    /**
+     * @return Sequence number of the Domain Event.
+     */
+    long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return Length of the uncompressed serialized event or -1 if document was not created yet.
+     */
+    int getSerializedSize() {
+        return serializedSize;
+    }
+
+    /**
+     * @return Serialized event if entry was created from serialized event or <code>null</code> otherwise.
+     */
+    byte[] getSerializedBody() {
+        return serializedBody;
+    }
+
+    /**
+     * @return Global position of the Domain Event or -1 if position was not allocated.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @param position Global position of the Domain Event, negative value means that position is not written.
+     */
+    void setPosition(long position) {
+        this.position = position;
+    }
+
+    /**
+     * @return Name of the cluster where document should be stored or <code>null</code> if default
+     *         cluster of the class should be used.
+     */
+    String getClusterName() {
+        return clusterName;
+    }
+
+    /**
+     * @param clusterName Name of the cluster where document should be stored or <code>null</code> if default
+     *                    cluster of the class should be used.
+     */
+    void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    /**
+     * @param storageFormat Format of the document, by default {@link StorageFormat#CURRENT} is used.
+     * @param serializerVersion Version of the serializer which is written to {@link EventEnvelope},
+     *                          ignored by other formats.
+     */
+    void setStorageFormat(StorageFormat storageFormat, int serializerVersion) {
+        if (storageFormat == StorageFormat.STRING_TIMESTAMP) {
+            throw new IllegalArgumentException("Format " + storageFormat + " is supported only for reading.");
+        }
+        this.storageFormat = storageFormat;
+        this.serializerVersion = serializerVersion;
+    }
+
+    /**
+     * @param compressionPolicy Policy of body compression or <code>null</code> if body should not be compressed.
+     */
+    void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * @return Name of the document class that presents this kind of entry.
+     */
+    String getClassName() {
+        return DOMAIN_EVENT_CLASS;
+    }
+
     /**
      * Stores {@link DomainEvent} to the newly created document.
-     * If class related to the given document does not exist it will be created and bounded
-     * to the passed in cluster name.
-     * If class exist but not bounded to the passed in cluster it will be.
+     * If class related to the given document does not exist it will be created.
+     * <p/>
+     * Document is not bound to any cluster, cluster is chosen by {@link ClusterRoutingStrategy} of the Event Store
+     * and passed in by {@link #setClusterName(String)}, it is used when document is saved.
      * <p/>
      * Created Document is not stored, if you need to store document call document.save()
      * and schema.save() to persist all changes.
@@ -121,18 +297,109 @@ class DomainEventEntry {
      * @return Document presentation of Domain Event.
      */
     ODocument asDocument(ODatabaseDocument databaseDocument) {
-        final OClass eventClass = createClass(databaseDocument);
+        return asDocument(createClass(databaseDocument));
+    }
 
+    /**
+     * Stores {@link DomainEvent} to the newly created document of the already resolved class.
+     * Used by batch writers that resolve document class only once for all entries in the batch.
+     * <p/>
+     * Created Document is not stored, if you need to store document call document.save().
+     *
+     * @param eventClass Document class that was returned by {@link #createClass(ODatabaseDocument)}.
+     * @return Document presentation of Domain Event.
+     */
+    ODocument asDocument(OClass eventClass) {
         final ODocument eventDocument = new ODocument(eventClass);
-        eventDocument.field(AGGREGATE_IDENTIFIER_FIELD, aggregateIdentifier.asString());
-        eventDocument.field(SEQUENCE_NUMBER_FIELD, event.getSequenceNumber());
-        eventDocument.field(TIMESTAMP_FIELD, event.getTimestamp().toString());
-        eventDocument.field(BODY_FIELD, eventSerializer.serialize(event));
+        eventDocument.field(AGGREGATE_IDENTIFIER_FIELD, aggregateIdentifier);
+        eventDocument.field(SEQUENCE_NUMBER_FIELD, sequenceNumber);
+        final long timestampMillis = timestamp.getMillis();
+        final int timestampOffset = timestamp.getZone().getOffset(timestampMillis);
+        eventDocument.field(TIMESTAMP_MILLIS_FIELD, timestampMillis);
+        eventDocument.field(FORMAT_FIELD, storageFormat.getVersion());
+        if (position >= 0) {
+            eventDocument.field(POSITION_FIELD, position);
+        }
+
+        byte[] body = event != null ? eventSerializer.serialize(event) : serializedBody;
+        serializedSize = body.length;
+        final byte[] compressedBody = compressionPolicy == null ? null :
+                compressionPolicy.compress(aggregateType, body);
+        if (compressedBody != null) {
+            body = compressedBody;
+        }
+
+        if (storageFormat == StorageFormat.BINARY_ENVELOPE) {
+            final int flags = compressedBody != null ? EventEnvelope.FLAG_DEFLATE : 0;
+            eventDocument.field(ENVELOPE_FIELD, EventEnvelope.write(flags, serializerVersion, aggregateType,
+                    sequenceNumber, timestampMillis, timestampOffset, body));
+        } else {
+            eventDocument.field(TIMESTAMP_OFFSET_FIELD, timestampOffset);
+            eventDocument.field(BODY_FIELD, body);
+            if (compressedBody != null) {
+                eventDocument.field(COMPRESSION_FIELD, CompressionPolicy.DEFLATE);
+            }
+        }
         eventDocument.field(AGGREGATE_TYPE_FIELD, aggregateType);
 
         return eventDocument;
     }
 
+    /**
+     * Reads time stamp of the event document of any {@link StorageFormat}.
+     *
+     * @param document Event document.
+     * @return Time stamp of the event with the time zone offset it was created with.
+     */
+    static DateTime getTimestamp(ODocument document) {
+        switch (StorageFormat.of(document)) {
+            case STRING_TIMESTAMP:
+                return TIMESTAMP_FORMATTER.parseDateTime(document.<String>field(TIMESTAMP_FIELD));
+            case BINARY_ENVELOPE:
+                final EventEnvelope envelope = EventEnvelope.read(document.<byte[]>field(ENVELOPE_FIELD));
+                return new DateTime(envelope.getTimestampMillis(),
+                        DateTimeZone.forOffsetMillis(envelope.getTimestampOffset()));
+            default:
+                final Number millis = document.field(TIMESTAMP_MILLIS_FIELD);
+                final Number offset = document.field(TIMESTAMP_OFFSET_FIELD);
+                return new DateTime(millis.longValue(), DateTimeZone.forOffsetMillis(offset.intValue()));
+        }
+    }
+
+    /**
+     * Reads serialized Domain Event from the event document of any {@link StorageFormat}, compressed body
+     * is decompressed.
+     *
+     * @param document Event document.
+     * @return Body of the event generated by {@link EventSerializer}.
+     */
+    static byte[] getBody(ODocument document) {
+        final byte[] envelopeBytes = document.field(ENVELOPE_FIELD);
+        if (envelopeBytes != null) {
+            return EventEnvelope.read(envelopeBytes).getDecompressedBody();
+        }
+
+        final Number compression = document.field(COMPRESSION_FIELD);
+        if (compression != null) {
+            return CompressionPolicy.decompress(compression.intValue(), document.<byte[]>field(BODY_FIELD));
+        }
+        return document.field(BODY_FIELD);
+    }
+
+    /**
+     * Reads time stamp of the event document of any {@link StorageFormat} as milliseconds since epoch.
+     *
+     * @param document Event document.
+     * @return Time stamp of the event.
+     */
+    static long getTimestampMillis(ODocument document) {
+        final Number millis = document.field(TIMESTAMP_MILLIS_FIELD);
+        if (millis != null) {
+            return millis.longValue();
+        }
+        return getTimestamp(document).getMillis();
+    }
+
     /**
      * Creates document class definition for the Domain Event type that is presented by given document.
      * All descendants should override this method to provide its own class definition.
@@ -141,7 +408,17 @@ class DomainEventEntry {
      * @return Document class that presents Domain Event and auxiliary metadata.
      */
     protected OClass createClass(ODatabaseDocument databaseDocument) {
-        final OSchema schema = databaseDocument.getMetadata().getSchema();
+        return createDomainEventClass(databaseDocument.getMetadata().getSchema());
+    }
+
+    /**
+     * Returns document class definition for the Domain Event, class is created if it does not exist.
+     * Schema is not saved, call schema.save() to persist changes.
+     *
+     * @param schema Schema of the current database.
+     * @return Document class that presents Domain Event and auxiliary metadata.
+     */
+    static OClass createDomainEventClass(OSchema schema) {
         OClass eventClass = schema.getClass(DOMAIN_EVENT_CLASS);
 
         if (eventClass != null) {
@@ -153,15 +430,15 @@ class DomainEventEntry {
 
         eventClass = schema.createClass(DOMAIN_EVENT_CLASS);
 
-        eventClass.createProperty(AGGREGATE_IDENTIFIER_FIELD, OType.STRING).setMandatory(true).setNotNull(true).
-                createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
-        eventClass.createProperty(SEQUENCE_NUMBER_FIELD, OType.LONG).setMandatory(true).setNotNull(true).
-                createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
-        eventClass.createProperty(TIMESTAMP_FIELD, OType.STRING).setMin("29").setMax("29").setMandatory(true).
-                setNotNull(true);
-        eventClass.createProperty(BODY_FIELD, OType.BINARY).setMandatory(true).setNotNull(true);
-        eventClass.createProperty(AGGREGATE_TYPE_FIELD, OType.STRING).setMandatory(true).setNotNull(true).
-                createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
+        eventClass.createProperty(AGGREGATE_IDENTIFIER_FIELD, OType.STRING).setMandatory(true).setNotNull(true);
+        eventClass.createProperty(SEQUENCE_NUMBER_FIELD, OType.LONG).setMandatory(true).setNotNull(true);
+        eventClass.createProperty(TIMESTAMP_MILLIS_FIELD, OType.LONG).createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
+        eventClass.createProperty(TIMESTAMP_OFFSET_FIELD, OType.INTEGER);
+        eventClass.createProperty(FORMAT_FIELD, OType.INTEGER);
+        eventClass.createProperty(BODY_FIELD, OType.BINARY);
+        eventClass.createProperty(ENVELOPE_FIELD, OType.BINARY);
+        eventClass.createProperty(COMPRESSION_FIELD, OType.INTEGER);
+        eventClass.createProperty(AGGREGATE_TYPE_FIELD, OType.STRING).setMandatory(true).setNotNull(true);
 
         return eventClass;
     }
@@ -0,0 +1,93 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.tx.OTransactionNoTx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Group of {@link DomainEventEntry}s of the same kind that are written to the database as one unit.
+ * <p/>
+ * All documents are created using document class which is resolved once for the whole batch.
+ * If there is no active transaction, batch is written in its own transaction, otherwise documents
+ * become part of the transaction that is already started.
+ *
+ * @author EniSh
+ */
+class DomainEventEntryBatch {
+    private final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>();
+
+    /**
+     * Adds entry to the batch. All entries in the batch should present documents of the same class.
+     *
+     * @param entry Entry to be written.
+     */
+    void add(DomainEventEntry entry) {
+        if (!entries.isEmpty() && !entries.get(0).getClassName().equals(entry.getClassName())) {
+            throw new IllegalArgumentException("All entries in the batch should have class \"" +
+                    entries.get(0).getClassName() + "\" but entry of class \"" + entry.getClassName() +
+                    "\" was passed in.");
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * @return Amount of entries in the batch.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return <code>true</code> if batch does not contain any entry.
+     */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Builds documents for all entries of the batch and saves them.
+     *
+     * @param database   Database instance to be used to store documents.
+     * @param eventClass Document class of the entries, it is expected that class already exists.
+     * @return Documents that were saved, in the same order as entries were added.
+     */
+    List<ODocument> write(ODatabaseDocument database, OClass eventClass) {
+        if (entries.isEmpty()) {
+            return new ArrayList<ODocument>();
+        }
+
+        final List<ODocument> documents = new ArrayList<ODocument>(entries.size());
+        for (DomainEventEntry entry : entries) {
+            documents.add(entry.asDocument(eventClass));
+        }
+
+        final boolean ownTransaction = database.getTransaction() instanceof OTransactionNoTx;
+        if (ownTransaction) {
+            database.begin();
+        }
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                final String clusterName = entries.get(i).getClusterName();
+                if (clusterName == null) {
+                    documents.get(i).save();
+                } else {
+                    documents.get(i).save(clusterName);
+                }
+            }
+            if (ownTransaction) {
+                database.commit();
+            }
+        } catch (RuntimeException e) {
+            if (ownTransaction) {
+                database.rollback();
+            }
+            throw e;
+        }
+
+        return documents;
+    }
+}
@@ -1,35 +1,39 @@
 package ua.com.datastorm.eventstore.orientdb;
 
-import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
-import com.orientechnologies.orient.core.index.OIndexCallback;
-import com.orientechnologies.orient.core.index.OIndexManager;
 import com.orientechnologies.orient.core.index.OIndexUnique;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
-import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 
-
-class DomainEventUniquenessHook extends ODocumentHookAbstract implements OIndexCallback {
-    static final String EVENT_UNIQUENESS_INDEX_NAME = DomainEventUniquenessHook.class.getName() +
+/**
+ * Guarantees that there are no two Domain Events with the same aggregate type, aggregate identifier and
+ * sequence number. Unique index uses the same composite key as {@link AggregateSequenceIndex}, key is calculated
+ * once per document by {@link ConnectionHooks}. Index is saved once per transaction.
+ *
+ * @author EniSh
+ */
+class DomainEventUniquenessHook extends ODocumentHookAbstract {
+    static final String EVENT_UNIQUENESS_INDEX_NAME = DomainEventEntry.DOMAIN_EVENT_CLASS + ".uniqueAggregateSequence";
+
+    /**
+     * Name of the uniqueness index created by previous versions, it used different key format.
+     */
+    static final String LEGACY_EVENT_UNIQUENESS_INDEX_NAME = DomainEventUniquenessHook.class.getName() +
             ".EVENT_UNIQUENESS_INDEX";
 
-    private OIndexUnique uniquenessIndex;
-    private ODatabaseDocument database;
-
-    DomainEventUniquenessHook(ODatabaseDocument database) {
-        this.database = database;
+    private final ConnectionHooks connectionHooks;
+    private final OIndexUnique uniquenessIndex;
+    private boolean dirty;
 
-        final OIndexManager indexManager = database.getMetadata().getIndexManager();
-        uniquenessIndex = (OIndexUnique) indexManager.getIndex(EVENT_UNIQUENESS_INDEX_NAME);
+    DomainEventUniquenessHook(ConnectionHooks connectionHooks, OIndexUnique uniquenessIndex) {
+        this.connectionHooks = connectionHooks;
+        this.uniquenessIndex = uniquenessIndex;
     }
 
-
     @Override
     public boolean onRecordBeforeCreate(ODocument iDocument) {
         if (isDomainEvent(iDocument)) {
-            setupIndex(iDocument);
-            uniquenessIndex.checkEntry(iDocument, generateKey(iDocument));
+            uniquenessIndex.checkEntry(iDocument, connectionHooks.keyOf(iDocument));
         }
         return false;
     }
@@ -37,8 +41,8 @@ class DomainEventUniquenessHook extends ODocumentHookAbstract implements OIndexC
     @Override
     public boolean onRecordAfterCreate(ODocument iDocument) {
         if (isDomainEvent(iDocument)) {
-            uniquenessIndex.put(generateKey(iDocument), iDocument.placeholder());
-            uniquenessIndex.lazySave();
+            uniquenessIndex.put(connectionHooks.keyOf(iDocument), iDocument.placeholder());
+            dirty = true;
         }
         return false;
     }
@@ -54,17 +58,20 @@ class DomainEventUniquenessHook extends ODocumentHookAbstract implements OIndexC
     @Override
     public boolean onRecordAfterDelete(ODocument iDocument) {
         if (isDomainEvent(iDocument)) {
-            setupIndex(iDocument);
-
-            uniquenessIndex.remove(generateKey(iDocument));
-            uniquenessIndex.lazySave();
+            uniquenessIndex.remove(connectionHooks.keyOf(iDocument));
+            dirty = true;
         }
         return false;
     }
 
-      @Override
-    public Object getDocumentValueToIndex(ODocument iDocument) {
-        return generateKey(iDocument);
+    /**
+     * Saves index if it was changed.
+     */
+    void flush() {
+        if (dirty) {
+            uniquenessIndex.lazySave();
+            dirty = false;
+        }
     }
 
     private boolean isDomainEvent(ODocument iDocument) {
@@ -72,42 +79,4 @@ class DomainEventUniquenessHook extends ODocumentHookAbstract implements OIndexC
         return schemaClass != null &&
                 (schemaClass.getName().equals(DomainEventEntry.DOMAIN_EVENT_CLASS));
     }
-
-    private void setupIndex(ODocument iDocument) {
-        final OClass schemaClass = iDocument.getSchemaClass();
-        if (uniquenessIndex == null) {
-            final OIndexManager indexManager = database.getMetadata().getIndexManager();
-            uniquenessIndex = (OIndexUnique)
-                    indexManager.createIndex(EVENT_UNIQUENESS_INDEX_NAME, OProperty.INDEX_TYPE.UNIQUE.toString(),
-                            schemaClass.getClusterIds(), this, null, true);
-            uniquenessIndex.rebuild();
-        }
-    }
-
-    private Object generateKey(final ODocument iRecord) {
-        return iRecord.field(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD) + "+" +
-                iRecord.field(DomainEventEntry.SEQUENCE_NUMBER_FIELD) + "+" +
-                iRecord.field(DomainEventEntry.AGGREGATE_TYPE_FIELD);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-
-        if (o == null || getClass() != o.getClass()) {
-            return false;
-        }
-
-        final DomainEventUniquenessHook that = (DomainEventUniquenessHook) o;
-
-        return database.equals(that.database);
-    }
-
-    @Override
-    public int hashCode() {
-        return database.hashCode();
-    }
-
 }
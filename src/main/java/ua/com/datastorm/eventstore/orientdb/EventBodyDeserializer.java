@@ -0,0 +1,107 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.EventSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Deserializes bodies of event documents, serially or in parallel.
+ * <p/>
+ * If executor is set and amount of bodies reaches the threshold, bodies are split into continuous chunks,
+ * one chunk per available processor by default. First chunk is deserialized by the calling thread and the rest chunks
+ * by the executor. Events are put into the target array by their positions, so order of events is preserved.
+ *
+ * @author EniSh
+ */
+class EventBodyDeserializer {
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private final EventSerializer eventSerializer;
+    private final ExecutorService executor;
+    private final int parallelThreshold;
+    private final int maxChunkCount;
+
+    /**
+     * @param eventSerializer   Serializer of event bodies.
+     * @param executor          Executor of parallel deserialization or <code>null</code> to deserialize serially.
+     * @param parallelThreshold Minimal amount of bodies which are deserialized in parallel.
+     */
+    EventBodyDeserializer(EventSerializer eventSerializer, ExecutorService executor, int parallelThreshold) {
+        this(eventSerializer, executor, parallelThreshold, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param eventSerializer   Serializer of event bodies.
+     * @param executor          Executor of parallel deserialization or <code>null</code> to deserialize serially.
+     * @param parallelThreshold Minimal amount of bodies which are deserialized in parallel.
+     * @param maxChunkCount     Maximum amount of chunks which are deserialized in parallel.
+     */
+    EventBodyDeserializer(EventSerializer eventSerializer, ExecutorService executor, int parallelThreshold,
+                          int maxChunkCount) {
+        this.eventSerializer = eventSerializer;
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+        this.maxChunkCount = maxChunkCount;
+    }
+
+    /**
+     * Deserializes given bodies into the target array.
+     *
+     * @param bodies Serialized events.
+     * @param target Array of deserialized events.
+     * @param offset Position in the target array of the event deserialized from the first body.
+     */
+    void deserialize(final List<byte[]> bodies, final DomainEvent[] target, final int offset) {
+        final int size = bodies.size();
+        final int chunkCount = Math.min(maxChunkCount, size / MIN_CHUNK_SIZE);
+        if (executor == null || size < parallelThreshold || chunkCount < 2) {
+            deserializeChunk(bodies, target, offset, 0, size);
+            return;
+        }
+
+        final int chunkSize = (size + chunkCount - 1) / chunkCount;
+        final List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount - 1);
+        for (int start = chunkSize; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    deserializeChunk(bodies, target, offset, chunkStart, chunkEnd);
+                    return null;
+                }
+            }));
+        }
+        deserializeChunk(bodies, target, offset, 0, Math.min(size, chunkSize));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Thread was interrupted while waiting for deserialization.", e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private void deserializeChunk(List<byte[]> bodies, DomainEvent[] target, int offset, int start, int end) {
+        for (int i = start; i < end; i++) {
+            target[offset + i] = eventSerializer.deserialize(bodies.get(i));
+        }
+    }
+}
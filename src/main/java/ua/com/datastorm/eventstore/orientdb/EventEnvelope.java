@@ -0,0 +1,151 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Binary envelope of the Domain Event used by {@link StorageFormat#BINARY_ENVELOPE} format. Envelope contains
+ * header of the event and its serialized body, so document needs only fields which are used by indexes.
+ * <p/>
+ * Layout of the envelope, all numbers are big endian:
+ * <ol>
+ * <li>envelope version, 1 byte;</li>
+ * <li>flags, 1 byte, {@link #FLAG_DEFLATE} marks body compressed by {@link CompressionPolicy};</li>
+ * <li>serializer version, 2 bytes;</li>
+ * <li>length of UTF-8 presentation of aggregate type, 2 bytes, followed by aggregate type bytes;</li>
+ * <li>sequence number, 8 bytes;</li>
+ * <li>time stamp in milliseconds since epoch, 8 bytes;</li>
+ * <li>offset of time stamp time zone in milliseconds, 4 bytes;</li>
+ * <li>length of the body, 4 bytes, followed by body bytes.</li>
+ * </ol>
+ * Size of the envelope is known before it is written, so envelope is written directly into the array of that size.
+ * Compressed body is inflated directly from the envelope array, see {@link #getDecompressedBody()}.
+ *
+ * @author EniSh
+ */
+final class EventEnvelope {
+    /**
+     * Flag of the body compressed by Deflate.
+     */
+    static final int FLAG_DEFLATE = 1;
+
+    private static final byte ENVELOPE_VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FIXED_HEADER_SIZE = 1 + 1 + 2 + 2 + 8 + 8 + 4 + 4;
+
+    private final ByteBuffer buffer;
+    private final int flags;
+    private final int serializerVersion;
+    private final String aggregateType;
+    private final long sequenceNumber;
+    private final long timestampMillis;
+    private final int timestampOffset;
+    private final int bodyOffset;
+    private final int bodyLength;
+
+    private EventEnvelope(byte[] envelope) {
+        buffer = ByteBuffer.wrap(envelope);
+        final byte version = buffer.get();
+        if (version != ENVELOPE_VERSION) {
+            throw new IllegalStateException("Envelope version " + version + " is not supported.");
+        }
+        flags = buffer.get() & 0xFF;
+        serializerVersion = buffer.getShort() & 0xFFFF;
+        final int typeLength = buffer.getShort() & 0xFFFF;
+        aggregateType = new String(envelope, buffer.position(), typeLength, UTF8);
+        buffer.position(buffer.position() + typeLength);
+        sequenceNumber = buffer.getLong();
+        timestampMillis = buffer.getLong();
+        timestampOffset = buffer.getInt();
+        bodyLength = buffer.getInt();
+        bodyOffset = buffer.position();
+    }
+
+    /**
+     * Parses header of the envelope, body is not copied.
+     *
+     * @param envelope Envelope created by {@link #write}.
+     * @return Parsed envelope.
+     * @throws IllegalStateException if envelope has unsupported version.
+     */
+    static EventEnvelope read(byte[] envelope) {
+        return new EventEnvelope(envelope);
+    }
+
+    /**
+     * Writes envelope of the event.
+     *
+     * @param flags             Flags of the body.
+     * @param serializerVersion Version of the serializer which produced the body, from 0 to 65535.
+     * @param aggregateType     Type of the aggregate.
+     * @param sequenceNumber    Sequence number of the event.
+     * @param timestampMillis   Time stamp of the event in milliseconds since epoch.
+     * @param timestampOffset   Offset of the time zone of the time stamp in milliseconds.
+     * @param body              Serialized event.
+     * @return Envelope bytes.
+     */
+    static byte[] write(int flags, int serializerVersion, String aggregateType, long sequenceNumber, long timestampMillis,
+                        int timestampOffset, byte[] body) {
+        final byte[] type = aggregateType.getBytes(UTF8);
+        if (type.length > 0xFFFF) {
+            throw new IllegalArgumentException("Aggregate type is too long.");
+        }
+        final byte[] bytes = new byte[FIXED_HEADER_SIZE + type.length + body.length];
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.put(ENVELOPE_VERSION);
+        buffer.put((byte) flags);
+        buffer.putShort((short) serializerVersion);
+        buffer.putShort((short) type.length);
+        buffer.put(type);
+        buffer.putLong(sequenceNumber);
+        buffer.putLong(timestampMillis);
+        buffer.putInt(timestampOffset);
+        buffer.putInt(body.length);
+        buffer.put(body);
+
+        return bytes;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    int getSerializerVersion() {
+        return serializerVersion;
+    }
+
+    String getAggregateType() {
+        return aggregateType;
+    }
+
+    long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    int getTimestampOffset() {
+        return timestampOffset;
+    }
+
+    /**
+     * @return Copy of the serialized event, it is compressed if {@link #FLAG_DEFLATE} is set.
+     */
+    byte[] getBody() {
+        return Arrays.copyOfRange(buffer.array(), bodyOffset, bodyOffset + bodyLength);
+    }
+
+    /**
+     * @return Serialized event, compressed body is decompressed without intermediate copy.
+     */
+    byte[] getDecompressedBody() {
+        if ((flags & FLAG_DEFLATE) != 0) {
+            return CompressionPolicy.decompress(CompressionPolicy.DEFLATE, buffer.array(), bodyOffset, bodyLength);
+        }
+        return getBody();
+    }
+}
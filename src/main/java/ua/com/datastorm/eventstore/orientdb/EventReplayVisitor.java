@@ -0,0 +1,30 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+
+/**
+ * Receives events replayed by {@link OrientEventStore#visitEvents(EventReplayVisitor, ReplayOptions)}.
+ * <p/>
+ * In parallel mode methods are called concurrently by the threads which scan different clusters,
+ * so implementation should be thread safe.
+ *
+ * @author EniSh
+ */
+public interface EventReplayVisitor {
+
+    /**
+     * Handles replayed Domain Event. Events of the same aggregate are passed in the order of sequence numbers.
+     *
+     * @param aggregateType Type of the aggregate.
+     * @param event         Replayed event.
+     */
+    void doWithEvent(String aggregateType, DomainEvent event);
+
+    /**
+     * Called after each page of events is handled. Position can be stored and passed in
+     * {@link ReplayOptions#setStartPosition(ReplayPosition)} to continue interrupted replay.
+     *
+     * @param position Position after the last handled page.
+     */
+    void positionReached(ReplayPosition position);
+}
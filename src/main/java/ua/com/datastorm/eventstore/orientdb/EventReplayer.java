@@ -0,0 +1,174 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.domain.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replays all Domain Events of the store in storage order, cluster by cluster.
+ * <p/>
+ * Each cluster is scanned page by page: documents of the page are loaded by single query and deserialized,
+ * then passed to the visitor, after that new position is reported. All events of the aggregate are stored
+ * in the same cluster in order of appending, so events of each aggregate are replayed in order of sequence
+ * numbers even when clusters are scanned concurrently.
+ *
+ * @author EniSh
+ */
+class EventReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(EventReplayer.class);
+
+    private final int[] clusterIds;
+    private final EventBodyDeserializer deserializer;
+    private final EventReplayVisitor visitor;
+    private final ReplayOptions options;
+    private final Map<Integer, Long> clusterPositions;
+
+    /**
+     * @param clusterIds   Clusters of the Domain Event class.
+     * @param deserializer Deserializer of event bodies.
+     * @param visitor      Receiver of replayed events.
+     * @param options      Options of the replay.
+     */
+    EventReplayer(int[] clusterIds, EventBodyDeserializer deserializer, EventReplayVisitor visitor,
+                  ReplayOptions options) {
+        this.clusterIds = clusterIds;
+        this.deserializer = deserializer;
+        this.visitor = visitor;
+        this.options = options;
+        this.clusterPositions = new TreeMap<Integer, Long>(options.getStartPosition().getClusterPositions());
+    }
+
+    /**
+     * Scans clusters one by one using given connection.
+     *
+     * @param database Database connection.
+     * @return Position after the last replayed event.
+     */
+    ReplayPosition replay(ODatabaseDocument database) {
+        for (int clusterId : clusterIds) {
+            scanCluster(database, clusterId);
+        }
+        return getPosition();
+    }
+
+    /**
+     * Scans clusters concurrently, each cluster is scanned by its own thread with its own connection.
+     *
+     * @param connectionManager Manager which provides connections for scanning threads.
+     * @return Position after the last replayed event.
+     */
+    ReplayPosition replay(final ConnectionManager connectionManager) {
+        final List<Thread> scanners = new ArrayList<Thread>(clusterIds.length);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (final int clusterId : clusterIds) {
+            final Thread scanner = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final ODatabaseDocument db = connectionManager.getNewConnection();
+                    try {
+                        scanCluster(db, clusterId);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    } finally {
+                        db.close();
+                    }
+                }
+            }, "EventReplayer-cluster-" + clusterId);
+            scanner.start();
+            scanners.add(scanner);
+        }
+
+        try {
+            for (Thread scanner : scanners) {
+                scanner.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Thread was interrupted while waiting for replay.", e);
+        }
+
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                final Throwable cause = failures.get(0);
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause.getMessage(), cause);
+            }
+        }
+        return getPosition();
+    }
+
+    private void scanCluster(ODatabaseDocument db, int clusterId) {
+        final long[] range = db.getStorage().getClusterDataRange(clusterId);
+        long position = Math.max(range[0], startPosition(clusterId));
+        long replayed = 0;
+
+        while (position <= range[1]) {
+            final long end = Math.min(range[1] + 1, position + options.getPageSize());
+            final List<ORID> rids = new ArrayList<ORID>((int) (end - position));
+            for (long p = position; p < end; p++) {
+                rids.add(new ORecordId(clusterId, p));
+            }
+
+            final List<String> types = new ArrayList<String>(rids.size());
+            final List<byte[]> bodies = new ArrayList<byte[]>(rids.size());
+            for (ODocument document : PagedDomainEventStream.loadDocuments(db, rids)) {
+                if (document == null) {
+                    continue;
+                }
+                final String type = document.field(DomainEventEntry.AGGREGATE_TYPE_FIELD);
+                if (options.getAggregateType() == null || options.getAggregateType().equals(type)) {
+                    types.add(type);
+                    bodies.add(DomainEventEntry.getBody(document));
+                }
+            }
+
+            final DomainEvent[] events = new DomainEvent[bodies.size()];
+            deserializer.deserialize(bodies, events, 0);
+            for (int i = 0; i < events.length; i++) {
+                visitor.doWithEvent(types.get(i), events[i]);
+            }
+            replayed += events.length;
+
+            position = end;
+            visitor.positionReached(advance(clusterId, position));
+        }
+
+        logger.debug("{} events of cluster {} were replayed.", replayed, clusterId);
+    }
+
+    private long startPosition(int clusterId) {
+        synchronized (clusterPositions) {
+            final Long position = clusterPositions.get(clusterId);
+            return position == null ? 0 : position;
+        }
+    }
+
+    private ReplayPosition advance(int clusterId, long position) {
+        synchronized (clusterPositions) {
+            clusterPositions.put(clusterId, position);
+            return new ReplayPosition(clusterPositions);
+        }
+    }
+
+    private ReplayPosition getPosition() {
+        synchronized (clusterPositions) {
+            return new ReplayPosition(clusterPositions);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexManager;
+import com.orientechnologies.orient.core.index.OIndexUnique;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holder of document classes and indexes used by {@link OrientEventStore}.
+ * <p/>
+ * Instance is created once by {@link #initialize(ODatabaseDocument)} method which creates classes
+ * {@link DomainEventEntry#DOMAIN_EVENT_CLASS} and {@link SnapshotEventEntry#SNAPSHOT_EVENT_CLASS}
+ * if they do not exist or validates their definition otherwise, so EventStore does not need to check
+ * schema metadata on each read and write operation.
+ *
+ * @author EniSh
+ */
+class EventStoreSchema {
+    private static final Logger logger = LoggerFactory.getLogger(EventStoreSchema.class);
+
+    private final OClass domainEventClass;
+    private final OClass snapshotEventClass;
+    private final AggregateSequenceIndex domainEventIndex;
+    private final AggregateSequenceIndex snapshotEventIndex;
+    private final AggregateTimestampIndex timestampIndex;
+    private final OIndex timestampMillisIndex;
+    private final OIndex positionIndex;
+    private final ConcurrentMap<String, Integer> domainEventClusters = new ConcurrentHashMap<String, Integer>();
+    private volatile OIndexUnique uniquenessIndex;
+
+    private EventStoreSchema(OClass domainEventClass, OClass snapshotEventClass,
+                             AggregateSequenceIndex domainEventIndex, AggregateSequenceIndex snapshotEventIndex,
+                             AggregateTimestampIndex timestampIndex, OIndex timestampMillisIndex,
+                             OIndex positionIndex, OIndexUnique uniquenessIndex) {
+        this.domainEventClass = domainEventClass;
+        this.snapshotEventClass = snapshotEventClass;
+        this.domainEventIndex = domainEventIndex;
+        this.snapshotEventIndex = snapshotEventIndex;
+        this.timestampIndex = timestampIndex;
+        this.timestampMillisIndex = timestampMillisIndex;
+        this.positionIndex = positionIndex;
+        this.uniquenessIndex = uniquenessIndex;
+    }
+
+    /**
+     * Creates or validates classes and indexes that are needed to store Domain Events and Snapshot Events.
+     * Schema is saved only if it was changed.
+     * <p/>
+     * Databases created by previous versions of EventStore are migrated: single field indexes on
+     * aggregate identifier, type and sequence number are dropped, {@link AggregateSequenceIndex}es and
+     * {@link AggregateTimestampIndex} are built from existing documents and properties of the current
+     * {@link StorageFormat} are added.
+     * Existing documents are not converted, see {@link TimestampFormatConverter}.
+     *
+     * @param database Current database instance.
+     * @return Holder of initialized classes and indexes.
+     * @throws IllegalStateException if existing class definition is not compatible with the expected one.
+     */
+    static EventStoreSchema initialize(ODatabaseDocument database) {
+        final OSchema schema = database.getMetadata().getSchema();
+        final boolean classesExisted = schema.existsClass(DomainEventEntry.DOMAIN_EVENT_CLASS) &&
+                schema.existsClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS);
+
+        final OClass domainEventClass = DomainEventEntry.createDomainEventClass(schema);
+        final OClass snapshotEventClass = SnapshotEventEntry.createSnapshotEventClass(schema);
+
+        final boolean propertiesChanged = validateDomainEventClass(domainEventClass);
+        final boolean indexesDropped = dropPropertyIndexes(domainEventClass);
+
+        if (!classesExisted || propertiesChanged || indexesDropped) {
+            schema.save();
+            logger.debug("Event store schema was changed and has been saved.");
+        }
+
+        final OIndexManager indexManager = database.getMetadata().getIndexManager();
+        if (indexManager.getIndex(DomainEventUniquenessHook.LEGACY_EVENT_UNIQUENESS_INDEX_NAME) != null) {
+            indexManager.dropIndex(DomainEventUniquenessHook.LEGACY_EVENT_UNIQUENESS_INDEX_NAME);
+            logger.debug("Uniqueness index of previous version was dropped, it will be rebuilt on demand.");
+        }
+        final OIndexUnique uniquenessIndex = (OIndexUnique)
+                indexManager.getIndex(DomainEventUniquenessHook.EVENT_UNIQUENESS_INDEX_NAME);
+
+        final AggregateSequenceIndex domainEventIndex =
+                AggregateSequenceIndex.createIndex(database, domainEventClass);
+        final AggregateSequenceIndex snapshotEventIndex =
+                AggregateSequenceIndex.createIndex(database, snapshotEventClass);
+        final AggregateTimestampIndex timestampIndex =
+                AggregateTimestampIndex.createIndex(database, domainEventClass);
+        final OIndex timestampMillisIndex = getPropertyIndex(indexManager, DomainEventEntry.TIMESTAMP_MILLIS_FIELD);
+        final OIndex positionIndex = getPropertyIndex(indexManager, DomainEventEntry.POSITION_FIELD);
+
+        logger.debug("Event store schema has been initialized.");
+        return new EventStoreSchema(domainEventClass, snapshotEventClass, domainEventIndex, snapshotEventIndex,
+                timestampIndex, timestampMillisIndex, positionIndex, uniquenessIndex);
+    }
+
+    /**
+     * @return Document class of the Domain Events.
+     */
+    OClass getDomainEventClass() {
+        return domainEventClass;
+    }
+
+    /**
+     * @return Document class of the Snapshot Events.
+     */
+    OClass getSnapshotEventClass() {
+        return snapshotEventClass;
+    }
+
+    /**
+     * @return Index of Domain Events by aggregate and sequence number.
+     */
+    AggregateSequenceIndex getDomainEventIndex() {
+        return domainEventIndex;
+    }
+
+    /**
+     * @return Index of Snapshot Events by aggregate and sequence number.
+     */
+    AggregateSequenceIndex getSnapshotEventIndex() {
+        return snapshotEventIndex;
+    }
+
+    /**
+     * @return Index of Domain Events by aggregate type and time stamp.
+     */
+    AggregateTimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    /**
+     * @return Index of Domain Events by time stamp, keys are {@link DomainEventEntry#TIMESTAMP_MILLIS_FIELD} values.
+     */
+    OIndex getTimestampMillisIndex() {
+        return timestampMillisIndex;
+    }
+
+    /**
+     * @return Index of Domain Events by global position, keys are {@link DomainEventEntry#POSITION_FIELD} values.
+     */
+    OIndex getPositionIndex() {
+        return positionIndex;
+    }
+
+    /**
+     * Refills all indexes of event documents from the stored documents.
+     */
+    void rebuildIndexes() {
+        domainEventIndex.rebuild();
+        snapshotEventIndex.rebuild();
+        timestampIndex.rebuild();
+        timestampMillisIndex.rebuild();
+        positionIndex.rebuild();
+        final OIndexUnique index = uniquenessIndex;
+        if (index != null) {
+            index.rebuild();
+        }
+        logger.debug("Indexes of event documents have been rebuilt.");
+    }
+
+    /**
+     * Returns index that is used to check Domain Event uniqueness, index is created if it does not exist.
+     *
+     * @param database Current database instance.
+     * @return Index that is used by {@link DomainEventUniquenessHook}.
+     */
+    OIndexUnique getUniquenessIndex(ODatabaseDocument database) {
+        OIndexUnique index = uniquenessIndex;
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (this) {
+            if (uniquenessIndex == null) {
+                final OIndexManager indexManager = database.getMetadata().getIndexManager();
+                index = (OIndexUnique) indexManager.createIndex(DomainEventUniquenessHook.EVENT_UNIQUENESS_INDEX_NAME,
+                        OProperty.INDEX_TYPE.UNIQUE.toString(), domainEventClass.getClusterIds(),
+                        AggregateSequenceIndex.INDEX_CALLBACK, null, true);
+                index.rebuild();
+                uniquenessIndex = index;
+                logger.debug("Index \"{}\" was created.", DomainEventUniquenessHook.EVENT_UNIQUENESS_INDEX_NAME);
+            }
+            return uniquenessIndex;
+        }
+    }
+
+    /**
+     * Returns id of the cluster with given name which belongs to the Domain Event class.
+     * Cluster is created and added to the class if needed, in such case schema is saved.
+     * Cluster is registered in all indexes of Domain Events as well, indexes know only clusters which the class
+     * had when they were created, and documents of other clusters are dropped from them by {@link #rebuildIndexes()}.
+     *
+     * @param database    Current database instance.
+     * @param clusterName Name of the cluster.
+     * @return Id of the cluster.
+     */
+    int getDomainEventClusterId(ODatabaseDocument database, String clusterName) {
+        final Integer cachedId = domainEventClusters.get(clusterName);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        synchronized (this) {
+            Integer clusterId = domainEventClusters.get(clusterName);
+            if (clusterId == null) {
+                clusterId = database.getClusterIdByName(clusterName);
+                if (clusterId == -1) {
+                    clusterId = database.addPhysicalCluster(clusterName, clusterName, -1);
+                    logger.debug("Cluster \"{}\" was created.", clusterName);
+                }
+
+                if (!contains(domainEventClass.getClusterIds(), clusterId)) {
+                    domainEventClass.addClusterIds(clusterId);
+                    database.getMetadata().getSchema().save();
+                    logger.debug("Cluster \"{}\" was added to the class \"{}\".", clusterName,
+                            domainEventClass.getName());
+                }
+                addClusterToIndexes(database, clusterName);
+                domainEventClusters.put(clusterName, clusterId);
+            }
+            return clusterId;
+        }
+    }
+
+    private void addClusterToIndexes(ODatabaseDocument database, String clusterName) {
+        boolean changed = domainEventIndex.addCluster(clusterName);
+        changed |= timestampIndex.addCluster(clusterName);
+        changed |= addCluster(timestampMillisIndex, clusterName);
+        changed |= addCluster(positionIndex, clusterName);
+        final OIndexUnique index = uniquenessIndex;
+        if (index != null) {
+            changed |= addCluster(index, clusterName);
+        }
+        if (changed) {
+            database.getMetadata().getIndexManager().save();
+            logger.debug("Cluster \"{}\" was added to the indexes of Domain Events.", clusterName);
+        }
+    }
+
+    /**
+     * Registers cluster in the index if it is not registered yet.
+     *
+     * @param index       Index of event documents.
+     * @param clusterName Name of the cluster.
+     * @return <code>true</code> if cluster was added.
+     */
+    static boolean addCluster(OIndex index, String clusterName) {
+        if (index.getClusters().contains(clusterName)) {
+            return false;
+        }
+        index.addCluster(clusterName);
+        return true;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int item : values) {
+            if (item == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean validateDomainEventClass(OClass eventClass) {
+        boolean changed = false;
+        changed |= validateProperty(eventClass, DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD, OType.STRING);
+        changed |= validateProperty(eventClass, DomainEventEntry.AGGREGATE_TYPE_FIELD, OType.STRING);
+        changed |= validateProperty(eventClass, DomainEventEntry.SEQUENCE_NUMBER_FIELD, OType.LONG);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.BODY_FIELD, OType.BINARY);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.ENVELOPE_FIELD, OType.BINARY);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.COMPRESSION_FIELD, OType.INTEGER);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.TIMESTAMP_MILLIS_FIELD, OType.LONG);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.TIMESTAMP_OFFSET_FIELD, OType.INTEGER);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.FORMAT_FIELD, OType.INTEGER);
+        changed |= validateOptionalProperty(eventClass, DomainEventEntry.POSITION_FIELD, OType.LONG);
+        changed |= createPropertyIndex(eventClass, DomainEventEntry.TIMESTAMP_MILLIS_FIELD);
+        changed |= createPropertyIndex(eventClass, DomainEventEntry.POSITION_FIELD);
+        changed |= relaxProperty(eventClass, DomainEventEntry.TIMESTAMP_FIELD);
+        changed |= relaxProperty(eventClass, DomainEventEntry.BODY_FIELD);
+        return changed;
+    }
+
+    /**
+     * Returns index created by {@link OProperty#createIndex(OProperty.INDEX_TYPE)} for the property of
+     * the Domain Event class.
+     */
+    private static OIndex getPropertyIndex(OIndexManager indexManager, String name) {
+        final String indexName = DomainEventEntry.DOMAIN_EVENT_CLASS + "." + name;
+        final OIndex index = indexManager.getIndex(indexName);
+        if (index == null) {
+            throw new IllegalStateException("Index \"" + indexName + "\" does not exist.");
+        }
+        return index;
+    }
+
+    private static boolean createPropertyIndex(OClass eventClass, String name) {
+        final OProperty property = eventClass.getProperty(name);
+        if (property.isIndexed()) {
+            return false;
+        }
+
+        property.createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
+        logger.debug("Index of property \"{}\" of class \"{}\" was created.", property.getName(),
+                eventClass.getName());
+        return true;
+    }
+
+    /**
+     * Properties which are not written by all {@link StorageFormat}s can not be mandatory.
+     */
+    private static boolean relaxProperty(OClass eventClass, String name) {
+        final OProperty property = eventClass.getProperty(name);
+        if (property == null || (!property.isMandatory() && !property.isNotNull())) {
+            return false;
+        }
+
+        property.setMandatory(false).setNotNull(false);
+        logger.debug("Property \"{}\" of class \"{}\" is not mandatory anymore.", property.getName(),
+                eventClass.getName());
+        return true;
+    }
+
+    private static boolean validateOptionalProperty(OClass eventClass, String name, OType type) {
+        final OProperty property = eventClass.getProperty(name);
+        if (property == null) {
+            eventClass.createProperty(name, type);
+            logger.debug("Missed property \"{}\" of class \"{}\" was created.", name, eventClass.getName());
+            return true;
+        }
+        return checkPropertyType(eventClass, property, type);
+    }
+
+    private static boolean dropPropertyIndexes(OClass eventClass) {
+        boolean changed = false;
+        changed |= dropPropertyIndex(eventClass, DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD);
+        changed |= dropPropertyIndex(eventClass, DomainEventEntry.AGGREGATE_TYPE_FIELD);
+        changed |= dropPropertyIndex(eventClass, DomainEventEntry.SEQUENCE_NUMBER_FIELD);
+        return changed;
+    }
+
+    private static boolean dropPropertyIndex(OClass eventClass, String name) {
+        final OProperty property = eventClass.getProperty(name);
+        if (property == null || !property.isIndexed()) {
+            return false;
+        }
+
+        property.dropIndex();
+        logger.debug("Index of property \"{}\" of class \"{}\" was dropped.", name, eventClass.getName());
+        return true;
+    }
+
+    private static boolean validateProperty(OClass eventClass, String name, OType type) {
+        final OProperty property = eventClass.getProperty(name);
+        if (property == null) {
+            eventClass.createProperty(name, type).setMandatory(true).setNotNull(true);
+            logger.debug("Missed property \"{}\" of class \"{}\" was created.", name, eventClass.getName());
+            return true;
+        }
+
+        return checkPropertyType(eventClass, property, type);
+    }
+
+    private static boolean checkPropertyType(OClass eventClass, OProperty property, OType type) {
+        if (!type.equals(property.getType())) {
+            throw new IllegalStateException("Property \"" + property.getName() + "\" of class \"" +
+                    eventClass.getName() + "\" has type " + property.getType() + " but " + type + " is expected.");
+        }
+        return false;
+    }
+}
@@ -0,0 +1,432 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.axonframework.domain.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coalesces events appended by many concurrent threads into shared OrientDB transactions.
+ * <p/>
+ * Append requests are put into bounded queue, writer threads drain the queue and store all drained requests
+ * in a single transaction. Batch is closed when it contains {@link #setMaxBatchSize(int) maxBatchSize} events
+ * or when {@link #setMaxBatchDelayMillis(long) maxBatchDelayMillis} are elapsed since first request
+ * was taken from the queue. If transaction of the batch fails, each request of the batch is retried in its own
+ * transaction, so the failure is reported only to the caller whose events caused it.
+ * <p/>
+ * Each writer uses its own connection acquired from {@link ConnectionManager}.
+ * To use appender pass it to {@link OrientEventStore#setGroupCommitAppender(GroupCommitAppender)}.
+ * <p/>
+ * Every submitted request is completed: if writer dies because of unexpected failure, appender is stopped and
+ * all queued and later submitted requests fail with that failure, requests left in the queue by
+ * {@link #stop()} fail as well.
+ *
+ * @author EniSh
+ */
+public class GroupCommitAppender {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitAppender.class);
+
+    private int writerCount = 1;
+    private int queueCapacity = 1024;
+    private int maxBatchSize = 500;
+    private long maxBatchDelayMillis = 5;
+
+    private final AppendStatistics commitStatistics = new AppendStatistics();
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private volatile boolean running;
+    private volatile Throwable writerFailure;
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+    private BlockingQueue<AppendRequest> queue;
+    private List<Thread> writers;
+    private OrientEventStore eventStore;
+    private ConnectionManager connectionManager;
+
+    /**
+     * @param writerCount Amount of writer threads, default value is 1.
+     */
+    public void setWriterCount(int writerCount) {
+        if (writerCount < 1) {
+            throw new IllegalArgumentException("Amount of writers should be positive.");
+        }
+        this.writerCount = writerCount;
+    }
+
+    /**
+     * @param queueCapacity Maximum amount of requests which wait for writer, callers are blocked when queue is full.
+     *                      Default value is 1024.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity should be positive.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param maxBatchSize Amount of events after which batch is committed, default value is 500.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchDelayMillis Time that writer waits for new requests before batch is committed,
+     *                            default value is 5 milliseconds. Zero means that batch contains only requests
+     *                            which are already in the queue.
+     */
+    public void setMaxBatchDelayMillis(long maxBatchDelayMillis) {
+        if (maxBatchDelayMillis < 0) {
+            throw new IllegalArgumentException("Batch delay can not be negative.");
+        }
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+    }
+
+    /**
+     * Returns statistics of committed group transactions, each transaction is counted as a single batch.
+     *
+     * @return Statistics of committed transactions.
+     */
+    public AppendStatistics getCommitStatistics() {
+        return commitStatistics;
+    }
+
+    /**
+     * Starts writer threads, does nothing if appender is already started.
+     *
+     * @param eventStore        EventStore which is used to convert and store events.
+     * @param connectionManager Manager which provides connections for writer threads.
+     */
+    synchronized void start(OrientEventStore eventStore, ConnectionManager connectionManager) {
+        if (writers != null) {
+            if (running) {
+                return;
+            }
+            throw new IllegalStateException("Group commit appender failed, it should be stopped before restart.",
+                    writerFailure);
+        }
+
+        this.eventStore = eventStore;
+        this.connectionManager = connectionManager;
+        queue = new ArrayBlockingQueue<AppendRequest>(queueCapacity);
+        writers = new ArrayList<Thread>(writerCount);
+        writerFailure = null;
+        running = true;
+
+        for (int i = 0; i < writerCount; i++) {
+            final Thread writer = new Thread(new Writer(), "GroupCommitAppender-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+
+        logger.debug("Group commit appender with {} writers has been started.", writerCount);
+    }
+
+    /**
+     * Stops writer threads. Requests which are already in the queue are written before writers exit,
+     * requests which were left in the queue because writers died are failed.
+     *
+     * @throws InterruptedException if current thread was interrupted while waiting for writers.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (writers == null) {
+            return;
+        }
+
+        markStopped();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writers = null;
+        failQueued(new IllegalStateException("Group commit appender was stopped before events were written.",
+                writerFailure));
+
+        logger.debug("Group commit appender has been stopped.");
+    }
+
+    /**
+     * No request can be put into the queue after this method returns, because {@link #submit(String, List)}
+     * holds read lock while it checks state and puts request.
+     */
+    private void markStopped() {
+        lifecycleLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    private void failQueued(Throwable cause) {
+        final List<AppendRequest> left = new ArrayList<AppendRequest>();
+        queue.drainTo(left);
+        for (AppendRequest request : left) {
+            request.fail(cause);
+        }
+        if (!left.isEmpty()) {
+            logger.debug("{} queued requests were failed.", left.size());
+        }
+    }
+
+    /**
+     * Puts events in the queue of writers. Call is blocked if queue is full.
+     *
+     * @param type   Type of the aggregate.
+     * @param events Events to be stored.
+     * @return Future which is completed when events are committed or failed.
+     * @throws IllegalStateException if appender is not started, writer failed or current thread was interrupted.
+     */
+    public Future<Void> submit(String type, List<? extends DomainEvent> events) {
+        final AppendRequest request = new AppendRequest(type, events);
+        lifecycleLock.readLock().lock();
+        try {
+            checkRunning();
+            while (!queue.offer(request, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkRunning();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Thread was interrupted while waiting for a place in the queue.", e);
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        return request;
+    }
+
+    private void checkRunning() {
+        final Throwable failure = writerFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Group commit appender is stopped because writer failed.", failure);
+        }
+        if (!running) {
+            throw new IllegalStateException("Group commit appender is not started.");
+        }
+    }
+
+    /**
+     * Puts events in the queue of writers and waits until they are committed. Request is always completed by
+     * writer or failed when appender is stopped, so waiting is not limited by timeout.
+     *
+     * @param type   Type of the aggregate.
+     * @param events Events to be stored.
+     */
+    void append(String type, List<? extends DomainEvent> events) {
+        final Future<Void> future = submit(type, events);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Thread was interrupted while waiting for the commit.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            final List<AppendRequest> batch = new ArrayList<AppendRequest>();
+            ODatabaseDocument db = null;
+            try {
+                db = connectionManager.getNewConnection();
+                while (running || !queue.isEmpty()) {
+                    if (collectBatch(batch)) {
+                        writeBatch(db, batch);
+                        batch.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Writer was interrupted, it is stopped.", e);
+                writerDied(batch, e);
+            } catch (Throwable e) {
+                logger.warn("Writer failed, group commit appender is stopped.", e);
+                writerDied(batch, e);
+            } finally {
+                if (db != null) {
+                    db.close();
+                }
+            }
+        }
+
+        /**
+         * Failure is published before appender is marked as stopped, so callers waiting for a place in the queue
+         * give up and release the lock.
+         */
+        private void writerDied(List<AppendRequest> batch, Throwable cause) {
+            writerFailure = cause;
+            markStopped();
+            for (AppendRequest request : batch) {
+                if (!request.isDone()) {
+                    request.fail(cause);
+                }
+            }
+            failQueued(cause);
+        }
+
+        private boolean collectBatch(List<AppendRequest> batch) throws InterruptedException {
+            final AppendRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return false;
+            }
+
+            batch.add(first);
+            int eventCount = first.events.size();
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+
+            while (eventCount < maxBatchSize) {
+                AppendRequest next = queue.poll();
+                if (next == null) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                }
+                batch.add(next);
+                eventCount += next.events.size();
+            }
+            return true;
+        }
+
+        private void writeBatch(ODatabaseDocument db, List<AppendRequest> batch) {
+            final long start = System.nanoTime();
+            int eventCount = 0;
+            try {
+                db.begin();
+                for (AppendRequest request : batch) {
+                    eventStore.storeEvents(db, request.type, request.events);
+                    eventCount += request.events.size();
+                }
+                db.commit();
+            } catch (RuntimeException e) {
+                rollbackQuietly(db);
+                if (batch.size() == 1) {
+                    batch.get(0).fail(e);
+                } else {
+                    logger.debug("Group transaction of {} requests failed, requests will be retried one by one.",
+                            batch.size());
+                    writeSeparately(db, batch);
+                }
+                return;
+            }
+
+            commitStatistics.record(eventCount, System.nanoTime() - start);
+            for (AppendRequest request : batch) {
+                request.complete();
+            }
+        }
+
+        private void writeSeparately(ODatabaseDocument db, List<AppendRequest> batch) {
+            for (AppendRequest request : batch) {
+                final long start = System.nanoTime();
+                try {
+                    db.begin();
+                    eventStore.storeEvents(db, request.type, request.events);
+                    db.commit();
+                } catch (RuntimeException e) {
+                    rollbackQuietly(db);
+                    request.fail(e);
+                    continue;
+                }
+                commitStatistics.record(request.events.size(), System.nanoTime() - start);
+                request.complete();
+            }
+        }
+
+        private void rollbackQuietly(ODatabaseDocument db) {
+            try {
+                db.rollback();
+            } catch (RuntimeException e) {
+                logger.warn("Rollback of group transaction failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Events passed in by single caller, completion of request is signalled using {@link Future} interface.
+     */
+    private static final class AppendRequest implements Future<Void> {
+        private final String type;
+        private final List<? extends DomainEvent> events;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        private AppendRequest(String type, List<? extends DomainEvent> events) {
+            this.type = type;
+            this.events = events;
+        }
+
+        private void complete() {
+            done.countDown();
+        }
+
+        private void fail(Throwable cause) {
+            failure = cause;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Events were not committed in " + timeout + " " + unit + ".");
+            }
+            return result();
+        }
+
+        private Void result() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return null;
+        }
+    }
+}
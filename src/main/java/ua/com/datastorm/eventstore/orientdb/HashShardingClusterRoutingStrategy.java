@@ -0,0 +1,90 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spreads Domain Events over fixed amount of clusters (shards). Shard of the aggregate is chosen by stable hash
+ * of the aggregate identifier, so all events of the single aggregate are stored in the same shard and
+ * concurrent writes of different aggregates do not contend for the single cluster.
+ * <p/>
+ * Hash does not depend on JVM or platform, but it depends on amount of shards, so changing of
+ * amount of shards requires moving of existing events, see {@link ClusterResharder}.
+ *
+ * @author EniSh
+ */
+public class HashShardingClusterRoutingStrategy implements ClusterRoutingStrategy {
+    private final String prefix;
+    private final String[] clusterNames;
+
+    /**
+     * Creates strategy which uses "domainevent_shard_" prefix for cluster names.
+     *
+     * @param shardCount Amount of shards.
+     */
+    public HashShardingClusterRoutingStrategy(int shardCount) {
+        this("domainevent_shard_", shardCount);
+    }
+
+    /**
+     * @param prefix     Prefix of cluster names, shard number is appended to it.
+     * @param shardCount Amount of shards.
+     */
+    public HashShardingClusterRoutingStrategy(String prefix, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Amount of shards should be positive.");
+        }
+        this.prefix = prefix;
+        clusterNames = new String[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            clusterNames[i] = AggregateTypeClusterRoutingStrategy.toClusterName(prefix + i);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClusterName(String aggregateType, String aggregateIdentifier) {
+        return clusterNames[shardOf(aggregateIdentifier)];
+    }
+
+    /**
+     * @return Names of all shards.
+     */
+    public List<String> getClusterNames() {
+        final List<String> names = new ArrayList<String>(clusterNames.length);
+        Collections.addAll(names, clusterNames);
+        return names;
+    }
+
+    /**
+     * @return Amount of shards.
+     */
+    public int getShardCount() {
+        return clusterNames.length;
+    }
+
+    /**
+     * @return Prefix of cluster names.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Calculates shard number using FNV-1a hash of identifier characters.
+     *
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @return Shard number.
+     */
+    int shardOf(String aggregateIdentifier) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < aggregateIdentifier.length(); i++) {
+            hash ^= aggregateIdentifier.charAt(i);
+            hash *= 0x01000193;
+        }
+        return (hash & Integer.MAX_VALUE) % clusterNames.length;
+    }
+}
@@ -0,0 +1,80 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of the last committed sequence number of Domain Events per aggregate.
+ * <p/>
+ * Cache is updated only after transaction is committed, see {@link ConnectionHooks}, so it never contains
+ * sequence numbers of events which may be rolled back.
+ * <p/>
+ * Transaction which appends events of the aggregate {@link #reserve(AggregateKey, Object) reserves} it before its
+ * last sequence number is checked and releases it after the cache is updated, so two concurrent transactions can
+ * not both check the same last sequence number. Reservations are not evicted.
+ *
+ * @author EniSh
+ */
+class LastSequenceCache {
+    private final LruCache<AggregateKey, Long> sequences;
+    private final ConcurrentMap<AggregateKey, Object> owners = new ConcurrentHashMap<AggregateKey, Object>();
+
+    /**
+     * @param maxSize Maximum amount of aggregates in the cache.
+     */
+    LastSequenceCache(int maxSize) {
+        sequences = new LruCache<AggregateKey, Long>(maxSize);
+    }
+
+    /**
+     * @param key Aggregate key.
+     * @return Last committed sequence number or <code>null</code> if aggregate is not cached.
+     */
+    Long get(AggregateKey key) {
+        return sequences.get(key);
+    }
+
+    /**
+     * Stores sequence number of the aggregate if it is greater than cached one.
+     *
+     * @param key            Aggregate key.
+     * @param sequenceNumber Committed sequence number.
+     */
+    void update(AggregateKey key, long sequenceNumber) {
+        synchronized (sequences.getLock(key)) {
+            final Long cached = sequences.get(key);
+            if (cached == null || cached < sequenceNumber) {
+                sequences.put(key, sequenceNumber);
+            }
+        }
+    }
+
+    /**
+     * Reserves aggregate for the owner which is going to append its events.
+     *
+     * @param key   Aggregate key.
+     * @param owner Owner of the reservation, usually hooks of the connection whose transaction appends events.
+     * @return <code>false</code> if aggregate is reserved by other owner.
+     */
+    boolean reserve(AggregateKey key, Object owner) {
+        final Object current = owners.putIfAbsent(key, owner);
+        return current == null || current == owner;
+    }
+
+    /**
+     * Releases reservation of the aggregate, reservation of other owner is left untouched.
+     *
+     * @param key   Aggregate key.
+     * @param owner Owner of the reservation.
+     */
+    void release(AggregateKey key, Object owner) {
+        owners.remove(key, owner);
+    }
+
+    /**
+     * Removes all cached sequence numbers.
+     */
+    void clear() {
+        sequences.clear();
+    }
+}
@@ -0,0 +1,157 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe map of limited size, least recently used entry is evicted when size limit is exceeded.
+ * <p/>
+ * Entries are spread over segments by hash code of the key, every segment is guarded by its own lock and has its own
+ * share of the size limit, so concurrent readers of different aggregates do not contend on the single lock.
+ * Because of that eviction order is least recently used within the segment rather than within the whole cache.
+ * Small caches consist of the single segment. Compound operations on the single key can be done while holding
+ * the lock returned by {@link #getLock(Object)}.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ * @author EniSh
+ */
+class LruCache<K, V> {
+    /**
+     * Maximum amount of segments.
+     */
+    static final int MAX_SEGMENT_COUNT = 16;
+
+    /**
+     * Minimum amount of entries in the segment, caches which are smaller than two segments are not split.
+     */
+    static final int MIN_SEGMENT_SIZE = 64;
+
+    private final int maxSize;
+    private final Segment<K, V>[] segments;
+
+    /**
+     * @param maxSize Maximum amount of entries in the cache.
+     */
+    LruCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Size of the cache should be positive.");
+        }
+        this.maxSize = maxSize;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENT_COUNT && maxSize / (segmentCount * 2) >= MIN_SEGMENT_SIZE) {
+            segmentCount *= 2;
+        }
+        segments = newSegments(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<K, V>(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Array of wildcard type is created because generic array can not be, it holds only segments of this cache.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegments(int segmentCount) {
+        return (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+    }
+
+    /**
+     * @param key Key of the entry.
+     * @return Cached value or <code>null</code> if there is no entry for the given key.
+     */
+    V get(K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Puts entry in the cache, least recently used entry of the segment is evicted if the segment is full.
+     *
+     * @param key   Key of the entry.
+     * @param value Value of the entry.
+     */
+    void put(K key, V value) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * @param key Key of the entry to be removed.
+     */
+    void remove(K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Current amount of entries.
+     */
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Maximum amount of entries.
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns lock which guards entry of the given key, it should be held during compound operations on the entry.
+     *
+     * @param key Key of the entry.
+     * @return Lock of the segment which contains the entry.
+     */
+    Object getLock(K key) {
+        return segmentFor(key);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -1,13 +1,11 @@
 package ua.com.datastorm.eventstore.orientdb;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
-import com.orientechnologies.orient.core.hook.ORecordHook;
-import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
-import com.orientechnologies.orient.core.sql.OCommandSQL;
-import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.tx.OTransactionNoTx;
 import org.axonframework.domain.AggregateIdentifier;
 import org.axonframework.domain.DomainEvent;
 import org.axonframework.domain.DomainEventStream;
@@ -16,11 +14,23 @@ import org.axonframework.eventstore.EventSerializer;
 import org.axonframework.eventstore.EventStore;
 import org.axonframework.eventstore.SnapshotEventStore;
 import org.axonframework.eventstore.XStreamEventSerializer;
+import org.axonframework.repository.ConcurrencyException;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An {@link EventStore} implementation that uses Document oriented OrientDB to store DomainEvents in a database.
@@ -34,20 +44,81 @@ import java.util.Set;
  * If you would like to decrease space that will be consumed for events and in some way improve performance you can
  * set uo flag {#setLeaveLastSnapshotOnly} to true. This flag forces removing of old snapshot events when new one is
  * added.
+ * <p/>
+ * Concurrent modifications of aggregates can be detected without uniqueness index by switching on
+ * {@link #setLastSequenceCacheSize(int) last sequence cache}.
  *
  * @author EniSh
  */
 public class OrientEventStore implements SnapshotEventStore {
     private static final Logger logger = LoggerFactory.getLogger(OrientEventStore.class);
+
+    /**
+     * Maximum amount of documents loaded by single query of the batch read.
+     */
+    public static final int BATCH_READ_QUERY_SIZE = 1000;
+
+    /**
+     * Limit of the window of positions scanned by {@link #readEventsAfter(long, int)}, in page sizes.
+     */
+    private static final int MAX_POSITION_WINDOW_GROWTH = 64;
+
+    /**
+     * Fields of the entry documents returned by range scans of OrientDB indexes.
+     */
+    private static final String INDEX_KEY_FIELD = "key";
+    private static final String INDEX_RID_FIELD = "rid";
+
+    private static final Comparator<ODocument> INDEX_KEY_ORDER = new Comparator<ODocument>() {
+        @Override
+        public int compare(ODocument first, ODocument second) {
+            final long firstKey = first.<Number>field(INDEX_KEY_FIELD).longValue();
+            final long secondKey = second.<Number>field(INDEX_KEY_FIELD).longValue();
+            return firstKey < secondKey ? -1 : (firstKey == secondKey ? 0 : 1);
+        }
+    };
+
+    /**
+     * Maximum amount of lookups of the last Snapshot Event which is removed concurrently with the read.
+     */
+    private static final int SNAPSHOT_LOOKUP_ATTEMPTS = 10;
+
+    private static final Comparator<ODocument> POSITION_ORDER = new Comparator<ODocument>() {
+        @Override
+        public int compare(ODocument first, ODocument second) {
+            final long firstPosition = first.<Number>field(DomainEventEntry.POSITION_FIELD).longValue();
+            final long secondPosition = second.<Number>field(DomainEventEntry.POSITION_FIELD).longValue();
+            return firstPosition < secondPosition ? -1 : (firstPosition == secondPosition ? 0 : 1);
+        }
+    };
+
     private final EventSerializer eventSerializer;
+    private final ChangeFeed changeFeed;
 
     private ODatabaseDocument database;
     private boolean leaveLastSnapshotOnly = true;
     private boolean checkDomainEventUniqueness = false;
+    private final AppendStatistics appendStatistics = new AppendStatistics();
+    private volatile EventStoreSchema eventStoreSchema;
+    private ConnectionManager connectionManager;
+    private volatile GroupCommitAppender groupCommitAppender;
+    private ClusterRoutingStrategy clusterRoutingStrategy = new DefaultClusterRoutingStrategy();
+    private volatile LastSequenceCache lastSequenceCache;
+    private StorageFormat storageFormat = StorageFormat.CURRENT;
+    private int serializerVersion;
+    private CompressionPolicy compressionPolicy;
+    private int readPageSize = 100;
+    private volatile LruCache<AggregateKey, SnapshotPosition> snapshotPositions;
+    private volatile AggregateEventCache aggregateEventCache;
+    private ExecutorService deserializationExecutor;
+    private volatile PositionAllocator positionAllocator;
+    private int parallelDeserializationThreshold = 64;
+    private final Map<Object, ConnectionHooks> connectionHooks =
+            Collections.synchronizedMap(new WeakHashMap<Object, ConnectionHooks>());
 
 
     public OrientEventStore() {
-        eventSerializer = new XStreamEventSerializer();
+        this(new XStreamEventSerializer());
     }
 
     /**
@@ -57,18 +128,27 @@ public class OrientEventStore implements SnapshotEventStore {
      */
     public OrientEventStore(EventSerializer eventSerializer) {
         this.eventSerializer = eventSerializer;
+        this.changeFeed = new ChangeFeed(eventSerializer);
     }
 
     /**
      * {@inheritDoc}
      */
     public void appendEvents(String type, DomainEventStream domainEventStream) {
-        registerEvenUniquenessHook();
-
+        final List<DomainEvent> events = new ArrayList<DomainEvent>();
         while (domainEventStream.hasNext()) {
-            final DomainEvent event = domainEventStream.next();
-            final DomainEventEntry domainEventEntry = new DomainEventEntry(type, event, eventSerializer);
-            storeEventEntry(domainEventEntry);
+            events.add(domainEventStream.next());
+        }
+
+        final GroupCommitAppender appender = groupCommitAppender;
+        if (appender != null) {
+            if (database != null && !(database.getTransaction() instanceof OTransactionNoTx)) {
+                throw new IllegalStateException("Events can not be appended in group commit mode inside of " +
+                        "the active transaction, they would be committed independently of it.");
+            }
+            appender.append(type, events);
+        } else {
+            storeEvents(database, type, events);
         }
     }
 
@@ -76,41 +156,363 @@ public class OrientEventStore implements SnapshotEventStore {
      * {@inheritDoc}
      */
     public DomainEventStream readEvents(String type, AggregateIdentifier aggregateIdentifier) {
-        if (!database.getMetadata().getSchema().existsClass(DomainEventEntry.DOMAIN_EVENT_CLASS)) {
-            logger.debug("Domain event class does not exist, returning empty event stream.");
-            return new SimpleDomainEventStream();
+        final EventStoreSchema schema = getSchema();
+        final String identifier = aggregateIdentifier.asString();
+        final AggregateKey key = new AggregateKey(type, identifier);
+        final AggregateEventCache eventCache = aggregateEventCache;
+        if (eventCache == null) {
+            return loadEvents(schema, key);
+        }
+
+        final List<DomainEvent> cachedEvents = eventCache.get(key);
+        if (cachedEvents != null) {
+            logger.debug("{} events of aggregate {} were found in the cache.", cachedEvents.size(), key);
+            return new SimpleDomainEventStream(cachedEvents);
+        }
+
+        final long version = eventCache.version(key);
+        final PagedDomainEventStream eventStream = loadEvents(schema, key);
+        final List<DomainEvent> events = new ArrayList<DomainEvent>();
+        while (eventStream.hasNext()) {
+            events.add(eventStream.next());
+        }
+        eventCache.put(key, version, events, eventStream.getReadBytes());
+        return new SimpleDomainEventStream(events);
+    }
+
+    /**
+     * Returns Domain Events of the aggregate which have sequence number greater than or equal to the given one,
+     * Snapshot Events are not taken into account. Method is intended for refreshing of aggregates which are
+     * already loaded up to some sequence number, events are read by single range scan of the index.
+     *
+     * @param type                Type of the aggregate.
+     * @param aggregateIdentifier Identifier of the aggregate.
+     * @param firstSequenceNumber Sequence number of the first event to be returned.
+     * @return Stream of events ordered by sequence number, it is empty if there are no such events.
+     */
+    public DomainEventStream readEvents(String type, AggregateIdentifier aggregateIdentifier,
+                                        long firstSequenceNumber) {
+        final EventStoreSchema schema = getSchema();
+        final AggregateKey key = new AggregateKey(type, aggregateIdentifier.asString());
+
+        final AggregateEventCache eventCache = aggregateEventCache;
+        final List<DomainEvent> cachedEvents = eventCache != null ? eventCache.get(key) : null;
+        if (cachedEvents != null && !cachedEvents.isEmpty() &&
+                cachedEvents.get(0).getSequenceNumber() < firstSequenceNumber) {
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (DomainEvent event : cachedEvents) {
+                if (event.getSequenceNumber() >= firstSequenceNumber) {
+                    events.add(event);
+                }
+            }
+            return new SimpleDomainEventStream(events);
         }
 
+        return openEventStream(schema, key, firstSequenceNumber, null);
+    }
 
-        final ODocument snapshotEvent = loadLastSnapshotEvent(type, aggregateIdentifier);
+    /**
+     * Reads events of many aggregates of the same type at once, for example to rebuild projection.
+     * Snapshot Events and Domain Events are found by the indexes and documents of all aggregates are loaded
+     * by queries of up to {@value #BATCH_READ_QUERY_SIZE} documents, so amount of database calls does not
+     * depend on the amount of aggregates.
+     * <p/>
+     * Events of all aggregates are deserialized and kept in memory, so size of the batch should be limited
+     * by the caller.
+     *
+     * @param type                 Type of the aggregates.
+     * @param aggregateIdentifiers Identifiers of the aggregates.
+     * @return Event streams of the aggregates in the order of passed in identifiers, stream of the aggregate
+     *         without events is empty.
+     */
+    public Map<AggregateIdentifier, DomainEventStream> readEvents(
+            String type, Collection<? extends AggregateIdentifier> aggregateIdentifiers) {
+        final EventStoreSchema schema = getSchema();
+        final List<AggregateIdentifier> identifiers = new ArrayList<AggregateIdentifier>(aggregateIdentifiers);
 
-        String query = "select * from " + DomainEventEntry.DOMAIN_EVENT_CLASS +
-                " where " + DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD + " = '" + aggregateIdentifier.asString() + "'" +
-                " and " + DomainEventEntry.AGGREGATE_TYPE_FIELD + " = '" + type + "'";
+        final List<ORID> rids = new ArrayList<ORID>();
+        final int[] offsets = new int[identifiers.size() + 1];
+        for (int i = 0; i < identifiers.size(); i++) {
+            offsets[i] = rids.size();
+            final String identifier = identifiers.get(i).asString();
+            final SnapshotPosition snapshotPosition = schema.getSnapshotEventIndex().getLastPosition(type, identifier);
+            if (snapshotPosition.getIdentity() != null) {
+                rids.add(snapshotPosition.getIdentity());
+            }
+            for (OIdentifiable eventId : schema.getDomainEventIndex().getRange(type, identifier,
+                    snapshotPosition.getFirstEventSequenceNumber(), Long.MAX_VALUE)) {
+                rids.add(eventId.getIdentity());
+            }
+        }
+        offsets[identifiers.size()] = rids.size();
 
-        if (snapshotEvent != null) {
-            final long snapshotSequenceNumber = snapshotEvent.<Long>field(DomainEventEntry.SEQUENCE_NUMBER_FIELD);
-            query += " and ( " + DomainEventEntry.SEQUENCE_NUMBER_FIELD + " >= " + (snapshotSequenceNumber + 1) + " )";
+        final List<ODocument> documents = new ArrayList<ODocument>(rids.size());
+        for (int start = 0; start < rids.size(); start += BATCH_READ_QUERY_SIZE) {
+            documents.addAll(PagedDomainEventStream.loadDocuments(database,
+                    rids.subList(start, Math.min(rids.size(), start + BATCH_READ_QUERY_SIZE))));
         }
 
-        query += " order by " + DomainEventEntry.SEQUENCE_NUMBER_FIELD;
+        final EventBodyDeserializer deserializer = bodyDeserializer();
+        final Map<AggregateIdentifier, DomainEventStream> eventStreams =
+                new LinkedHashMap<AggregateIdentifier, DomainEventStream>(identifiers.size() * 2);
+        for (int i = 0; i < identifiers.size(); i++) {
+            final List<ODocument> aggregateDocuments = documents.subList(offsets[i], offsets[i + 1]);
+            if (aggregateDocuments.contains(null)) {
+                eventStreams.put(identifiers.get(i), readEvents(type, identifiers.get(i)));
+                continue;
+            }
+            final List<byte[]> bodies = new ArrayList<byte[]>(aggregateDocuments.size());
+            for (ODocument document : aggregateDocuments) {
+                bodies.add(DomainEventEntry.getBody(document));
+            }
+            final DomainEvent[] events = new DomainEvent[bodies.size()];
+            deserializer.deserialize(bodies, events, 0);
+            eventStreams.put(identifiers.get(i), new SimpleDomainEventStream(events));
+        }
 
-        final List<ODocument> queryResult =
-                database.query(new OSQLSynchQuery<ODocument>(query));
+        logger.debug("{} events of {} aggregates of type \"{}\" were read.",
+                new Object[]{documents.size(), identifiers.size(), type});
+        return eventStreams;
+    }
 
-        if (snapshotEvent != null) {
-            queryResult.add(0, snapshotEvent);
+    /**
+     * Returns Domain Events which happened in the given period, for example for audit or partial replay.
+     * Snapshot Events are not returned.
+     * <p/>
+     * If aggregate type is given, events are found by range scans of {@link AggregateTimestampIndex}, otherwise
+     * index of {@link DomainEventEntry#TIMESTAMP_MILLIS_FIELD} is used. Identities of the events are fetched by
+     * windows of time, see {@link TimeWindowIterator}, documents are loaded and deserialized lazily page by page,
+     * see {@link #setReadPageSize(int)}.
+     * <p/>
+     * Events in {@link StorageFormat#STRING_TIMESTAMP} format written by previous versions of EventStore have no
+     * {@link DomainEventEntry#TIMESTAMP_MILLIS_FIELD}, so they are <b>not returned</b> when type is
+     * <code>null</code>, without any error. Convert them by {@link TimestampFormatConverter} before such reads,
+     * or pass aggregate type: {@link AggregateTimestampIndex} contains events of all formats.
+     *
+     * @param type Type of the aggregates or <code>null</code> to return events of all types.
+     * @param from Start of the period, inclusive.
+     * @param to   End of the period, exclusive.
+     * @return Stream of events ordered by time stamp, events with equal time stamps are returned in arbitrary order.
+     */
+    public DomainEventStream readEventsBetween(final String type, DateTime from, DateTime to) {
+        final EventStoreSchema schema = getSchema();
+        final long fromMillis = from.getMillis();
+        final long toMillis = to.getMillis() - 1;
+        if (fromMillis > toMillis) {
+            return new SimpleDomainEventStream();
         }
 
-        logger.debug("Query \"{}\" was performed and {} events were fetched.", query, queryResult.size());
+        final Iterator<OIdentifiable> eventIds;
+        if (type != null) {
+            eventIds = new TimeWindowIterator(fromMillis, toMillis, readPageSize) {
+                @Override
+                protected List<OIdentifiable> fetch(long windowFromMillis, long windowToMillis) {
+                    return new ArrayList<OIdentifiable>(schema.getTimestampIndex().getRange(type,
+                            windowFromMillis, windowToMillis));
+                }
+            };
+        } else {
+            final int[] clusterIds = schema.getDomainEventClass().getClusterIds();
+            eventIds = new TimeWindowIterator(fromMillis, toMillis, readPageSize) {
+                @Override
+                protected List<OIdentifiable> fetch(long windowFromMillis, long windowToMillis) {
+                    final List<ODocument> entries = new ArrayList<ODocument>();
+                    for (ODocument entry : schema.getTimestampMillisIndex().getEntriesBetween(windowFromMillis,
+                            windowToMillis)) {
+                        if (contains(clusterIds, entry.<OIdentifiable>field(INDEX_RID_FIELD).getIdentity().
+                                getClusterId())) {
+                            entries.add(entry);
+                        }
+                    }
+                    Collections.sort(entries, INDEX_KEY_ORDER);
 
-        return new SimpleDomainEventStream(Collections2.transform(queryResult,
-                new Function<ODocument, DomainEvent>() {
-                    @Override
-                    public DomainEvent apply(ODocument document) {
-                        return eventSerializer.deserialize(document.<byte[]>field("body"));
+                    final List<OIdentifiable> ids = new ArrayList<OIdentifiable>(entries.size());
+                    for (ODocument entry : entries) {
+                        ids.add(entry.<OIdentifiable>field(INDEX_RID_FIELD));
                     }
-                }));
+                    return ids;
+                }
+            };
+        }
+
+        logger.debug("Events of type \"{}\" are read in period from {} to {}.", new Object[]{type, from, to});
+        return new PagedDomainEventStream(database, bodyDeserializer(), Collections.<ORID>emptyList(),
+                Collections.<ODocument>emptyList(), eventIds, readPageSize);
+    }
+
+    /**
+     * Replays all Domain Events of the store in storage order, for example to rebuild projection.
+     * Events of each aggregate are replayed in order of sequence numbers, Snapshot Events are not replayed.
+     * <p/>
+     * Clusters of Domain Events are scanned page by page, so memory consumption does not depend on the size
+     * of the store. Visitor is notified about the position after each page, replay can be continued from
+     * that position by passing it in {@link ReplayOptions#setStartPosition(ReplayPosition)}.
+     * <p/>
+     * Events of the aggregate are replayed in order only if they all are stored in the same cluster,
+     * so {@link ClusterRoutingStrategy} should not be changed without {@link ClusterResharder}.
+     *
+     * @param visitor Receiver of replayed events.
+     * @param options Options of the replay.
+     * @return Position after the last replayed event.
+     */
+    public ReplayPosition visitEvents(EventReplayVisitor visitor, ReplayOptions options) {
+        final EventStoreSchema schema = getSchema();
+        final EventReplayer replayer = new EventReplayer(schema.getDomainEventClass().getClusterIds(),
+                bodyDeserializer(), visitor, options);
+        if (options.isParallel()) {
+            if (connectionManager == null) {
+                throw new IllegalStateException("Connection manager should be set to replay events in parallel.");
+            }
+            return replayer.replay(connectionManager);
+        }
+        return replayer.replay(database);
+    }
+
+    /**
+     * Returns Domain Events whose global position is greater than the given one, in the order of positions.
+     * Position index is scanned by windows of positions which are lower than the end of settled positions,
+     * window grows while it finds no events, so cost of the call depends on the page size and gaps between
+     * positions but not on the amount of events after the given position. Found events are loaded by single query,
+     * so catch-up consumers can read the whole store page by page, passing position of the last returned event to
+     * the next call. Only events appended while {@link #setPositionBlockSize(int) position allocation} was
+     * switched on have positions.
+     * <p/>
+     * Positions are not ordered by commit time. Each EventStore instance allocates positions from its own block
+     * and positions are allocated before transaction is committed, so event with lower position can become
+     * visible after event with higher one. That is why events are returned only up to the lowest position which
+     * is still in flight in any EventStore instance writing to the database: events committed after it wait until
+     * its transaction is finished, then consumer which passes the last returned position does not skip anything.
+     * The only exception is transaction which holds positions longer than
+     * {@link PositionAllocator#LEASE_TIMEOUT_MILLIS}, its lease is considered expired and its events can be
+     * skipped, see {@link PositionAllocator}.
+     *
+     * @param position Position after which events are read, pass -1 to read from the beginning.
+     * @param maxCount Maximum amount of returned events.
+     * @return Events ordered by position, list is empty if there are no such events.
+     */
+    public List<PositionedDomainEvent> readEventsAfter(long position, int maxCount) {
+        return readEventsAfter(database, position, maxCount);
+    }
+
+    /**
+     * Reads events after the given position using given database connection,
+     * see {@link #readEventsAfter(long, int)}.
+     *
+     * @param db       Database connection to be used.
+     * @param position Position after which events are read.
+     * @param maxCount Maximum amount of returned events.
+     * @return Events ordered by position.
+     */
+    List<PositionedDomainEvent> readEventsAfter(ODatabaseDocument db, long position, int maxCount) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("Maximum amount of events should be positive.");
+        }
+        final EventStoreSchema schema = getSchema();
+        final long safeEnd = PositionAllocator.readSafeEnd(db);
+        final List<ORID> rids = new ArrayList<ORID>();
+        long from = position + 1;
+        long window = maxCount;
+        while (rids.size() < maxCount && from < safeEnd) {
+            final long to = Math.min(safeEnd - 1, from + window - 1);
+            final Collection<OIdentifiable> eventIds = schema.getPositionIndex().getValuesBetween(from, to);
+            for (OIdentifiable eventId : eventIds) {
+                rids.add(eventId.getIdentity());
+            }
+            from = to + 1;
+            window = eventIds.isEmpty() ? Math.min(window * 2, (long) maxCount * MAX_POSITION_WINDOW_GROWTH) :
+                    maxCount;
+        }
+
+        final List<ODocument> documents = new ArrayList<ODocument>(rids.size());
+        for (ODocument document : PagedDomainEventStream.loadDocuments(db, rids)) {
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        Collections.sort(documents, POSITION_ORDER);
+        if (documents.size() > maxCount) {
+            documents.subList(maxCount, documents.size()).clear();
+        }
+
+        final List<Long> positions = new ArrayList<Long>(documents.size());
+        final List<String> types = new ArrayList<String>(documents.size());
+        final List<byte[]> bodies = new ArrayList<byte[]>(documents.size());
+        for (ODocument document : documents) {
+            positions.add(document.<Number>field(DomainEventEntry.POSITION_FIELD).longValue());
+            types.add(document.<String>field(DomainEventEntry.AGGREGATE_TYPE_FIELD));
+            bodies.add(DomainEventEntry.getBody(document));
+        }
+
+        final DomainEvent[] events = new DomainEvent[bodies.size()];
+        bodyDeserializer().deserialize(bodies, events, 0);
+        final List<PositionedDomainEvent> result = new ArrayList<PositionedDomainEvent>(events.length);
+        for (int i = 0; i < events.length; i++) {
+            result.add(new PositionedDomainEvent(positions.get(i), types.get(i), events[i]));
+        }
+
+        logger.debug("{} events were read after position {}.", result.size(), position);
+        return result;
+    }
+
+    /**
+     * Subscribes listener to the Domain Events committed by this EventStore. Events appended after the given
+     * position are read from the store first, then events are pushed to the listener right after they are
+     * committed, without polling of the database.
+     * <p/>
+     * Events are delivered by the thread of the subscription through the bounded buffer, appending threads never
+     * wait for listeners. If listener falls behind and its buffer overflows, subscription reads missed events from
+     * the store and then rejoins the live feed, see {@link ChangeFeedSubscription}.
+     * <p/>
+     * Feed relies on global positions, so {@link #setPositionBlockSize(int) position allocation} should be
+     * switched on. Events of this EventStore are delivered exactly once and in the order of positions.
+     * Events appended by other EventStore instances are delivered only by catch-up reads and can be missed,
+     * see {@link ChangeFeedSubscription}.
+     *
+     * @param listener      Receiver of the events.
+     * @param afterPosition Position after which events are delivered, pass -1 to deliver all events of the store.
+     * @param bufferSize    Maximum amount of events waiting for delivery.
+     * @return Subscription which can be cancelled.
+     */
+    public ChangeFeedSubscription subscribe(ChangeFeedListener listener, long afterPosition, int bufferSize) {
+        if (positionAllocator == null) {
+            throw new IllegalStateException("Position allocation should be switched on to subscribe to the feed.");
+        }
+        getSchema();
+        final ChangeFeedSubscription subscription = new ChangeFeedSubscription(this, changeFeed, listener,
+                afterPosition, bufferSize);
+        changeFeed.add(subscription);
+        subscription.start(connectionManager);
+        logger.debug("{} was subscribed after position {}.", listener, afterPosition);
+        return subscription;
+    }
+
+    /**
+     * Returns sequence number of the last Domain Event of the aggregate, it is read from the index
+     * without loading of documents.
+     *
+     * @param type                Type of the aggregate.
+     * @param aggregateIdentifier Identifier of the aggregate.
+     * @return Sequence number or <code>null</code> if aggregate has no Domain Events.
+     */
+    public Long getLastSequenceNumber(String type, AggregateIdentifier aggregateIdentifier) {
+        return getSchema().getDomainEventIndex().getLastSequenceNumber(type, aggregateIdentifier.asString());
+    }
+
+    /**
+     * Counts Domain Events of the aggregate appended after its last Snapshot Event, or all its Domain Events
+     * if aggregate has no snapshot. Events are counted by the index without loading of documents, so method can be
+     * used to decide whether aggregate should be snapshotted.
+     *
+     * @param type                Type of the aggregate.
+     * @param aggregateIdentifier Identifier of the aggregate.
+     * @return Amount of Domain Events after the last snapshot.
+     */
+    public int countEventsSinceSnapshot(String type, AggregateIdentifier aggregateIdentifier) {
+        final EventStoreSchema schema = getSchema();
+        final String identifier = aggregateIdentifier.asString();
+        final Long snapshotSequenceNumber = schema.getSnapshotEventIndex().getLastSequenceNumber(type, identifier);
+        final long firstSequenceNumber = snapshotSequenceNumber == null ? Long.MIN_VALUE : snapshotSequenceNumber + 1;
+        return schema.getDomainEventIndex().count(type, identifier, firstSequenceNumber, Long.MAX_VALUE);
     }
 
     /**
@@ -118,14 +520,42 @@ public class OrientEventStore implements SnapshotEventStore {
      */
     @Override
     public void appendSnapshotEvent(String type, DomainEvent snapshotEvent) {
-        registerEvenUniquenessHook();
+        final EventStoreSchema schema = getSchema();
+        final ConnectionHooks hooks = registerHooks(database, schema);
+
+        final DomainEventEntryBatch batch = new DomainEventEntryBatch();
+        final SnapshotEventEntry entry = new SnapshotEventEntry(type, snapshotEvent, eventSerializer);
+        entry.setStorageFormat(storageFormat, serializerVersion);
+        entry.setCompressionPolicy(compressionPolicy);
+        batch.add(entry);
 
-        if (leaveLastSnapshotOnly) {
-            dropSnapshots(type, snapshotEvent.getAggregateIdentifier());
+        final LruCache<AggregateKey, SnapshotPosition> positions = snapshotPositions;
+        if (positions != null) {
+            positions.remove(new AggregateKey(type, snapshotEvent.getAggregateIdentifier().asString()));
         }
 
-        final SnapshotEventEntry domainEventEntry = new SnapshotEventEntry(type, snapshotEvent, eventSerializer);
-        storeEventEntry(domainEventEntry);
+        final boolean ownTransaction = database.getTransaction() instanceof OTransactionNoTx;
+        if (ownTransaction) {
+            database.begin();
+        }
+        try {
+            if (leaveLastSnapshotOnly) {
+                dropSnapshots(schema, type, snapshotEvent.getAggregateIdentifier().asString());
+            }
+            storeBatch(database, batch, schema.getSnapshotEventClass());
+            final AggregateEventCache eventCache = aggregateEventCache;
+            if (eventCache != null) {
+                hooks.entriesAppended(eventCache, Collections.<DomainEventEntry>singletonList(entry));
+            }
+            if (ownTransaction) {
+                database.commit();
+            }
+        } catch (RuntimeException e) {
+            if (ownTransaction) {
+                database.rollback();
+            }
+            throw e;
+        }
     }
 
     /**
@@ -157,71 +587,573 @@ public class OrientEventStore implements SnapshotEventStore {
         this.database = database;
     }
 
+    /**
+     * Creates or validates document classes and indexes which are used to store events.
+     * Method should be called once before EventStore is used, for example as Spring "init-method".
+     * If it was not called, schema is initialized during the first EventStore operation.
+     */
+    public synchronized void initializeSchema() {
+        if (eventStoreSchema == null) {
+            eventStoreSchema = EventStoreSchema.initialize(database);
+        }
+    }
+
+    /**
+     * Refills indexes of event documents from the stored documents. Index changes are saved after the data
+     * transaction is committed, so indexes of the database which was not closed properly may miss committed
+     * events or refer to events which were never stored. Method should be called before EventStore is used
+     * after such failure.
+     */
+    public void rebuildIndexes() {
+        getSchema().rebuildIndexes();
+    }
+
     public void setCheckDomainEventUniqueness(boolean checkDomainEventUniqueness) {
         this.checkDomainEventUniqueness = checkDomainEventUniqueness;
     }
 
-    private void dropSnapshots(String aggregateType, AggregateIdentifier aggregateIdentifier) {
-        if (!database.getMetadata().getSchema().existsClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS)) {
-            logger.debug("Snapshot event class does not exist, nothing will be removed, just exit.");
-            return;
+    /**
+     * Sets format of the documents written by EventStore. Documents of all formats are readable,
+     * so format can be changed for the database which already contains events.
+     * <p/>
+     * {@link StorageFormat#BINARY_ENVELOPE} format decreases size of the documents and time of their parsing,
+     * but only fields used by indexes remain readable by SQL queries.
+     *
+     * @param storageFormat Format of new documents, by default {@link StorageFormat#MILLIS_TIMESTAMP} is used.
+     */
+    public void setStorageFormat(StorageFormat storageFormat) {
+        if (storageFormat == StorageFormat.STRING_TIMESTAMP) {
+            throw new IllegalArgumentException("Format " + storageFormat + " is supported only for reading.");
+        }
+        this.storageFormat = storageFormat;
+    }
+
+    /**
+     * @param serializerVersion Version of the event serializer which is written to the header of
+     *                          {@link StorageFormat#BINARY_ENVELOPE} documents, from 0 to 65535. Default value is 0.
+     */
+    public void setSerializerVersion(int serializerVersion) {
+        if (serializerVersion < 0 || serializerVersion > 0xFFFF) {
+            throw new IllegalArgumentException("Serializer version should be in range from 0 to 65535.");
+        }
+        this.serializerVersion = serializerVersion;
+    }
+
+    /**
+     * Switches on compression of serialized events. Compressed and uncompressed events can coexist in the same
+     * database, so policy can be changed or removed at any time.
+     *
+     * @param compressionPolicy Policy to be used or <code>null</code> to store bodies uncompressed, which is default.
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Sets amount of events which are loaded and deserialized at once by streams returned from
+     * {@link #readEvents(String, AggregateIdentifier)}. Only events of the current page are kept in memory,
+     * so long event streams can be read without loading all their documents.
+     *
+     * @param readPageSize Maximum amount of events in the page, default value is 100.
+     */
+    public void setReadPageSize(int readPageSize) {
+        if (readPageSize < 1) {
+            throw new IllegalArgumentException("Page size should be positive.");
+        }
+        this.readPageSize = readPageSize;
+    }
+
+    /**
+     * Switches on caching of the last Snapshot Event position of recently read aggregates. When position is cached
+     * Snapshot Event is loaded by the same query as the first page of the following Domain Events,
+     * so aggregate is loaded with two calls to the database instead of four.
+     * <p/>
+     * Position cached by one EventStore instance stays valid when the same aggregate is snapshotted by another one,
+     * older snapshot is used in such case.
+     *
+     * @param size Maximum amount of aggregates in the cache, zero switches the cache off. Default value is zero.
+     */
+    public void setSnapshotPositionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size of the cache can not be negative.");
+        }
+        snapshotPositions = size == 0 ? null : new LruCache<AggregateKey, SnapshotPosition>(size);
+    }
+
+    /**
+     * Switches on caching of deserialized events of recently read aggregates. Events appended by this EventStore
+     * are added to the cached aggregates after commit, so cached aggregates are read without database access.
+     *
+     * @param aggregateEventCache Cache to be used or <code>null</code> to switch caching off, which is default.
+     */
+    public void setAggregateEventCache(AggregateEventCache aggregateEventCache) {
+        this.aggregateEventCache = aggregateEventCache;
+    }
+
+    /**
+     * Switches on parallel deserialization of long event streams. Events are still returned in the order
+     * of sequence numbers. Events are deserialized page by page, so {@link #setReadPageSize(int) page size}
+     * should not be less than the {@link #setParallelDeserializationThreshold(int) threshold}.
+     *
+     * @param deserializationExecutor Executor shared by all reading threads or <code>null</code> to deserialize
+     *                                events by the reading thread, which is default.
+     */
+    public void setDeserializationExecutor(ExecutorService deserializationExecutor) {
+        this.deserializationExecutor = deserializationExecutor;
+    }
+
+    /**
+     * @param parallelDeserializationThreshold Minimal amount of events in the page which are deserialized
+     *                                         in parallel, default value is 64 so full pages of the default
+     *                                         size are deserialized in parallel.
+     */
+    public void setParallelDeserializationThreshold(int parallelDeserializationThreshold) {
+        if (parallelDeserializationThreshold < 1) {
+            throw new IllegalArgumentException("Threshold should be positive.");
+        }
+        this.parallelDeserializationThreshold = parallelDeserializationThreshold;
+    }
+
+    /**
+     * Switches on optimistic detection of concurrent appends. Last committed sequence number of recently used
+     * aggregates is cached, append whose first event does not follow the last committed one is rejected
+     * by {@link ConcurrencyException} before anything is written. If aggregate is not cached its last sequence
+     * number is read from the index. Aggregate is reserved by the transaction which appends its events until
+     * that transaction is finished, append of the same aggregate by concurrent transaction is rejected as well,
+     * so two transactions can not both append the next sequence number.
+     * <p/>
+     * Check is performed by each EventStore instance independently, so when the same database is modified
+     * by several applications {@link #setCheckDomainEventUniqueness(boolean) uniqueness check} should be used.
+     *
+     * @param size Maximum amount of aggregates in the cache, zero switches the check off. Default value is zero.
+     */
+    public void setLastSequenceCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size of the cache can not be negative.");
+        }
+        lastSequenceCache = size == 0 ? null : new LastSequenceCache(size);
+    }
+
+    /**
+     * Switches on allocation of global positions of appended Domain Events, see
+     * {@link #readEventsAfter(long, int)}. Positions are reserved by blocks in the shared counter, so writers
+     * do not contend on the counter for each event. Positions allocated by this EventStore are strictly
+     * increasing. Next block is reserved in advance, unused positions of both blocks are lost when EventStore
+     * is discarded, so positions have gaps.
+     * <p/>
+     * Positions in flight are tracked in the lease document of this EventStore, so readers do not pass them,
+     * see {@link PositionAllocator}. Lease is written when EventStore starts appending after it was idle and
+     * when it becomes idle again, so appender which commits one transaction at a time writes two small documents
+     * per transaction in addition to the events. Concurrent appenders and {@link GroupCommitAppender} share these
+     * writes.
+     * <p/>
+     * Blocks and leases are written using separate connection, so {@link ConnectionManager} should be set.
+     *
+     * @param blockSize Amount of positions reserved at once, zero switches allocation off. Default value is zero.
+     */
+    public void setPositionBlockSize(int blockSize) {
+        if (blockSize < 0) {
+            throw new IllegalArgumentException("Block size can not be negative.");
+        }
+        if (blockSize > 0 && connectionManager == null) {
+            throw new IllegalStateException("Connection manager should be set to allocate event positions.");
+        }
+        positionAllocator = blockSize == 0 ? null : new PositionAllocator(connectionManager, blockSize);
+        changeFeed.setPositionAllocator(positionAllocator);
+    }
+
+    /**
+     * Sets strategy which chooses cluster for Domain Events of each aggregate.
+     * By default all events are stored in the default cluster of the class.
+     * <p/>
+     * Events are read through {@link AggregateSequenceIndex}, so strategy can be changed for the database which
+     * already contains events, use {@link ClusterResharder} to move existing events to the new clusters.
+     *
+     * @param clusterRoutingStrategy Strategy to be used.
+     */
+    public void setClusterRoutingStrategy(ClusterRoutingStrategy clusterRoutingStrategy) {
+        this.clusterRoutingStrategy = clusterRoutingStrategy;
+    }
+
+    /**
+     * @return Strategy which chooses cluster for Domain Events.
+     */
+    public ClusterRoutingStrategy getClusterRoutingStrategy() {
+        return clusterRoutingStrategy;
+    }
+
+    /**
+     * Sets connection manager which is used to acquire connections for the background threads of
+     * EventStore, such as writers of {@link GroupCommitAppender}.
+     *
+     * @param connectionManager Connection manager of the same database as the one passed in
+     *                          {@link #setDatabase(ODatabaseDocument)}.
+     */
+    public void setConnectionManager(ConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Switches on group commit mode, when it is set all {@link #appendEvents(String, DomainEventStream)} calls
+     * are passed to the appender which writes events of many concurrent calls in a single transaction.
+     * Calling thread is blocked until its events are committed. Pass <code>null</code> to switch group commit off.
+     * <p/>
+     * Events are written by the connections of the appender, so they can not be part of the caller's transaction:
+     * appending while transaction of the database passed in {@link #setDatabase(ODatabaseDocument)} is active
+     * is rejected by {@link IllegalStateException}.
+     * <p/>
+     * Appender is started if it was not started yet, it requires {@link ConnectionManager} to be set.
+     * Previously set appender is stopped after the new one replaces it, so its writer threads do not leak. Events
+     * which are already queued in the previous appender are written before this method returns.
+     *
+     * @param groupCommitAppender Appender to be used or <code>null</code>.
+     */
+    public synchronized void setGroupCommitAppender(GroupCommitAppender groupCommitAppender) {
+        if (groupCommitAppender != null) {
+            if (connectionManager == null) {
+                throw new IllegalStateException("Connection manager should be set to use group commit mode.");
+            }
+            groupCommitAppender.start(this, connectionManager);
         }
-        final String command = "delete from " + SnapshotEventEntry.SNAPSHOT_EVENT_CLASS +
-                " where " + SnapshotEventEntry.AGGREGATE_IDENTIFIER_FIELD + " = '" + aggregateIdentifier.asString() + "'" +
-                " and " + SnapshotEventEntry.AGGREGATE_TYPE_FIELD + " = '" + aggregateType + "'";
+        final GroupCommitAppender previousAppender = this.groupCommitAppender;
+        this.groupCommitAppender = groupCommitAppender;
 
-        final int removedSnapshots = database.command(new OCommandSQL(command)).<Number>execute().intValue();
-        logger.debug("Command \"{}\" was performed and {} snapshot events were removed.", command, removedSnapshots);
+        if (previousAppender != null && previousAppender != groupCommitAppender) {
+            try {
+                previousAppender.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Thread was interrupted while stopping previous group commit " +
+                        "appender.", e);
+            }
+        }
     }
 
-    private ODocument loadLastSnapshotEvent(String aggregateType, AggregateIdentifier aggregateIdentifier) {
-        if (!database.getMetadata().getSchema().existsClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS)) {
-            logger.debug("Snapshot event class does not exist, nothing will be returned, just exit.");
+    /**
+     * Returns counters of written batches, they can be used to measure append performance.
+     *
+     * @return Statistic of batches written by this EventStore.
+     */
+    public AppendStatistics getAppendStatistics() {
+        return appendStatistics;
+    }
+
+    /**
+     * Stores passed in events using given database connection. If connection has active transaction
+     * events become part of it, otherwise they are stored in a new transaction.
+     *
+     * @param db     Database connection to be used.
+     * @param type   Type of the aggregate.
+     * @param events Events to be stored.
+     */
+    void storeEvents(ODatabaseDocument db, String type, List<? extends DomainEvent> events) {
+        final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>(events.size());
+        for (DomainEvent event : events) {
+            entries.add(new DomainEventEntry(type, event, eventSerializer));
+        }
+        storeEntries(db, entries);
+    }
+
+    /**
+     * Appends events which are already serialized by the serializer of this EventStore, for example events
+     * replicated from another EventStore or prepared by bulk import. Events are not deserialized,
+     * but they are checked and routed the same way as events passed in
+     * {@link #appendEvents(String, DomainEventStream)}: sequence numbers are checked by
+     * {@link #setLastSequenceCacheSize(int) last sequence cache} and uniqueness index if they are switched on,
+     * events are stored in clusters chosen by {@link ClusterRoutingStrategy}, storage format and compression
+     * policy are applied to the bodies.
+     * <p/>
+     * Events are written directly in a single transaction, group commit mode is not used. Events of the same
+     * aggregate should follow each other in the order of sequence numbers, events of different aggregate types
+     * can be mixed in one call.
+     *
+     * @param events Serialized events to be stored.
+     */
+    public void appendSerializedEvents(List<SerializedDomainEvent> events) {
+        final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>(events.size());
+        for (SerializedDomainEvent event : events) {
+            entries.add(new DomainEventEntry(event));
+        }
+        storeEntries(database, entries);
+    }
+
+    /**
+     * Pending state is registered in {@link ConnectionHooks} only after documents are saved, so failure of
+     * serialization or routing leaves nothing to be published by the next commit of the connection. The only
+     * exception are reserved aggregates and positions, they are registered right away so they are released however
+     * transaction is finished.
+     */
+    private void storeEntries(ODatabaseDocument db, List<DomainEventEntry> entries) {
+        final EventStoreSchema schema = getSchema();
+        final ConnectionHooks hooks = registerHooks(db, schema);
+        final boolean ownTransaction = db.getTransaction() instanceof OTransactionNoTx;
+        if (ownTransaction) {
+            db.begin();
+        }
+        try {
+            final LastSequenceCache sequenceCache = lastSequenceCache;
+            final Map<AggregateKey, Long> appendedSequences = sequenceCache != null ?
+                    checkSequences(schema, hooks, sequenceCache, entries) : null;
+
+            final PositionAllocator allocator = positionAllocator;
+            final DomainEventEntryBatch batch = new DomainEventEntryBatch();
+            String lastType = null;
+            String lastIdentifier = null;
+            String lastClusterName = null;
+            for (DomainEventEntry entry : entries) {
+                entry.setStorageFormat(storageFormat, serializerVersion);
+                entry.setCompressionPolicy(compressionPolicy);
+                final String type = entry.getAggregateType();
+                final String identifier = entry.getAggregateIdentifier();
+                if (!identifier.equals(lastIdentifier) || !type.equals(lastType)) {
+                    lastClusterName = routeToCluster(db, schema, type, identifier);
+                    lastType = type;
+                    lastIdentifier = identifier;
+                }
+                entry.setClusterName(lastClusterName);
+                batch.add(entry);
+            }
+
+            if (allocator != null) {
+                for (DomainEventEntry entry : entries) {
+                    final long position = allocator.next();
+                    hooks.positionAllocated(allocator, changeFeed, position);
+                    entry.setPosition(position);
+                }
+            }
+            storeBatch(db, batch, schema.getDomainEventClass());
+
+            if (appendedSequences != null) {
+                hooks.sequencesAppended(sequenceCache, appendedSequences);
+            }
+            final AggregateEventCache eventCache = aggregateEventCache;
+            if (eventCache != null) {
+                hooks.entriesAppended(eventCache, entries);
+            }
+            if (allocator != null) {
+                hooks.entriesAppended(changeFeed, entries);
+            }
+
+            if (ownTransaction) {
+                db.commit();
+            }
+        } catch (RuntimeException e) {
+            if (ownTransaction) {
+                db.rollback();
+            }
+            throw e;
+        }
+    }
+
+    private Map<AggregateKey, Long> checkSequences(EventStoreSchema schema, ConnectionHooks hooks,
+                                                   LastSequenceCache sequenceCache, List<DomainEventEntry> entries) {
+        final Map<AggregateKey, Long> appendedSequences = new HashMap<AggregateKey, Long>();
+        AggregateKey lastKey = null;
+        for (DomainEventEntry entry : entries) {
+            final AggregateKey key = new AggregateKey(entry.getAggregateType(), entry.getAggregateIdentifier());
+            final long sequenceNumber = entry.getSequenceNumber();
+            if (!key.equals(lastKey)) {
+                Long lastSequenceNumber = appendedSequences.get(key);
+                if (lastSequenceNumber == null && !hooks.reserveAggregate(sequenceCache, key)) {
+                    throw new ConcurrencyException("Events can not be appended to aggregate " + key +
+                            ", it is modified by concurrent transaction.");
+                }
+                if (lastSequenceNumber == null) {
+                    lastSequenceNumber = hooks.getAppendedSequenceNumber(key);
+                }
+                if (lastSequenceNumber == null) {
+                    lastSequenceNumber = loadLastSequenceNumber(schema, sequenceCache, key);
+                }
+                if (lastSequenceNumber != null && sequenceNumber != lastSequenceNumber + 1) {
+                    throw new ConcurrencyException("Event with sequence number " + sequenceNumber +
+                            " can not be appended to aggregate " + key + ", last sequence number is " +
+                            lastSequenceNumber + ".");
+                }
+                lastKey = key;
+            }
+            appendedSequences.put(key, sequenceNumber);
+        }
+        return appendedSequences;
+    }
+
+    private Long loadLastSequenceNumber(EventStoreSchema schema, LastSequenceCache sequenceCache,
+                                        AggregateKey key) {
+        final Long cached = sequenceCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Long sequenceNumber = schema.getDomainEventIndex().getLastSequenceNumber(key.getType(),
+                key.getIdentifier());
+        if (sequenceNumber == null) {
             return null;
         }
+        sequenceCache.update(key, sequenceNumber);
+        logger.debug("Last sequence number of aggregate {} was loaded from the index.", key);
+        return sequenceNumber;
+    }
 
-        final String query = "select * from " + SnapshotEventEntry.SNAPSHOT_EVENT_CLASS +
-                " where " + SnapshotEventEntry.AGGREGATE_IDENTIFIER_FIELD + " = '" + aggregateIdentifier.asString() + "'" +
-                " and " + SnapshotEventEntry.AGGREGATE_TYPE_FIELD + " = '" + aggregateType + "'" +
-                " order by " + SnapshotEventEntry.SEQUENCE_NUMBER_FIELD + " desc limit 1";
+    private String routeToCluster(ODatabaseDocument db, EventStoreSchema schema, String type, String identifier) {
+        final String clusterName = clusterRoutingStrategy.getClusterName(type, identifier);
+        if (clusterName != null) {
+            schema.getDomainEventClusterId(db, clusterName);
+        }
+        return clusterName;
+    }
 
-        final List<ODocument> queryResult =
-                database.query(new OSQLSynchQuery<ODocument>(query));
+    private static boolean contains(int[] values, int value) {
+        for (int item : values) {
+            if (item == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private EventBodyDeserializer bodyDeserializer() {
+        return new EventBodyDeserializer(eventSerializer, deserializationExecutor, parallelDeserializationThreshold);
+    }
 
-        logger.debug("Query \"{}\" was performed and {} snapshot events were fetched.", query, queryResult.size());
+    private EventStoreSchema getSchema() {
+        if (eventStoreSchema == null) {
+            initializeSchema();
+        }
+        return eventStoreSchema;
+    }
 
-        if (queryResult.isEmpty()) {
+    /**
+     * Snapshots are found by the range of {@link AggregateSequenceIndex}, so no SQL command has to be parsed
+     * and aggregate identifier does not need escaping.
+     */
+    private void dropSnapshots(EventStoreSchema schema, String aggregateType, String identifier) {
+        final Collection<OIdentifiable> snapshotIds = schema.getSnapshotEventIndex().getRange(aggregateType,
+                identifier, Long.MIN_VALUE, Long.MAX_VALUE);
+        final List<ORID> rids = new ArrayList<ORID>(snapshotIds.size());
+        for (OIdentifiable snapshotId : snapshotIds) {
+            rids.add(snapshotId.getIdentity());
+        }
+        for (ORID rid : rids) {
+            final ODocument snapshot = database.load(rid);
+            if (snapshot != null) {
+                snapshot.delete();
+            }
+        }
+        logger.debug("{} snapshot events were removed for aggregate type \"{}\" and id [{}].",
+                new Object[]{rids.size(), aggregateType, identifier});
+    }
+
+    private PagedDomainEventStream loadEvents(EventStoreSchema schema, AggregateKey key) {
+        final LruCache<AggregateKey, SnapshotPosition> positions = snapshotPositions;
+
+        SnapshotPosition snapshotPosition = positions != null ? positions.get(key) : null;
+        if (snapshotPosition != null) {
+            final PagedDomainEventStream eventStream = openEventStream(schema, key, snapshotPosition);
+            if (eventStream != null) {
+                return eventStream;
+            }
+            positions.remove(key);
+            logger.debug("Cached snapshot event of aggregate {} was removed, it is looked up again.", key);
+        }
+
+        for (int attempt = 0; attempt < SNAPSHOT_LOOKUP_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                pauseSnapshotLookup(attempt);
+            }
+            snapshotPosition = schema.getSnapshotEventIndex().getLastPosition(key.getType(), key.getIdentifier());
+            final PagedDomainEventStream eventStream = openEventStream(schema, key, snapshotPosition);
+            if (eventStream != null) {
+                if (positions != null) {
+                    positions.put(key, snapshotPosition);
+                }
+                return eventStream;
+            }
+            logger.debug("Snapshot event of aggregate {} was removed while it was read, it is looked up again.",
+                    key);
+        }
+        throw new IllegalStateException("Snapshot event of aggregate " + key + " was not found after " +
+                SNAPSHOT_LOOKUP_ATTEMPTS + " attempts, snapshot index may be stale, see rebuildIndexes().");
+    }
+
+    /**
+     * Snapshot is removed by concurrent writer which stores newer one, so lookup is delayed to let it commit.
+     */
+    private static void pauseSnapshotLookup(int attempt) {
+        try {
+            Thread.sleep(1L << Math.min(attempt - 1, 6));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Thread was interrupted while looking up snapshot event.", e);
+        }
+    }
+
+    private PagedDomainEventStream openEventStream(EventStoreSchema schema, AggregateKey key,
+                                                   SnapshotPosition snapshotPosition) {
+        return openEventStream(schema, key, snapshotPosition.getFirstEventSequenceNumber(),
+                snapshotPosition.getIdentity());
+    }
+
+    /**
+     * Loads Snapshot Event together with the first page of the following events.
+     *
+     * @param firstSequenceNumber Sequence number of the first Domain Event to be read.
+     * @param snapshotId          Identity of the Snapshot Event or <code>null</code> if snapshot is not read.
+     * @return Stream of events or <code>null</code> if Snapshot Event with the given identity does not exist anymore.
+     */
+    private PagedDomainEventStream openEventStream(EventStoreSchema schema, AggregateKey key,
+                                                   long firstSequenceNumber, ORID snapshotId) {
+        final Collection<OIdentifiable> eventIds = schema.getDomainEventIndex().getRange(key.getType(),
+                key.getIdentifier(), firstSequenceNumber, Long.MAX_VALUE);
+        final Iterator<OIdentifiable> eventIdIterator = eventIds.iterator();
+
+        final List<ORID> rids = new ArrayList<ORID>(readPageSize + 1);
+        if (snapshotId != null) {
+            rids.add(snapshotId);
+        }
+        final int firstPageSize = snapshotId != null ? readPageSize + 1 : readPageSize;
+        while (rids.size() < firstPageSize && eventIdIterator.hasNext()) {
+            rids.add(eventIdIterator.next().getIdentity());
+        }
+
+        final List<ODocument> firstPage = PagedDomainEventStream.loadDocuments(database, rids);
+        if (snapshotId != null && firstPage.get(0) == null) {
             return null;
         }
-        return queryResult.get(0);
+
+        logger.debug("{} events were found for aggregate {}.",
+                eventIds.size() + (snapshotId != null ? 1 : 0), key);
+        return new PagedDomainEventStream(database, bodyDeserializer(), rids, firstPage, eventIdIterator,
+                readPageSize);
     }
 
-    private void storeEventEntry(DomainEventEntry domainEventEntry) {
-        final DomainEvent event = domainEventEntry.getEvent();
-        final String aggregateType = domainEventEntry.getAggregateType();
+    private void storeBatch(ODatabaseDocument db, DomainEventEntryBatch batch, OClass eventClass) {
+        if (batch.isEmpty()) {
+            return;
+        }
 
-        final ODocument eventDocument = domainEventEntry.asDocument(database);
+        final long start = System.nanoTime();
+        batch.write(db, eventClass);
+        final long elapsed = System.nanoTime() - start;
 
-        eventDocument.save();
-        final OSchema schema = database.getMetadata().getSchema();
-        schema.save();
+        appendStatistics.record(batch.size(), elapsed);
 
-        logger.debug("Event for aggregate type \"{}\", id [{}] and sequence number {} was saved to the default cluster.",
-                new Object[]{aggregateType, event.getSequenceNumber(), event.getAggregateIdentifier().asString()});
+        if (logger.isDebugEnabled()) {
+            logger.debug("Batch of {} documents of class \"{}\" was saved in {} us.",
+                    new Object[]{batch.size(), eventClass.getName(), TimeUnit.NANOSECONDS.toMicros(elapsed)});
+        }
     }
 
-    private void registerEvenUniquenessHook() {
+    private ConnectionHooks registerHooks(ODatabaseDocument db, EventStoreSchema schema) {
+        final Object owner = db.getDatabaseOwner();
+        ConnectionHooks hooks = connectionHooks.get(owner);
+        if (hooks == null) {
+            hooks = new ConnectionHooks(db, schema);
+            connectionHooks.put(owner, hooks);
+            logger.debug("{} has been registered.", AggregateSequenceIndexHook.class.getName());
+        }
+
         if (checkDomainEventUniqueness) {
-            logger.debug("DomainEvent uniqueness check is switched on. Trying to register {}.",
-                    DomainEventUniquenessHook.class.getName());
-            final DomainEventUniquenessHook uniquenessHook = new DomainEventUniquenessHook(database);
-            final Set<ORecordHook> hooks = database.getHooks();
-            if (!hooks.contains(uniquenessHook)) {
-                database.registerHook(uniquenessHook);
-                logger.debug("{}  has been registered.", DomainEventUniquenessHook.class.getName());
-            } else if (logger.isDebugEnabled()) {
-                logger.debug("{} had been already registered.", DomainEventUniquenessHook.class.getName());
-            }
+            hooks.registerUniquenessHook(db, schema);
         }
+        return hooks;
     }
 }
@@ -0,0 +1,177 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.eventstore.EventStoreException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link DomainEventStream} which loads event documents lazily page by page.
+ * <p/>
+ * Stream is created from the first page of already loaded documents and identities of the rest event documents,
+ * documents of the next page are loaded by single query when events of the current page are consumed.
+ * Each document is deserialized exactly once, only events of the current page are kept in memory.
+ * Events of the page can be deserialized in parallel, see {@link EventBodyDeserializer}.
+ * <p/>
+ * Document which does not exist anymore fails the stream by {@link EventStoreException}, skipping it would leave
+ * a gap in the events of the aggregate. Such document is referenced by stale index entry,
+ * see {@link OrientEventStore#rebuildIndexes()}.
+ *
+ * @author EniSh
+ */
+class PagedDomainEventStream implements DomainEventStream {
+    private final ODatabaseDocument database;
+    private final EventBodyDeserializer deserializer;
+    private final Iterator<OIdentifiable> eventIds;
+    private final DomainEvent[] page;
+    private int pageSize;
+    private int position;
+    private long readBytes;
+    private Long lastSequenceNumber;
+
+    /**
+     * @param database        Database instance which is used to load documents.
+     * @param deserializer    Deserializer of event bodies.
+     * @param firstPageIds    Identities of the documents of the first page.
+     * @param firstPage       Documents of the first page, for example Snapshot Event and the following events.
+     * @param eventIds        Identities of the rest event documents in the order they should be returned.
+     * @param maxPageSize     Maximum amount of documents which are loaded at once.
+     */
+    PagedDomainEventStream(ODatabaseDocument database, EventBodyDeserializer deserializer, List<ORID> firstPageIds,
+                           List<ODocument> firstPage, Iterator<OIdentifiable> eventIds, int maxPageSize) {
+        if (maxPageSize < 1) {
+            throw new IllegalArgumentException("Page size should be positive.");
+        }
+        this.database = database;
+        this.deserializer = deserializer;
+        this.eventIds = eventIds;
+        this.page = new DomainEvent[Math.max(maxPageSize, firstPage.size())];
+
+        fillPage(firstPageIds, firstPage);
+    }
+
+    /**
+     * Loads documents with given identities in one round trip.
+     *
+     * @param database Database instance which is used to load documents.
+     * @param rids     Identities of documents.
+     * @return Loaded documents in the order of identities, <code>null</code> is returned for each document
+     *         which does not exist.
+     */
+    static List<ODocument> loadDocuments(ODatabaseDocument database, List<ORID> rids) {
+        final List<ODocument> documents = new ArrayList<ODocument>(rids.size());
+        if (rids.size() == 1) {
+            documents.add(database.<ODocument>load(rids.get(0)));
+            return documents;
+        }
+        if (rids.isEmpty()) {
+            return documents;
+        }
+
+        final StringBuilder query = new StringBuilder("select from [");
+        for (int i = 0; i < rids.size(); i++) {
+            if (i > 0) {
+                query.append(',');
+            }
+            query.append(rids.get(i));
+        }
+        query.append(']');
+
+        final List<ODocument> result = database.query(new OSQLSynchQuery<ODocument>(query.toString()));
+        final Map<ORID, ODocument> loaded = new HashMap<ORID, ODocument>(result.size() * 2);
+        for (ODocument document : result) {
+            loaded.put(document.getIdentity(), document);
+        }
+        for (ORID rid : rids) {
+            documents.add(loaded.get(rid));
+        }
+        return documents;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        if (position < pageSize) {
+            return true;
+        }
+        loadNextPage();
+        return position < pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DomainEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Stream does not contain more events.");
+        }
+        final DomainEvent event = page[position];
+        page[position++] = null;
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DomainEvent peek() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Stream does not contain more events.");
+        }
+        return page[position];
+    }
+
+    private void loadNextPage() {
+        position = 0;
+        pageSize = 0;
+
+        while (pageSize == 0 && eventIds.hasNext()) {
+            final List<ORID> rids = new ArrayList<ORID>(page.length);
+            while (rids.size() < page.length && eventIds.hasNext()) {
+                rids.add(eventIds.next().getIdentity());
+            }
+            fillPage(rids, loadDocuments(database, rids));
+        }
+    }
+
+    private void fillPage(List<ORID> rids, List<ODocument> documents) {
+        final List<byte[]> bodies = new ArrayList<byte[]>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            final ODocument document = documents.get(i);
+            if (document == null) {
+                throw new EventStoreException("Event document " + rids.get(i) + " does not exist, " +
+                        (lastSequenceNumber != null ? "event after sequence number " + lastSequenceNumber :
+                                "the first event of the stream") + " can not be read. Indexes refer to " +
+                        "removed document and should be rebuilt.");
+            }
+            lastSequenceNumber = document.<Number>field(DomainEventEntry.SEQUENCE_NUMBER_FIELD).longValue();
+            final byte[] body = DomainEventEntry.getBody(document);
+            readBytes += body.length;
+            bodies.add(body);
+        }
+        deserializer.deserialize(bodies, page, 0);
+        pageSize = bodies.size();
+    }
+
+    /**
+     * @return Total length of serialized events which were read so far.
+     */
+    long getReadBytes() {
+        return readBytes;
+    }
+
+}
@@ -0,0 +1,500 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Allocates global positions of appended Domain Events.
+ * <p/>
+ * Positions are not taken from the shared counter one by one: the counter document of
+ * {@link #COUNTER_CLASS} class is advanced by the whole block of positions using separate connection and
+ * transaction, then positions of the block are handed out from memory. So writers of different EventStore
+ * instances touch the counter only once per block and never hold it in their transactions.
+ * Counter is updated optimistically, if other process advanced it concurrently the update is retried.
+ * <p/>
+ * Next block is reserved in advance when half of the current one is used. Reservation is done by the thread which
+ * noticed that, outside of the allocator lock, so other appenders keep taking positions of the current block
+ * while counter is updated. Appenders wait only if both blocks are exhausted before reservation completes.
+ * <p/>
+ * Positions allocated by the same instance are strictly increasing. Positions of rolled back transactions
+ * and unused rest of the blocks are lost, so positions have gaps.
+ * <p/>
+ * Positions are allocated before transaction is committed, so they are not ordered by commit time. To let readers
+ * know which positions are settled, every allocator publishes the lowest position which it may still commit in
+ * its own lease document of {@link #WRITER_CLASS} class, positions are {@link #release(Collection) released} by
+ * {@link ConnectionHooks} when transaction is finished. Lease of the idle allocator is marked idle. Allocator which
+ * becomes busy publishes its lease before the first position is handed out and then checks that nobody reserved
+ * positions after its blocks while it was idle, otherwise both blocks are abandoned and the new one is reserved.
+ * So {@link #readSafeEnd(ODatabaseDocument)} returns position before which no event can be committed anymore.
+ * <p/>
+ * Lease which was not renewed during {@link #LEASE_TIMEOUT_MILLIS} is ignored by readers, so allocator which is
+ * gone does not block them forever. Because of that transaction which holds positions longer than that, or clock
+ * of the reader which is ahead of the writer's one by that much, can let readers pass its positions.
+ *
+ * @author EniSh
+ */
+class PositionAllocator {
+    private static final Logger logger = LoggerFactory.getLogger(PositionAllocator.class);
+
+    /**
+     * Name of the document class that is used to store the counter.
+     */
+    static final String COUNTER_CLASS = "EventPositionCounter";
+
+    /**
+     * Name of the field that contains name of the counter.
+     * <p/>
+     * OrientDb type : {@link OType#STRING}. Mandatory. Not Null. Unique.
+     */
+    static final String COUNTER_NAME_FIELD = "name";
+
+    /**
+     * Name of the field that contains the first position which is not reserved yet.
+     * <p/>
+     * OrientDb type : {@link OType#LONG}. Mandatory. Not Null.
+     */
+    static final String NEXT_POSITION_FIELD = "nextPosition";
+
+    /**
+     * Name of the document class that is used to store leases of allocators.
+     */
+    static final String WRITER_CLASS = "EventPositionWriter";
+
+    /**
+     * Name of the field that contains identifier of the allocator which owns the lease.
+     * <p/>
+     * OrientDb type : {@link OType#STRING}. Mandatory. Not Null.
+     */
+    static final String OWNER_FIELD = "owner";
+
+    /**
+     * Name of the field that contains the lowest position which allocator may still commit,
+     * -1 if allocator is idle.
+     * <p/>
+     * OrientDb type : {@link OType#LONG}. Mandatory. Not Null.
+     */
+    static final String LOW_POSITION_FIELD = "lowPosition";
+
+    /**
+     * Name of the field that contains time of the last update of the lease in milliseconds.
+     * <p/>
+     * OrientDb type : {@link OType#LONG}. Mandatory. Not Null.
+     */
+    static final String RENEWED_AT_FIELD = "renewedAt";
+
+    /**
+     * Lease which was not renewed during this time is ignored by readers and can be taken over by other allocator.
+     */
+    static final long LEASE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Minimum interval between updates of the lowest position of the busy allocator.
+     */
+    private static final long LEASE_UPDATE_INTERVAL_MILLIS = 100;
+
+    private static final String COUNTER_NAME = "domainEvent";
+    private static final int RESERVATION_ATTEMPTS = 10;
+    private static final long IDLE = -1;
+
+    private final ConnectionManager connectionManager;
+    private final int blockSize;
+    private final String owner = UUID.randomUUID().toString();
+    private long nextPosition;
+    private long blockEnd;
+    private long spareStart;
+    private long spareEnd;
+    private boolean reserving;
+    private long generation;
+    private long allocatedEnd;
+    private final TreeSet<Long> inFlight = new TreeSet<Long>();
+    private long publishedLow = IDLE;
+
+    /**
+     * Guards writes of the lease, it is taken before the allocator lock.
+     */
+    private final Object leaseLock = new Object();
+    private ORID leaseId;
+    private long publishedAt;
+
+    /**
+     * @param connectionManager Manager which provides connections to the database where counter is stored.
+     * @param blockSize         Amount of positions reserved at once.
+     */
+    PositionAllocator(ConnectionManager connectionManager, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size should be positive.");
+        }
+        this.connectionManager = connectionManager;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns next position, new block is reserved if current one is exhausted. Position stays in flight until
+     * it is {@link #release(Collection) released}.
+     *
+     * @return Allocated position.
+     * @throws IllegalStateException if block of positions or lease can not be written or thread was interrupted
+     *                               while waiting for reservation.
+     */
+    long next() {
+        while (true) {
+            final long position;
+            final long positionGeneration;
+            final boolean reserve;
+            final boolean publish;
+            synchronized (this) {
+                position = take();
+                if (position < 0 && reserving) {
+                    waitForReservation();
+                    continue;
+                }
+                reserve = !reserving && (position < 0 || blockEnd - nextPosition <= blockSize / 2) &&
+                        spareStart == spareEnd;
+                if (reserve) {
+                    reserving = true;
+                }
+                if (position >= 0) {
+                    inFlight.add(position);
+                    allocatedEnd = Math.max(allocatedEnd, position + 1);
+                }
+                publish = publishedLow == IDLE;
+                positionGeneration = generation;
+            }
+
+            if (reserve) {
+                try {
+                    reserveSpareBlock(positionGeneration);
+                } catch (IllegalStateException e) {
+                    if (position < 0) {
+                        throw e;
+                    }
+                    logger.debug("Next block of positions will be reserved when current one is exhausted.");
+                }
+            }
+            if (position >= 0 && (!publish || publishBusyLease(position, positionGeneration))) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Releases positions of the finished transaction, whether it was committed or rolled back.
+     * Lease is marked idle if there are no positions in flight anymore.
+     *
+     * @param positions Positions returned by {@link #next()}.
+     */
+    void release(Collection<Long> positions) {
+        synchronized (this) {
+            inFlight.removeAll(positions);
+        }
+
+        synchronized (leaseLock) {
+            final long low;
+            final long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (publishedLow == IDLE) {
+                    return;
+                }
+                if (inFlight.isEmpty()) {
+                    low = IDLE;
+                    publishedLow = IDLE;
+                } else {
+                    low = inFlight.first();
+                    final long age = now - publishedAt;
+                    if (age < LEASE_UPDATE_INTERVAL_MILLIS ||
+                            (low == publishedLow && age < LEASE_TIMEOUT_MILLIS / 2)) {
+                        return;
+                    }
+                }
+            }
+
+            try {
+                writeLease(low);
+                synchronized (this) {
+                    if (low != IDLE) {
+                        publishedLow = low;
+                    }
+                }
+            } catch (IllegalStateException e) {
+                logger.warn("Lease of event positions was not updated, readers may wait until it expires.", e);
+            }
+        }
+    }
+
+    /**
+     * @return The lowest position of this allocator which is still in flight, {@link Long#MAX_VALUE} if there is
+     *         no such position.
+     */
+    synchronized long getLowestInFlight() {
+        return inFlight.isEmpty() ? Long.MAX_VALUE : inFlight.first();
+    }
+
+    /**
+     * @return Position after the last one handed out by this allocator, zero if nothing was handed out.
+     */
+    synchronized long getAllocatedEnd() {
+        return allocatedEnd;
+    }
+
+    /**
+     * @return Next position of the current or spare block or -1 if both of them are exhausted.
+     */
+    private long take() {
+        if (nextPosition == blockEnd && spareStart != spareEnd) {
+            nextPosition = spareStart;
+            blockEnd = spareEnd;
+            spareStart = spareEnd = 0;
+        }
+        return nextPosition < blockEnd ? nextPosition++ : -1;
+    }
+
+    private void waitForReservation() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Thread was interrupted while waiting for block of positions.", e);
+        }
+    }
+
+    /**
+     * Reserves spare block, it is dropped if blocks were abandoned since the reservation was started.
+     */
+    private void reserveSpareBlock(long reservationGeneration) {
+        long start = -1;
+        try {
+            start = reserveBlock();
+        } finally {
+            synchronized (this) {
+                if (start >= 0 && generation == reservationGeneration) {
+                    spareStart = start;
+                    spareEnd = start + blockSize;
+                }
+                reserving = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Publishes lease of the allocator which was idle, then checks that its blocks are still the last reserved ones.
+     * If they are not, readers may have passed positions of the blocks already, so blocks are abandoned.
+     *
+     * @return <code>false</code> if position was abandoned and should not be used.
+     */
+    private boolean publishBusyLease(long position, long positionGeneration) {
+        synchronized (leaseLock) {
+            final long low;
+            final long reservedEnd;
+            synchronized (this) {
+                if (generation != positionGeneration) {
+                    inFlight.remove(position);
+                    return false;
+                }
+                if (publishedLow != IDLE) {
+                    return true;
+                }
+                low = inFlight.first();
+                reservedEnd = spareStart != spareEnd ? spareEnd : blockEnd;
+            }
+
+            boolean last = false;
+            try {
+                writeLease(low);
+                final ODatabaseDocument database = connectionManager.getNewConnection();
+                try {
+                    last = readReservedEnd(database) == reservedEnd;
+                } finally {
+                    database.close();
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    inFlight.remove(position);
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                publishedLow = low;
+                if (!last) {
+                    logger.debug("Positions before {} were reserved by other writer, blocks are abandoned.",
+                            reservedEnd);
+                    nextPosition = blockEnd;
+                    spareStart = spareEnd = 0;
+                    generation++;
+                    inFlight.remove(position);
+                }
+            }
+            return last;
+        }
+    }
+
+    private long reserveBlock() {
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt < RESERVATION_ATTEMPTS; attempt++) {
+            final ODatabaseDocument database = connectionManager.getNewConnection();
+            try {
+                final long start = advanceCounter(database);
+                logger.debug("Positions from {} to {} were reserved.", start, start + blockSize - 1);
+                return start;
+            } catch (RuntimeException e) {
+                logger.debug("Reservation of positions failed, it will be retried.");
+                failure = e;
+            } finally {
+                database.close();
+            }
+        }
+        throw new IllegalStateException("Block of event positions can not be reserved.", failure);
+    }
+
+    /**
+     * Writes the lease, lease of other allocator which has expired is taken over instead of creating the new one.
+     * Called while holding the lease lock.
+     */
+    private void writeLease(long low) {
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt < RESERVATION_ATTEMPTS; attempt++) {
+            final ODatabaseDocument database = connectionManager.getNewConnection();
+            try {
+                createClasses(database);
+                final long now = System.currentTimeMillis();
+                ODocument lease = leaseId != null ? database.<ODocument>load(leaseId) : null;
+                if (lease != null) {
+                    lease.reload();
+                }
+                if (lease == null || !owner.equals(lease.field(OWNER_FIELD))) {
+                    lease = findExpiredLease(database, now);
+                }
+                if (lease == null) {
+                    lease = new ODocument(database, WRITER_CLASS);
+                }
+                lease.field(OWNER_FIELD, owner);
+                lease.field(LOW_POSITION_FIELD, low);
+                lease.field(RENEWED_AT_FIELD, now);
+                lease.save();
+                leaseId = lease.getIdentity().copy();
+                publishedAt = now;
+                return;
+            } catch (RuntimeException e) {
+                logger.debug("Lease of event positions was not written, it will be retried.");
+                failure = e;
+            } finally {
+                database.close();
+            }
+        }
+        throw new IllegalStateException("Lease of event positions can not be written.", failure);
+    }
+
+    private static ODocument findExpiredLease(ODatabaseDocument database, long now) {
+        for (ODocument lease : database.browseClass(WRITER_CLASS)) {
+            if (lease.<Number>field(RENEWED_AT_FIELD).longValue() < now - LEASE_TIMEOUT_MILLIS) {
+                return lease;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the end of the positions reserved by all EventStore instances, no event can have position which is
+     * equal to or greater than it. Counter document is reloaded, so value is not taken from the cache.
+     *
+     * @param database Current database instance.
+     * @return First position which is not reserved yet, zero if no position was reserved.
+     */
+    static long readReservedEnd(ODatabaseDocument database) {
+        final String clusterName = COUNTER_CLASS.toLowerCase(Locale.ENGLISH);
+        if (database.getClusterIdByName(clusterName) == -1) {
+            return 0;
+        }
+
+        for (ODocument counter : database.browseCluster(clusterName)) {
+            if (COUNTER_NAME.equals(counter.field(COUNTER_NAME_FIELD))) {
+                counter.reload();
+                return counter.<Number>field(NEXT_POSITION_FIELD).longValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the end of settled positions: events with lower positions are either committed already or will never
+     * be. It is the end of reserved positions limited by the lowest position in flight of all allocators whose
+     * leases have not expired. Counter is read before leases, so position reserved after the counter was read
+     * can not be lower than the result.
+     *
+     * @param database Current database instance.
+     * @return First position which is not settled yet.
+     */
+    static long readSafeEnd(ODatabaseDocument database) {
+        long safeEnd = readReservedEnd(database);
+        final String clusterName = WRITER_CLASS.toLowerCase(Locale.ENGLISH);
+        if (database.getClusterIdByName(clusterName) == -1) {
+            return safeEnd;
+        }
+
+        final long expiredBefore = System.currentTimeMillis() - LEASE_TIMEOUT_MILLIS;
+        for (ODocument lease : database.browseCluster(clusterName)) {
+            lease.reload();
+            final long low = lease.<Number>field(LOW_POSITION_FIELD).longValue();
+            if (low != IDLE && low < safeEnd &&
+                    lease.<Number>field(RENEWED_AT_FIELD).longValue() >= expiredBefore) {
+                safeEnd = low;
+            }
+        }
+        return safeEnd;
+    }
+
+    private long advanceCounter(ODatabaseDocument database) {
+        createClasses(database);
+
+        for (ODocument counter : database.browseClass(COUNTER_CLASS)) {
+            if (COUNTER_NAME.equals(counter.field(COUNTER_NAME_FIELD))) {
+                final long start = counter.<Number>field(NEXT_POSITION_FIELD).longValue();
+                counter.field(NEXT_POSITION_FIELD, start + blockSize);
+                counter.save();
+                return start;
+            }
+        }
+
+        final ODocument counter = new ODocument(database, COUNTER_CLASS);
+        counter.field(COUNTER_NAME_FIELD, COUNTER_NAME);
+        counter.field(NEXT_POSITION_FIELD, (long) blockSize);
+        counter.save();
+        return 0;
+    }
+
+    private static void createClasses(ODatabaseDocument database) {
+        final OSchema schema = database.getMetadata().getSchema();
+        if (schema.existsClass(COUNTER_CLASS) && schema.existsClass(WRITER_CLASS)) {
+            return;
+        }
+
+        if (!schema.existsClass(COUNTER_CLASS)) {
+            final OClass counterClass = schema.createClass(COUNTER_CLASS);
+            counterClass.createProperty(COUNTER_NAME_FIELD, OType.STRING).setMandatory(true).setNotNull(true).
+                    createIndex(OProperty.INDEX_TYPE.UNIQUE);
+            counterClass.createProperty(NEXT_POSITION_FIELD, OType.LONG).setMandatory(true).setNotNull(true);
+            logger.debug("OClass \"{}\" was created.", COUNTER_CLASS);
+        }
+        if (!schema.existsClass(WRITER_CLASS)) {
+            final OClass writerClass = schema.createClass(WRITER_CLASS);
+            writerClass.createProperty(OWNER_FIELD, OType.STRING).setMandatory(true).setNotNull(true);
+            writerClass.createProperty(LOW_POSITION_FIELD, OType.LONG).setMandatory(true).setNotNull(true);
+            writerClass.createProperty(RENEWED_AT_FIELD, OType.LONG).setMandatory(true).setNotNull(true);
+            logger.debug("OClass \"{}\" was created.", WRITER_CLASS);
+        }
+        schema.save();
+    }
+}
@@ -0,0 +1,44 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+
+/**
+ * Domain Event together with its global position, returned by
+ * {@link OrientEventStore#readEventsAfter(long, int)}.
+ *
+ * @author EniSh
+ */
+public final class PositionedDomainEvent {
+    private final long position;
+    private final String aggregateType;
+    private final DomainEvent event;
+
+    /**
+     * @param position      Global position of the event.
+     * @param aggregateType Type of the aggregate.
+     * @param event         Deserialized event.
+     */
+    public PositionedDomainEvent(long position, String aggregateType, DomainEvent event) {
+        this.position = position;
+        this.aggregateType = aggregateType;
+        this.event = event;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public String getAggregateType() {
+        return aggregateType;
+    }
+
+    public DomainEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        return "PositionedDomainEvent{position=" + position + ", " + aggregateType + "[" +
+                event.getAggregateIdentifier().asString() + "], sequenceNumber=" + event.getSequenceNumber() + "}";
+    }
+}
@@ -0,0 +1,80 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+/**
+ * Options of the event replay performed by {@link OrientEventStore#visitEvents(EventReplayVisitor, ReplayOptions)}.
+ *
+ * @author EniSh
+ */
+public class ReplayOptions {
+    private String aggregateType;
+    private ReplayPosition startPosition = ReplayPosition.START;
+    private int pageSize = 500;
+    private boolean parallel;
+
+    /**
+     * @param aggregateType Type of aggregates whose events are replayed or <code>null</code> to replay events
+     *                      of all aggregates, which is default.
+     */
+    public void setAggregateType(String aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    /**
+     * @return Type of aggregates whose events are replayed or <code>null</code>.
+     */
+    public String getAggregateType() {
+        return aggregateType;
+    }
+
+    /**
+     * @param startPosition Position reported by {@link EventReplayVisitor#positionReached(ReplayPosition)}
+     *                      from which replay is continued, by default replay starts from the beginning.
+     */
+    public void setStartPosition(ReplayPosition startPosition) {
+        if (startPosition == null) {
+            throw new IllegalArgumentException("Start position can not be null.");
+        }
+        this.startPosition = startPosition;
+    }
+
+    /**
+     * @return Position from which replay is started.
+     */
+    public ReplayPosition getStartPosition() {
+        return startPosition;
+    }
+
+    /**
+     * @param pageSize Amount of record positions scanned at once in each cluster, default value is 500.
+     *                 Only events of the current page are kept in memory by each scanning thread.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size should be positive.");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return Amount of record positions scanned at once.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param parallel Whether clusters should be scanned concurrently, each by its own thread and connection.
+     *                 Requires {@link ConnectionManager} to be set to EventStore. Default value is
+     *                 <code>false</code>.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return Whether clusters are scanned concurrently.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+}
@@ -0,0 +1,86 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Position of the event replay: next position to be scanned in each cluster of Domain Events.
+ * Clusters which are not mentioned are scanned from the beginning.
+ * <p/>
+ * Position is immutable, it can be stored as String returned by {@link #toString()}
+ * and restored by {@link #parse(String)}.
+ *
+ * @author EniSh
+ */
+public final class ReplayPosition {
+    /**
+     * Position of the replay which is started from the beginning.
+     */
+    public static final ReplayPosition START = new ReplayPosition(new TreeMap<Integer, Long>());
+
+    private final Map<Integer, Long> clusterPositions;
+
+    ReplayPosition(Map<Integer, Long> clusterPositions) {
+        this.clusterPositions = Collections.unmodifiableMap(new TreeMap<Integer, Long>(clusterPositions));
+    }
+
+    /**
+     * Restores position from its String presentation.
+     *
+     * @param value Value returned by {@link #toString()}.
+     * @return Restored position.
+     * @throws IllegalArgumentException if value has wrong format.
+     */
+    public static ReplayPosition parse(String value) {
+        final Map<Integer, Long> clusterPositions = new TreeMap<Integer, Long>();
+        if (value.length() > 0) {
+            for (String item : value.split(",")) {
+                final int separator = item.indexOf(':');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Replay position \"" + value + "\" has wrong format.");
+                }
+                try {
+                    clusterPositions.put(Integer.parseInt(item.substring(0, separator)),
+                            Long.parseLong(item.substring(separator + 1)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Replay position \"" + value + "\" has wrong format.", e);
+                }
+            }
+        }
+        return new ReplayPosition(clusterPositions);
+    }
+
+    /**
+     * @return Next position to be scanned per cluster id.
+     */
+    Map<Integer, Long> getClusterPositions() {
+        return clusterPositions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ReplayPosition &&
+                clusterPositions.equals(((ReplayPosition) o).clusterPositions);
+    }
+
+    @Override
+    public int hashCode() {
+        return clusterPositions.hashCode();
+    }
+
+    /**
+     * @return Position in format "clusterId:position,clusterId:position".
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : clusterPositions.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.joda.time.DateTime;
+
+/**
+ * Domain Event which is already serialized, used to copy events between stores without deserialization.
+ * See {@link OrientEventStore#appendSerializedEvents(java.util.List)}.
+ *
+ * @author EniSh
+ */
+public final class SerializedDomainEvent {
+    private final String aggregateType;
+    private final String aggregateIdentifier;
+    private final long sequenceNumber;
+    private final DateTime timestamp;
+    private final byte[] body;
+
+    /**
+     * @param aggregateType       Type of the aggregate.
+     * @param aggregateIdentifier String presentation of the aggregate identifier.
+     * @param sequenceNumber      Sequence number of the event.
+     * @param timestamp           Time stamp of the event.
+     * @param body                Event serialized by the {@link org.axonframework.eventstore.EventSerializer}
+     *                            of the target EventStore, array is not copied.
+     */
+    public SerializedDomainEvent(String aggregateType, String aggregateIdentifier, long sequenceNumber,
+                                 DateTime timestamp, byte[] body) {
+        if (aggregateType == null || aggregateIdentifier == null || timestamp == null || body == null) {
+            throw new IllegalArgumentException("Aggregate type, identifier, time stamp and body are mandatory.");
+        }
+        this.aggregateType = aggregateType;
+        this.aggregateIdentifier = aggregateIdentifier;
+        this.sequenceNumber = sequenceNumber;
+        this.timestamp = timestamp;
+        this.body = body;
+    }
+
+    public String getAggregateType() {
+        return aggregateType;
+    }
+
+    public String getAggregateIdentifier() {
+        return aggregateIdentifier;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "SerializedDomainEvent{" + aggregateType + "[" + aggregateIdentifier + "], sequenceNumber=" +
+                sequenceNumber + "}";
+    }
+}
@@ -36,6 +36,14 @@ class SnapshotEventEntry extends DomainEventEntry {
         super(aggregateType, event, eventSerializer);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    String getClassName() {
+        return SNAPSHOT_EVENT_CLASS;
+    }
+
     /**
      * Creates document class that presents Snapshot Event data and metadata.
      * <p/>
@@ -46,7 +54,17 @@ class SnapshotEventEntry extends DomainEventEntry {
      */
     @Override
     protected OClass createClass(ODatabaseDocument databaseDocument) {
-        final OSchema schema = databaseDocument.getMetadata().getSchema();
+        return createSnapshotEventClass(databaseDocument.getMetadata().getSchema());
+    }
+
+    /**
+     * Returns document class definition for the Snapshot Event, class and its parent are created
+     * if they do not exist. Schema is not saved, call schema.save() to persist changes.
+     *
+     * @param schema Schema of the current database.
+     * @return Document class that presents Snapshot Event and auxiliary metadata.
+     */
+    static OClass createSnapshotEventClass(OSchema schema) {
         OClass eventClass = schema.getClass(SNAPSHOT_EVENT_CLASS);
 
         if (eventClass != null) {
@@ -55,7 +73,7 @@ class SnapshotEventEntry extends DomainEventEntry {
 
         logger.debug("OClass \"{}\" was created.", SNAPSHOT_EVENT_CLASS);
 
-        final OClass parent = super.createClass(databaseDocument);
+        final OClass parent = createDomainEventClass(schema);
         eventClass = schema.createClass(SNAPSHOT_EVENT_CLASS, parent);
 
         return eventClass;
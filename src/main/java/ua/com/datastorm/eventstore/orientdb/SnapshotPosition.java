@@ -0,0 +1,46 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.id.ORID;
+
+/**
+ * Identity and sequence number of the last Snapshot Event of the aggregate, cached by {@link OrientEventStore}
+ * to load snapshot together with the following Domain Events.
+ * <p/>
+ * Position may become stale when newer snapshot is appended by another EventStore, such position is still
+ * valid because events after the older snapshot are read as well. Position of the removed snapshot is detected
+ * when snapshot document is not found.
+ *
+ * @author EniSh
+ */
+class SnapshotPosition {
+    /**
+     * Position of the aggregate which has no snapshot, all its events are read.
+     */
+    static final SnapshotPosition NONE = new SnapshotPosition(null, Long.MIN_VALUE);
+
+    private final ORID identity;
+    private final long sequenceNumber;
+
+    /**
+     * @param identity       Identity of the Snapshot Event document.
+     * @param sequenceNumber Sequence number of the Snapshot Event.
+     */
+    SnapshotPosition(ORID identity, long sequenceNumber) {
+        this.identity = identity;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return Identity of the Snapshot Event document or <code>null</code> if aggregate has no snapshot.
+     */
+    ORID getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return Sequence number of the first Domain Event to be read after the snapshot.
+     */
+    long getFirstEventSequenceNumber() {
+        return identity == null ? Long.MIN_VALUE : sequenceNumber + 1;
+    }
+}
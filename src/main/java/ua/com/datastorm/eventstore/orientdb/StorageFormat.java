@@ -0,0 +1,71 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Versions of the document layout used to store Domain Events. Version is written to the
+ * {@link DomainEventEntry#FORMAT_FIELD} of each document, so documents of different versions can coexist
+ * in the same database. Documents without this field were written by the first version of EventStore.
+ * <p/>
+ * Format of new documents can be chosen by {@link OrientEventStore#setStorageFormat(StorageFormat)}.
+ *
+ * @author EniSh
+ */
+public enum StorageFormat {
+    /**
+     * Time stamp is stored as 29 characters String in the {@link DomainEventEntry#TIMESTAMP_FIELD}.
+     */
+    STRING_TIMESTAMP(0),
+
+    /**
+     * Time stamp is stored as milliseconds since epoch in the {@link DomainEventEntry#TIMESTAMP_MILLIS_FIELD}
+     * and offset of the time zone in the {@link DomainEventEntry#TIMESTAMP_OFFSET_FIELD}.
+     */
+    MILLIS_TIMESTAMP(1),
+
+    /**
+     * Only fields used by indexes are stored as document fields: aggregate identifier, aggregate type,
+     * sequence number and time stamp in milliseconds. Time stamp offset and body are stored in the
+     * {@link EventEnvelope} in the {@link DomainEventEntry#ENVELOPE_FIELD}.
+     */
+    BINARY_ENVELOPE(2);
+
+    /**
+     * Format used to write new documents by default.
+     */
+    static final StorageFormat CURRENT = MILLIS_TIMESTAMP;
+
+    private final int version;
+
+    StorageFormat(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return Version which is written to the document.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Detects format of the passed in event document.
+     *
+     * @param document Event document.
+     * @return Format of the document.
+     * @throws IllegalStateException if document has unknown format version.
+     */
+    static StorageFormat of(ODocument document) {
+        final Number version = document.field(DomainEventEntry.FORMAT_FIELD);
+        if (version == null) {
+            return STRING_TIMESTAMP;
+        }
+        for (StorageFormat format : values()) {
+            if (format.version == version.intValue()) {
+                return format;
+            }
+        }
+        throw new IllegalStateException("Document " + document.getIdentity() + " has unknown storage format " +
+                version + ".");
+    }
+}
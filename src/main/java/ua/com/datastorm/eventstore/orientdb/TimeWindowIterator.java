@@ -0,0 +1,92 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over identities of events which happened in the given period. Identities are fetched from the index
+ * window by window, so only identities of the current window are kept in memory.
+ * <p/>
+ * Window starts at {@link #INITIAL_WINDOW_MILLIS}, it is halved when it contains more than twice the target amount
+ * of events and doubled when it contains less than half of it, so sparse periods are crossed in a few steps.
+ *
+ * @author EniSh
+ */
+abstract class TimeWindowIterator implements Iterator<OIdentifiable> {
+    /**
+     * Length of the first window in milliseconds.
+     */
+    static final long INITIAL_WINDOW_MILLIS = 60 * 1000;
+
+    private final long toMillis;
+    private final int targetCount;
+    private long nextMillis;
+    private long windowMillis = INITIAL_WINDOW_MILLIS;
+    private boolean exhausted;
+    private Iterator<OIdentifiable> window = Collections.<OIdentifiable>emptyList().iterator();
+
+    /**
+     * @param fromMillis  Start of the period, inclusive.
+     * @param toMillis    End of the period, inclusive.
+     * @param targetCount Desired amount of events in the window.
+     */
+    TimeWindowIterator(long fromMillis, long toMillis, int targetCount) {
+        this.nextMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.targetCount = targetCount;
+        this.exhausted = fromMillis > toMillis;
+    }
+
+    /**
+     * Fetches identities of events of the window.
+     *
+     * @param fromMillis Start of the window, inclusive.
+     * @param toMillis   End of the window, inclusive.
+     * @return Identities ordered by time stamp.
+     */
+    protected abstract List<OIdentifiable> fetch(long fromMillis, long toMillis);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (!window.hasNext() && !exhausted) {
+            final long windowEnd = toMillis - nextMillis < windowMillis ? toMillis : nextMillis + windowMillis - 1;
+            final List<OIdentifiable> ids = fetch(nextMillis, windowEnd);
+            exhausted = windowEnd == toMillis;
+            nextMillis = windowEnd + 1;
+
+            if (ids.size() > targetCount * 2 && windowMillis > 1) {
+                windowMillis /= 2;
+            } else if (ids.size() < targetCount / 2 && windowMillis < Long.MAX_VALUE / 2) {
+                windowMillis *= 2;
+            }
+            window = ids.iterator();
+        }
+        return window.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OIdentifiable next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("There are no more events in the period.");
+        }
+        return window.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Events can not be removed.");
+    }
+}
@@ -0,0 +1,153 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts Domain Events and Snapshot Events stored in {@link StorageFormat#STRING_TIMESTAMP} format to the
+ * {@link StorageFormat#MILLIS_TIMESTAMP} format.
+ * <p/>
+ * Converter uses its own connection acquired from {@link ConnectionManager}, so it can be run in a background
+ * thread while EventStore is used: <code>new Thread(converter).start()</code>. Events are converted in
+ * transactions of configurable size, so interrupted run can be simply started again.
+ * <p/>
+ * Usage: <code>TimestampFormatConverter &lt;database url&gt; &lt;user&gt; &lt;password&gt;</code>
+ *
+ * @author EniSh
+ */
+public class TimestampFormatConverter implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(TimestampFormatConverter.class);
+
+    private final ConnectionManager connectionManager;
+    private final AtomicLong convertedCount = new AtomicLong();
+    private int transactionSize = 1000;
+
+    /**
+     * @param connectionManager Manager which provides connection to the database which contains events.
+     */
+    public TimestampFormatConverter(ConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: TimestampFormatConverter <database url> <user> <password>");
+            return;
+        }
+
+        final TimestampFormatConverter converter =
+                new TimestampFormatConverter(new ConnectionManager(args[0], args[1], args[2]));
+        converter.run();
+        System.out.println(converter.getConvertedCount() + " events were converted.");
+    }
+
+    /**
+     * @param transactionSize Amount of events which are converted in single transaction, default value is 1000.
+     */
+    public void setTransactionSize(int transactionSize) {
+        if (transactionSize < 1) {
+            throw new IllegalArgumentException("Transaction size should be positive.");
+        }
+        this.transactionSize = transactionSize;
+    }
+
+    /**
+     * @return Amount of events converted so far.
+     */
+    public long getConvertedCount() {
+        return convertedCount.get();
+    }
+
+    /**
+     * Converts all events stored in the previous format.
+     */
+    @Override
+    public void run() {
+        final ODatabaseDocument database = connectionManager.getNewConnection();
+        try {
+            convert(database);
+        } finally {
+            database.close();
+        }
+    }
+
+    private void convert(ODatabaseDocument database) {
+        final EventStoreSchema schema = EventStoreSchema.initialize(database);
+        final Set<Integer> clusterIds = new LinkedHashSet<Integer>();
+        for (int clusterId : schema.getDomainEventClass().getClusterIds()) {
+            clusterIds.add(clusterId);
+        }
+        for (int clusterId : schema.getSnapshotEventClass().getClusterIds()) {
+            clusterIds.add(clusterId);
+        }
+
+        for (int clusterId : clusterIds) {
+            convertCluster(database, clusterId);
+        }
+
+        logger.info("{} events were converted.", convertedCount.get());
+    }
+
+    /**
+     * Scans cluster by pages of record positions, so only documents of the current page are kept in memory.
+     * Conversion does not move documents, so positions which were scanned are not changed by it.
+     */
+    private void convertCluster(ODatabaseDocument database, int clusterId) {
+        final long[] range = database.getStorage().getClusterDataRange(clusterId);
+        final List<ODocument> legacyEvents = new ArrayList<ODocument>(transactionSize);
+        long converted = 0;
+
+        for (long position = Math.max(range[0], 0); position <= range[1]; position += transactionSize) {
+            final long end = Math.min(range[1] + 1, position + transactionSize);
+            final List<ORID> rids = new ArrayList<ORID>((int) (end - position));
+            for (long p = position; p < end; p++) {
+                rids.add(new ORecordId(clusterId, p));
+            }
+
+            for (ODocument document : PagedDomainEventStream.loadDocuments(database, rids)) {
+                if (document != null && StorageFormat.of(document) == StorageFormat.STRING_TIMESTAMP) {
+                    legacyEvents.add(document);
+                }
+            }
+            if (!legacyEvents.isEmpty()) {
+                convertEvents(database, legacyEvents);
+                converted += legacyEvents.size();
+                convertedCount.addAndGet(legacyEvents.size());
+                legacyEvents.clear();
+            }
+        }
+
+        logger.debug("{} events of cluster \"{}\" were converted.", converted,
+                database.getClusterNameById(clusterId));
+    }
+
+    private void convertEvents(ODatabaseDocument database, List<ODocument> events) {
+        database.begin();
+        try {
+            for (ODocument document : events) {
+                final DateTime timestamp = DomainEventEntry.getTimestamp(document);
+                document.field(DomainEventEntry.TIMESTAMP_MILLIS_FIELD, timestamp.getMillis());
+                document.field(DomainEventEntry.TIMESTAMP_OFFSET_FIELD,
+                        timestamp.getZone().getOffset(timestamp.getMillis()));
+                document.field(DomainEventEntry.FORMAT_FIELD, StorageFormat.MILLIS_TIMESTAMP.getVersion());
+                document.removeField(DomainEventEntry.TIMESTAMP_FIELD);
+                document.save();
+            }
+            database.commit();
+        } catch (RuntimeException e) {
+            database.rollback();
+            throw e;
+        }
+    }
+}
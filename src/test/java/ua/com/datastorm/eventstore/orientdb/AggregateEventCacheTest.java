@@ -0,0 +1,107 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+
+/**
+ * Test case for {@link AggregateEventCache}.
+ *
+ * @author EniSh
+ */
+public class AggregateEventCacheTest {
+    private final AggregateKey key = new AggregateKey("Simple", "1");
+
+    @Test
+    public void testHitsAndMissesAreCounted() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        assertNull(cache.get(key));
+        cache.put(key, cache.version(key), events(new int[]{1, 2}), 10);
+
+        assertEquals(2, cache.get(key).size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEventsReadBeforeCommitAreNotCached() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        final long version = cache.version(key);
+        cache.entriesCommitted(entries(new int[]{1}));
+        cache.put(key, version, events(new int[]{1}), 10);
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testCommittedEventsAreAppendedToTail() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        cache.put(key, cache.version(key), events(new int[]{1, 2}), 10);
+        cache.entriesCommitted(entries(new int[]{3, 4}));
+
+        assertEquals(events(new int[]{1, 2, 3, 4}), cache.get(key));
+
+        cache.entriesCommitted(entries(new int[]{6}));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testSnapshotReplacesCachedPrefix() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        cache.put(key, cache.version(key), events(new int[]{1, 2, 3}), 30);
+        final SimpleDomainEvent snapshotEvent = new SimpleDomainEvent(2, agId("1"), "snapshot");
+        cache.entriesCommitted(Collections.<DomainEventEntry>singletonList(
+                new SnapshotEventEntry("Simple", snapshotEvent, new XStreamEventSerializer())));
+
+        final List<DomainEvent> cached = cache.get(key);
+        assertEquals(2, cached.size());
+        assertEquals(snapshotEvent, cached.get(0));
+        assertEquals(Long.valueOf(3), cached.get(1).getSequenceNumber());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAggregatesAreEvicted() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        cache.setMaxEntries(2);
+        cache.setMaxBytes(100);
+        final AggregateKey second = new AggregateKey("Simple", "2");
+        final AggregateKey third = new AggregateKey("Simple", "3");
+        cache.put(key, cache.version(key), events(new int[]{1}), 10);
+        cache.put(second, cache.version(second), events(new int[]{1}), 10);
+        cache.get(key);
+        cache.put(third, cache.version(third), events(new int[]{1}), 10);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(second));
+
+        cache.put(second, cache.version(second), events(new int[]{1}), 90);
+        assertEquals(1, cache.size());
+        assertEquals(90, cache.getEstimatedBytes());
+    }
+
+    private static List<DomainEvent> events(int[] sequenceNumbers) {
+        final String[] ids = new String[sequenceNumbers.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "1";
+        }
+        return new ArrayList<DomainEvent>(createSimpleDomainEvents(sequenceNumbers, ids));
+    }
+
+    private static List<DomainEventEntry> entries(int[] sequenceNumbers) {
+        final List<DomainEventEntry> entries = new ArrayList<DomainEventEntry>();
+        for (DomainEvent event : events(sequenceNumbers)) {
+            entries.add(new DomainEventEntry("Simple", event, new XStreamEventSerializer()));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,154 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.eventstore.EventSerializer;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+
+/**
+ * Test for {@link AggregateSequenceIndex} keys and index migration.
+ *
+ * @author EniSh
+ */
+public class AggregateSequenceIndexTest {
+    private ODatabaseDocumentTx database;
+    private EventSerializer eventSerializer = new XStreamEventSerializer();
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void testKeysAreOrderedBySequenceNumber() {
+        assertTrue(key("Doc", "1", -1).compareTo(key("Doc", "1", 0)) < 0);
+        assertTrue(key("Doc", "1", 0).compareTo(key("Doc", "1", 1)) < 0);
+        assertTrue(key("Doc", "1", 9).compareTo(key("Doc", "1", 10)) < 0);
+        assertTrue(key("Doc", "1", 255).compareTo(key("Doc", "1", Long.MAX_VALUE)) < 0);
+        assertTrue(key("Doc", "1", Long.MIN_VALUE).compareTo(key("Doc", "1", -1)) < 0);
+    }
+
+    @Test
+    public void testKeysOfDifferentAggregatesDoNotOverlap() {
+        assertTrue(key("Doc", "1", Long.MAX_VALUE).compareTo(key("Doc", "10", Long.MIN_VALUE)) < 0);
+        assertTrue(key("Doc", "1", Long.MAX_VALUE).compareTo(key("DocA", "1", Long.MIN_VALUE)) < 0);
+        assertTrue(key("Doc", "2", Long.MAX_VALUE).compareTo(key("DocA", "1", Long.MIN_VALUE)) < 0);
+    }
+
+    @Test
+    public void testExistingDatabaseIsMigrated() {
+        final OSchema schema = database.getMetadata().getSchema();
+        final OClass eventClass = DomainEventEntry.createDomainEventClass(schema);
+        eventClass.getProperty(DomainEventEntry.AGGREGATE_TYPE_FIELD).createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
+        eventClass.getProperty(DomainEventEntry.SEQUENCE_NUMBER_FIELD).createIndex(OProperty.INDEX_TYPE.NOTUNIQUE);
+        schema.save();
+
+        for (SimpleDomainEvent event : createSimpleDomainEvents(new int[]{1, 2}, new String[]{"1", "1"})) {
+            new DomainEventEntry("Simple", event, eventSerializer).asDocument(database).save();
+        }
+
+        final EventStoreSchema eventStoreSchema = EventStoreSchema.initialize(database);
+
+        assertNotNull(database.getMetadata().getIndexManager().
+                getIndex(AggregateSequenceIndex.indexName(DomainEventEntry.DOMAIN_EVENT_CLASS)));
+        assertFalse(eventStoreSchema.getDomainEventClass().getProperty(DomainEventEntry.AGGREGATE_TYPE_FIELD).
+                isIndexed());
+        assertFalse(eventStoreSchema.getDomainEventClass().getProperty(DomainEventEntry.SEQUENCE_NUMBER_FIELD).
+                isIndexed());
+        assertEquals(2, eventStoreSchema.getDomainEventIndex().getRange("Simple", "1", 0, Long.MAX_VALUE).size());
+        assertEquals(1, eventStoreSchema.getDomainEventIndex().getRange("Simple", "1", 2, 2).size());
+    }
+
+    @Test
+    public void testRangeIsOrderedBySequenceNumberRegardlessOfInsertOrder() {
+        final EventStoreSchema eventStoreSchema = EventStoreSchema.initialize(database);
+        final AggregateSequenceIndex index = eventStoreSchema.getDomainEventIndex();
+
+        final int[] sequenceNumbers = {255, 16, 1, 0, 15, 256};
+        for (int sequenceNumber : sequenceNumbers) {
+            final SimpleDomainEvent event = createSimpleDomainEvents(new int[]{sequenceNumber},
+                    new String[]{"1"}).get(0);
+            final ODocument document = new DomainEventEntry("Simple", event, eventSerializer).asDocument(database);
+            document.save();
+            index.put(AggregateSequenceIndex.generateKey(document), document);
+        }
+
+        final List<Long> readSequenceNumbers = new ArrayList<Long>();
+        for (OIdentifiable eventId : index.getRange("Simple", "1", 1, 255)) {
+            final ODocument document = database.load(eventId.getIdentity());
+            readSequenceNumbers.add(document.<Long>field(DomainEventEntry.SEQUENCE_NUMBER_FIELD));
+        }
+        assertEquals(Arrays.asList(1L, 15L, 16L, 255L), readSequenceNumbers);
+        assertEquals(Long.valueOf(256), index.getLastSequenceNumber("Simple", "1"));
+        assertEquals(257, index.getLastPosition("Simple", "1").getFirstEventSequenceNumber());
+    }
+
+    @Test
+    public void testLastSequenceNumberAndCountAreFoundAcrossGaps() {
+        final EventStoreSchema eventStoreSchema = EventStoreSchema.initialize(database);
+        final AggregateSequenceIndex index = eventStoreSchema.getDomainEventIndex();
+
+        putEvents(index, "1", new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 2000, 2001, 5000});
+        putEvents(index, "10", new int[]{0, 1, 2, 3});
+        putEvents(index, "2", new int[]{7, 8});
+
+        assertEquals(Long.valueOf(5000), index.getLastSequenceNumber("Simple", "1"));
+        assertEquals(Long.valueOf(3), index.getLastSequenceNumber("Simple", "10"));
+        assertEquals(Long.valueOf(8), index.getLastSequenceNumber("Simple", "2"));
+        assertNull(index.getLastSequenceNumber("Simple", "3"));
+
+        assertEquals(14, index.count("Simple", "1", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(3, index.count("Simple", "1", 9, 2000));
+        assertEquals(0, index.count("Simple", "1", 5001, Long.MAX_VALUE));
+        assertEquals(4, index.count("Simple", "10", 0, Long.MAX_VALUE));
+        assertEquals(2, index.count("Simple", "2", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(0, index.count("Simple", "3", Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSequenceNumberIsParsedFromKey() {
+        assertEquals(0, AggregateSequenceIndex.parseSequenceNumber(key("Doc", "1", 0)));
+        assertEquals(-1, AggregateSequenceIndex.parseSequenceNumber(key("Doc", "1", -1)));
+        assertEquals(Long.MAX_VALUE, AggregateSequenceIndex.parseSequenceNumber(key("Doc", "1", Long.MAX_VALUE)));
+        assertEquals(Long.MIN_VALUE, AggregateSequenceIndex.parseSequenceNumber(key("Doc", "1", Long.MIN_VALUE)));
+        assertEquals(255, AggregateSequenceIndex.parseSequenceNumber(key("Doc", "1", 255)));
+    }
+
+    private void putEvents(AggregateSequenceIndex index, String aggregateIdentifier, int[] sequenceNumbers) {
+        final String[] aggregateIdentifiers = new String[sequenceNumbers.length];
+        Arrays.fill(aggregateIdentifiers, aggregateIdentifier);
+        for (SimpleDomainEvent event : createSimpleDomainEvents(sequenceNumbers, aggregateIdentifiers)) {
+            final ODocument document = new DomainEventEntry("Simple", event, eventSerializer).asDocument(database);
+            document.save();
+            index.put(AggregateSequenceIndex.generateKey(document), document);
+        }
+    }
+
+    private static String key(String type, String id, long sequenceNumber) {
+        return AggregateSequenceIndex.generateKey(type, id, sequenceNumber);
+    }
+}
@@ -0,0 +1,74 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.assertDomainEventsEquality;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.stream;
+
+/**
+ * Integration test for {@link BinaryEventSerializer}.
+ *
+ * @author EniSh
+ */
+public class BinaryEventSerializerTest {
+    private ODatabaseDocumentTx database;
+    private ConnectionManager connectionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        connectionManager = new ConnectionManager("local:target/default", "admin", "admin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void testEventIsRestored() {
+        final SimpleDomainEvent event = new SimpleDomainEvent(3, agId("1"), "val");
+
+        final DomainEvent result = new BinaryEventSerializer(connectionManager).deserialize(
+                new BinaryEventSerializer(connectionManager).serialize(event));
+
+        assertEquals(event, result);
+        assertEquals(event.getEventIdentifier(), result.getEventIdentifier());
+        assertEquals(event.getAggregateIdentifier(), result.getAggregateIdentifier());
+        assertEquals(event.getSequenceNumber(), result.getSequenceNumber());
+        assertEquals(event.getTimestamp(), result.getTimestamp());
+        assertEquals("val", ((SimpleDomainEvent) result).getValue());
+    }
+
+    @Test
+    public void testEventIsSmallerThanXStreamOne() {
+        final SimpleDomainEvent event = new SimpleDomainEvent(3, agId("1"), "val");
+
+        assertTrue(new BinaryEventSerializer(connectionManager).serialize(event).length <
+                new XStreamEventSerializer().serialize(event).length);
+    }
+
+    @Test
+    public void testEventStoreWithBinarySerializer() {
+        final OrientEventStore orientEventStore = new OrientEventStore(new BinaryEventSerializer(connectionManager));
+        orientEventStore.setDatabase(database);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
+}
@@ -0,0 +1,226 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.EventSerializer;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.stream;
+
+/**
+ * Integration test for {@link ChangeFeedSubscription}.
+ *
+ * @author EniSh
+ */
+public class ChangeFeedSubscriptionTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private ODatabaseDocumentTx database;
+    private OrientEventStore orientEventStore;
+    private ChangeFeedSubscription subscription;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        orientEventStore = new OrientEventStore();
+        orientEventStore.setDatabase(database);
+        orientEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        orientEventStore.setPositionBlockSize(100);
+        orientEventStore.initializeSchema();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        database.delete();
+    }
+
+    @Test
+    public void testCommittedEventsAreDelivered() throws Exception {
+        final CollectingListener listener = new CollectingListener(null);
+        subscription = orientEventStore.subscribe(listener, -1, 100);
+
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        waitForDelivery(3);
+        assertEquals(domainEvents, listener.getEvents());
+        assertEquals(2, subscription.getLastPosition());
+        assertEquals(1, subscription.getCatchUpCount());
+    }
+
+    @Test
+    public void testStoredEventsAreDeliveredBeforeLiveOnes() throws Exception {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3, 4},
+                new String[]{"1", "1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(0, 2)));
+
+        final CollectingListener listener = new CollectingListener(null);
+        subscription = orientEventStore.subscribe(listener, 0, 100);
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(2, 4)));
+
+        waitForDelivery(3);
+        assertEquals(domainEvents.subList(1, 4), listener.getEvents());
+    }
+
+    @Test
+    public void testEventIsHeldBackWhileLowerPositionIsInFlight() throws Exception {
+        final CollectingListener listener = new CollectingListener(null);
+        subscription = orientEventStore.subscribe(listener, -1, 100);
+        final List<SimpleDomainEvent> firstEvents = createSimpleDomainEvents(new int[]{1}, new String[]{"1"});
+        final List<SimpleDomainEvent> secondEvents = createSimpleDomainEvents(new int[]{1}, new String[]{"2"});
+
+        database.begin();
+        orientEventStore.appendEvents("Simple", stream(firstEvents));
+        final ODatabaseDocument otherDatabase =
+                new ConnectionManager("local:target/default", "admin", "admin").getNewConnection();
+        try {
+            orientEventStore.storeEvents(otherDatabase, "Simple", secondEvents);
+        } finally {
+            otherDatabase.close();
+        }
+        Thread.sleep(200);
+        assertEquals(0, subscription.getDeliveredCount());
+
+        database.commit();
+        waitForDelivery(2);
+        final List<Object> expectedEvents = new ArrayList<Object>(firstEvents);
+        expectedEvents.addAll(secondEvents);
+        assertEquals(expectedEvents, listener.getEvents());
+    }
+
+    @Test
+    public void testSlowListenerCatchesUp() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingListener listener = new CollectingListener(release);
+        subscription = orientEventStore.subscribe(listener, -1, 2);
+
+        final int[] sequenceNumbers = new int[10];
+        final String[] ids = new String[10];
+        for (int i = 0; i < 10; i++) {
+            sequenceNumbers[i] = i;
+            ids[i] = "1";
+        }
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(sequenceNumbers, ids);
+        for (SimpleDomainEvent domainEvent : domainEvents) {
+            orientEventStore.appendEvents("Simple", stream(Collections.singletonList(domainEvent)));
+        }
+        release.countDown();
+
+        waitForDelivery(10);
+        assertEquals(domainEvents, listener.getEvents());
+
+        final List<SimpleDomainEvent> liveEvents = createSimpleDomainEvents(new int[]{10}, new String[]{"1"});
+        orientEventStore.appendEvents("Simple", stream(liveEvents));
+        waitForDelivery(11);
+        assertEquals(liveEvents.get(0), listener.getEvents().get(10));
+    }
+
+    @Test
+    public void testFailedDeliveryIsRetried() throws Exception {
+        final XStreamEventSerializer serializer = new XStreamEventSerializer();
+        final boolean[] failing = {true};
+        orientEventStore = new OrientEventStore(new EventSerializer() {
+            @Override
+            public byte[] serialize(DomainEvent event) {
+                return serializer.serialize(event);
+            }
+
+            @Override
+            public DomainEvent deserialize(byte[] serializedEvent) {
+                synchronized (failing) {
+                    if (failing[0]) {
+                        throw new IllegalStateException("Event can not be deserialized.");
+                    }
+                }
+                return serializer.deserialize(serializedEvent);
+            }
+        });
+        orientEventStore.setDatabase(database);
+        orientEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        orientEventStore.setPositionBlockSize(100);
+
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        final CollectingListener listener = new CollectingListener(null);
+        subscription = orientEventStore.subscribe(listener, -1, 100);
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscription.getFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(subscription.getFailure());
+        assertEquals(0, subscription.getDeliveredCount());
+
+        synchronized (failing) {
+            failing[0] = false;
+        }
+        waitForDelivery(2);
+        assertEquals(domainEvents, listener.getEvents());
+        while (subscription.getFailure() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(subscription.getFailure());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPositionAllocationIsRequired() {
+        orientEventStore.setPositionBlockSize(0);
+        orientEventStore.subscribe(new CollectingListener(null), -1, 100);
+    }
+
+    private void waitForDelivery(long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscription.getDeliveredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, subscription.getDeliveredCount());
+    }
+
+    private static class CollectingListener implements ChangeFeedListener {
+        private final CountDownLatch release;
+        private final List<Object> events = new ArrayList<Object>();
+
+        private CollectingListener(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onEvent(PositionedDomainEvent event) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (events) {
+                events.add(event.getEvent());
+            }
+        }
+
+        private List<Object> getEvents() {
+            synchronized (events) {
+                return new ArrayList<Object>(events);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.*;
+
+/**
+ * Integration test for {@link ClusterResharder} and {@link HashShardingClusterRoutingStrategy}.
+ *
+ * @author EniSh
+ */
+public class ClusterResharderTest {
+    private ODatabaseDocumentTx database;
+    private OrientEventStore orientEventStore;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        orientEventStore = new OrientEventStore();
+        orientEventStore.setDatabase(database);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void testEventsAreMovedToShards() {
+        final List<SimpleDomainEvent> firstEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        final List<SimpleDomainEvent> secondEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"2", "2", "2"});
+        orientEventStore.appendEvents("Simple", stream(firstEvents));
+        orientEventStore.appendEvents("Simple", stream(secondEvents));
+
+        final HashShardingClusterRoutingStrategy strategy = new HashShardingClusterRoutingStrategy(4);
+        final long moved = new ClusterResharder(database, strategy).reshard();
+        assertEquals(5, moved);
+
+        long shardedEvents = 0;
+        for (String clusterName : strategy.getClusterNames()) {
+            shardedEvents += database.countClusterElements(clusterName);
+        }
+        assertEquals(5, shardedEvents);
+
+        orientEventStore.setClusterRoutingStrategy(strategy);
+        assertDomainEventsEquality(firstEvents, orientEventStore.readEvents("Simple", agId("1")));
+        assertDomainEventsEquality(secondEvents, orientEventStore.readEvents("Simple", agId("2")));
+    }
+
+    @Test
+    public void testEventsOfShardsAreKeptByRebuiltIndexes() {
+        orientEventStore.setCheckDomainEventUniqueness(true);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(0, 2)));
+
+        final HashShardingClusterRoutingStrategy strategy = new HashShardingClusterRoutingStrategy(4);
+        assertEquals(2, new ClusterResharder(database, strategy).reshard());
+        orientEventStore.setClusterRoutingStrategy(strategy);
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(2, 3)));
+
+        orientEventStore.rebuildIndexes();
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+        assertEquals(Long.valueOf(3), orientEventStore.getLastSequenceNumber("Simple", agId("1")));
+    }
+
+    @Test
+    public void testInterruptedRunIsCompletedByRestart() {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3, 4, 5},
+                new String[]{"1", "1", "1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        final HashShardingClusterRoutingStrategy strategy = new HashShardingClusterRoutingStrategy(4);
+        final ClusterResharder interruptedResharder = new ClusterResharder(database, new ClusterRoutingStrategy() {
+            private int calls;
+
+            @Override
+            public String getClusterName(String aggregateType, String aggregateIdentifier) {
+                if (++calls > 6) {
+                    throw new IllegalStateException("Resharding was interrupted.");
+                }
+                return strategy.getClusterName(aggregateType, aggregateIdentifier);
+            }
+        });
+        interruptedResharder.setTransactionSize(2);
+        try {
+            interruptedResharder.reshard();
+            fail("Resharding should be interrupted.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        final ClusterResharder resharder = new ClusterResharder(database, strategy);
+        resharder.setTransactionSize(2);
+        assertEquals(3, resharder.reshard());
+        assertEquals(0, resharder.reshard());
+
+        orientEventStore.setClusterRoutingStrategy(strategy);
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test
+    public void testShardIsStable() {
+        final HashShardingClusterRoutingStrategy strategy = new HashShardingClusterRoutingStrategy(8);
+        assertEquals(strategy.getClusterName("Simple", "aggregate-1"),
+                new HashShardingClusterRoutingStrategy(8).getClusterName("Other", "aggregate-1"));
+        assertEquals("domainevent_shard_" + strategy.shardOf("aggregate-1"),
+                strategy.getClusterName("Simple", "aggregate-1"));
+    }
+}
@@ -0,0 +1,74 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link CompressionPolicy}.
+ *
+ * @author EniSh
+ */
+public class CompressionPolicyTest {
+    @Test
+    public void testCompressedBodyIsRestored() {
+        final byte[] body = new byte[2000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 7);
+        }
+
+        final byte[] compressed = new CompressionPolicy().compress("Simple", body);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < body.length);
+        assertArrayEquals(body, CompressionPolicy.decompress(CompressionPolicy.DEFLATE, compressed));
+    }
+
+    @Test
+    public void testBodyIsRestoredFromPartOfArray() {
+        final byte[] body = new byte[2000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 7);
+        }
+        final byte[] compressed = new CompressionPolicy().compress("Simple", body);
+        assertNotNull(compressed);
+
+        final byte[] envelope = new byte[compressed.length + 13];
+        Arrays.fill(envelope, (byte) 0x7F);
+        System.arraycopy(compressed, 0, envelope, 5, compressed.length);
+
+        assertArrayEquals(body, CompressionPolicy.decompress(CompressionPolicy.DEFLATE, envelope, 5,
+                compressed.length));
+    }
+
+    @Test
+    public void testIncompressibleBodyIsNotCompressed() {
+        final byte[] body = new byte[2000];
+        new Random(1).nextBytes(body);
+
+        assertNull(new CompressionPolicy().compress("Simple", body));
+    }
+
+    @Test
+    public void testThresholdAndAggregateTypes() {
+        final CompressionPolicy policy = new CompressionPolicy();
+        policy.setMinimumSize(100);
+        policy.setAggregateTypes(Collections.singletonMap("Small", false));
+
+        assertFalse(policy.shouldCompress("Simple", 99));
+        assertTrue(policy.shouldCompress("Simple", 100));
+        assertFalse(policy.shouldCompress("Small", 1000));
+
+        policy.setEnabledByDefault(false);
+        policy.setAggregateTypes(Collections.singletonMap("Large", true));
+        assertFalse(policy.shouldCompress("Simple", 1000));
+        assertTrue(policy.shouldCompress("Large", 1000));
+    }
+}
@@ -91,7 +91,9 @@ public class DomainEventEntryTest {
                 DomainEventEntry.SEQUENCE_NUMBER_FIELD,
                 DomainEventEntry.AGGREGATE_TYPE_FIELD,
                 DomainEventEntry.BODY_FIELD,
-                DomainEventEntry.TIMESTAMP_FIELD
+                DomainEventEntry.TIMESTAMP_MILLIS_FIELD,
+                DomainEventEntry.TIMESTAMP_OFFSET_FIELD,
+                DomainEventEntry.FORMAT_FIELD
         ));
 
         final Set<String> fieldNames = result.fieldNames();
@@ -101,7 +103,10 @@ public class DomainEventEntryTest {
         expectedFieldValues.put(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD, "1");
         expectedFieldValues.put(DomainEventEntry.SEQUENCE_NUMBER_FIELD, 1L);
         expectedFieldValues.put(DomainEventEntry.AGGREGATE_TYPE_FIELD, "Simple");
-        expectedFieldValues.put(DomainEventEntry.TIMESTAMP_FIELD, domainEvent.getTimestamp().toString());
+        expectedFieldValues.put(DomainEventEntry.TIMESTAMP_MILLIS_FIELD, domainEvent.getTimestamp().getMillis());
+        expectedFieldValues.put(DomainEventEntry.TIMESTAMP_OFFSET_FIELD,
+                domainEvent.getTimestamp().getZone().getOffset(domainEvent.getTimestamp().getMillis()));
+        expectedFieldValues.put(DomainEventEntry.FORMAT_FIELD, StorageFormat.MILLIS_TIMESTAMP.getVersion());
         expectedFieldValues.put(DomainEventEntry.BODY_FIELD, eventSerializer.serialize(domainEvent));
 
         for (String fieldName : fieldNames) {
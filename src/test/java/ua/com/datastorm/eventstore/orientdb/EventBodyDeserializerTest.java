@@ -0,0 +1,88 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.eventstore.EventSerializer;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+
+/**
+ * Test case for {@link EventBodyDeserializer}.
+ *
+ * @author EniSh
+ */
+public class EventBodyDeserializerTest {
+    private final EventSerializer eventSerializer = new XStreamEventSerializer();
+    private final AtomicInteger submittedTasks = new AtomicInteger();
+    private ThreadPoolExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                submittedTasks.incrementAndGet();
+                super.execute(command);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBodiesAreDeserializedInParallelInOrder() {
+        final List<SimpleDomainEvent> events = createEvents(100);
+        final DomainEvent[] target = new DomainEvent[events.size() + 1];
+
+        new EventBodyDeserializer(eventSerializer, executor, 64, 4).deserialize(serialize(events), target, 1);
+
+        assertEquals(3, submittedTasks.get());
+        assertNull(target[0]);
+        assertEquals(events, Arrays.asList(target).subList(1, target.length));
+    }
+
+    @Test
+    public void testBodiesBelowThresholdAreDeserializedSerially() {
+        final List<SimpleDomainEvent> events = createEvents(63);
+        final DomainEvent[] target = new DomainEvent[events.size()];
+
+        new EventBodyDeserializer(eventSerializer, executor, 64, 4).deserialize(serialize(events), target, 0);
+
+        assertEquals(0, submittedTasks.get());
+        assertEquals(events, Arrays.asList(target));
+    }
+
+    private static List<SimpleDomainEvent> createEvents(int count) {
+        final int[] sequenceNumbers = new int[count];
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            sequenceNumbers[i] = i;
+            ids[i] = "1";
+        }
+        return createSimpleDomainEvents(sequenceNumbers, ids);
+    }
+
+    private List<byte[]> serialize(List<SimpleDomainEvent> events) {
+        final List<byte[]> bodies = new ArrayList<byte[]>(events.size());
+        for (SimpleDomainEvent event : events) {
+            bodies.add(eventSerializer.serialize(event));
+        }
+        return bodies;
+    }
+}
@@ -0,0 +1,51 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test case for {@link EventEnvelope}.
+ *
+ * @author EniSh
+ */
+public class EventEnvelopeTest {
+    @Test
+    public void testEnvelopeIsReadBack() {
+        final byte[] body = new byte[]{1, 2, 3, 4, 5};
+        final byte[] envelope = EventEnvelope.write(0, 7, "Simple\u0436", 42L, 1302422400000L, 10800000, body);
+
+        final EventEnvelope result = EventEnvelope.read(envelope);
+        assertEquals(0, result.getFlags());
+        assertEquals(7, result.getSerializerVersion());
+        assertEquals("Simple\u0436", result.getAggregateType());
+        assertEquals(42L, result.getSequenceNumber());
+        assertEquals(1302422400000L, result.getTimestampMillis());
+        assertEquals(10800000, result.getTimestampOffset());
+        assertArrayEquals(body, result.getBody());
+        assertArrayEquals(body, result.getDecompressedBody());
+    }
+
+    @Test
+    public void testEnvelopeHasExactSize() {
+        final byte[] body = new byte[10000];
+        body[9999] = 9;
+        final byte[] envelope = EventEnvelope.write(0, 0, "Simple", 2L, 0L, 0, body);
+
+        assertEquals(1 + 1 + 2 + 2 + "Simple".length() + 8 + 8 + 4 + 4 + body.length, envelope.length);
+        assertArrayEquals(body, EventEnvelope.read(envelope).getBody());
+    }
+
+    @Test
+    public void testCompressedBodyIsDecompressed() {
+        final byte[] body = new byte[2000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 7);
+        }
+        final byte[] compressed = new CompressionPolicy().compress("Simple", body);
+        final byte[] envelope = EventEnvelope.write(EventEnvelope.FLAG_DEFLATE, 0, "Simple", 1L, 0L, 0, compressed);
+
+        assertArrayEquals(body, EventEnvelope.read(envelope).getDecompressedBody());
+    }
+}
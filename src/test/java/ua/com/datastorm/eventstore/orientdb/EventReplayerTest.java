@@ -0,0 +1,145 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.stream;
+
+/**
+ * Integration test for {@link OrientEventStore#visitEvents(EventReplayVisitor, ReplayOptions)}.
+ *
+ * @author EniSh
+ */
+public class EventReplayerTest {
+    private ODatabaseDocumentTx database;
+    private OrientEventStore orientEventStore;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        orientEventStore = new OrientEventStore();
+        orientEventStore.setDatabase(database);
+        orientEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        orientEventStore.setClusterRoutingStrategy(new HashShardingClusterRoutingStrategy(4));
+
+        for (int i = 0; i < 10; i++) {
+            final String id = String.valueOf(i);
+            orientEventStore.appendEvents(i % 2 == 0 ? "Even" : "Odd", stream(createSimpleDomainEvents(
+                    new int[]{1, 2, 3}, new String[]{id, id, id})));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void testAllEventsAreReplayedInOrder() {
+        final RecordingVisitor visitor = new RecordingVisitor();
+        orientEventStore.visitEvents(visitor, new ReplayOptions());
+
+        assertEquals(30, visitor.count);
+        visitor.assertSequencesAreOrdered(5, 5);
+    }
+
+    @Test
+    public void testEventsAreReplayedInParallel() {
+        final RecordingVisitor visitor = new RecordingVisitor();
+        final ReplayOptions options = new ReplayOptions();
+        options.setParallel(true);
+        options.setPageSize(2);
+        orientEventStore.visitEvents(visitor, options);
+
+        assertEquals(30, visitor.count);
+        visitor.assertSequencesAreOrdered(5, 5);
+    }
+
+    @Test
+    public void testEventsAreFilteredByAggregateType() {
+        final RecordingVisitor visitor = new RecordingVisitor();
+        final ReplayOptions options = new ReplayOptions();
+        options.setAggregateType("Odd");
+        orientEventStore.visitEvents(visitor, options);
+
+        assertEquals(15, visitor.count);
+        visitor.assertSequencesAreOrdered(0, 5);
+    }
+
+    @Test
+    public void testReplayIsContinuedFromPosition() {
+        final RecordingVisitor visitor = new RecordingVisitor();
+        final ReplayOptions options = new ReplayOptions();
+        options.setPageSize(4);
+        final ReplayPosition endPosition = orientEventStore.visitEvents(visitor, options);
+        assertTrue(visitor.positions.size() > 1);
+
+        final ReplayPosition middlePosition = ReplayPosition.parse(visitor.positions.get(0).toString());
+        assertEquals(visitor.positions.get(0), middlePosition);
+
+        final RecordingVisitor continuedVisitor = new RecordingVisitor();
+        options.setStartPosition(middlePosition);
+        assertEquals(endPosition, orientEventStore.visitEvents(continuedVisitor, options));
+        assertEquals(30 - visitor.countsAtPositions.get(0), continuedVisitor.count);
+
+        final RecordingVisitor finishedVisitor = new RecordingVisitor();
+        options.setStartPosition(endPosition);
+        orientEventStore.visitEvents(finishedVisitor, options);
+        assertEquals(0, finishedVisitor.count);
+    }
+
+    private static class RecordingVisitor implements EventReplayVisitor {
+        private final Map<String, List<Long>> sequences = new HashMap<String, List<Long>>();
+        private final List<ReplayPosition> positions = new ArrayList<ReplayPosition>();
+        private final List<Integer> countsAtPositions = new ArrayList<Integer>();
+        private int count;
+
+        @Override
+        public synchronized void doWithEvent(String aggregateType, DomainEvent event) {
+            final String key = aggregateType + "/" + event.getAggregateIdentifier().asString();
+            List<Long> aggregateSequences = sequences.get(key);
+            if (aggregateSequences == null) {
+                aggregateSequences = new ArrayList<Long>();
+                sequences.put(key, aggregateSequences);
+            }
+            aggregateSequences.add(event.getSequenceNumber());
+            count++;
+        }
+
+        @Override
+        public synchronized void positionReached(ReplayPosition position) {
+            positions.add(position);
+            countsAtPositions.add(count);
+        }
+
+        private void assertSequencesAreOrdered(int evenCount, int oddCount) {
+            int even = 0;
+            int odd = 0;
+            for (Map.Entry<String, List<Long>> entry : sequences.entrySet()) {
+                final List<Long> sorted = new ArrayList<Long>(entry.getValue());
+                Collections.sort(sorted);
+                assertEquals(sorted, entry.getValue());
+                if (entry.getKey().startsWith("Even")) {
+                    even++;
+                } else {
+                    odd++;
+                }
+            }
+            assertEquals(evenCount, even);
+            assertEquals(oddCount, odd);
+        }
+    }
+}
@@ -1,17 +1,34 @@
 package ua.com.datastorm.eventstore.orientdb;
 
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.iterator.ORecordIteratorClass;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.axonframework.domain.DomainEvent;
 import org.axonframework.domain.DomainEventStream;
+import org.axonframework.eventstore.EventSerializer;
+import org.axonframework.eventstore.EventStoreException;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.axonframework.repository.ConcurrencyException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.*;
 import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
@@ -19,6 +36,8 @@ import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.ass
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Base class for integration test cases for {@link OrientEventStore}.
@@ -62,6 +81,17 @@ public class EventStoreTest {
         assertTrue(database.getMetadata().getSchema().existsClass(DomainEventEntry.DOMAIN_EVENT_CLASS));
     }
 
+    @Test
+    public void testSchemaInitialization() {
+        orientEventStore.initializeSchema();
+        database.close();
+        database.open("admin", "admin");
+
+        assertDomainEventSchema(database.getMetadata().getSchema().getClass(DomainEventEntry.DOMAIN_EVENT_CLASS));
+        assertSnapshotEventSchema(database.getMetadata().getSchema().
+                getClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS));
+    }
+
     @Test
     public void testEventsAppending() {
         final List<SimpleDomainEvent> domainEvents = new ArrayList<SimpleDomainEvent>();
@@ -79,15 +109,17 @@ public class EventStoreTest {
 
         assertTrue(fieldNames.contains("aggregateIdentifier"));
         assertTrue(fieldNames.contains("sequenceNumber"));
-        assertTrue(fieldNames.contains("timestamp"));
+        assertTrue(fieldNames.contains("timestampMillis"));
+        assertTrue(fieldNames.contains("format"));
         assertTrue(fieldNames.contains("body"));
         assertTrue(fieldNames.contains("aggregateType"));
 
         assertEquals("Doc", eventDocument.<String>field("aggregateType"));
         assertEquals("1", eventDocument.<String>field("aggregateIdentifier"));
         assertEquals((Long) 1L, eventDocument.<Long>field("sequenceNumber"));
-        assertEquals(domainEvents.get(0).getTimestamp().toString(),
-                eventDocument.<String>field("timestamp"));
+        assertEquals((Long) domainEvents.get(0).getTimestamp().getMillis(),
+                eventDocument.<Long>field("timestampMillis"));
+        assertEquals(domainEvents.get(0).getTimestamp(), DomainEventEntry.getTimestamp(eventDocument));
 
         assertFalse(iteratorClass.hasNext());
     }
@@ -194,4 +226,428 @@ public class EventStoreTest {
         assertDomainEventsEquality(domainEventsDocOne, readEventStreamDocOne);
         assertDomainEventsEquality(domainEventsDocTwo, readEventStreamDocTwo);
     }
+
+    @Test
+    public void testAggregateTypeClusterRouting() {
+        orientEventStore.setClusterRoutingStrategy(new AggregateTypeClusterRoutingStrategy());
+
+        final List<SimpleDomainEvent> domainEventsDocOne = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        final List<SimpleDomainEvent> domainEventsDocTwo = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+
+        orientEventStore.appendEvents("DocOne", stream(domainEventsDocOne));
+        orientEventStore.appendEvents("DocTwo", stream(domainEventsDocTwo));
+
+        assertEquals(2, database.countClusterElements("domainevent_docone"));
+        assertEquals(3, database.countClusterElements("domainevent_doctwo"));
+
+        assertDomainEventsEquality(domainEventsDocOne, orientEventStore.readEvents("DocOne", agId("1")));
+        assertDomainEventsEquality(domainEventsDocTwo, orientEventStore.readEvents("DocTwo", agId("1")));
+    }
+
+    @Test
+    public void testClusterNameDoesNotDependOnDefaultLocale() {
+        final Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals("invoice_item", AggregateTypeClusterRoutingStrategy.toClusterName("INVOICE-ITEM"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testDuplicatedEventsAreRejected() {
+        orientEventStore.setCheckDomainEventUniqueness(true);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        try {
+            orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{2},
+                    new String[]{"1"})));
+            fail("Event with duplicated sequence number should be rejected.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        orientEventStore.appendEvents("Other", stream(createSimpleDomainEvents(new int[]{2},
+                new String[]{"1"})));
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test
+    public void testConcurrentAppendIsRejectedByLastSequenceCache() {
+        orientEventStore.setLastSequenceCacheSize(1);
+        orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"})));
+
+        assertConcurrentAppendIsRejected(2);
+
+        // aggregate "1" is evicted from the cache, so its last sequence number is read from the index
+        orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{1},
+                new String[]{"2"})));
+        assertConcurrentAppendIsRejected(4);
+
+        orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{3},
+                new String[]{"1"})));
+        assertDomainEventsEquality(createSimpleDomainEvents(new int[]{1, 2, 3}, new String[]{"1", "1", "1"}),
+                orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test
+    public void testAppendOfAggregateReservedByConcurrentTransactionIsRejected() {
+        orientEventStore.setLastSequenceCacheSize(10);
+        orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{1},
+                new String[]{"1"})));
+
+        final ODatabaseDocument otherDatabase =
+                new ConnectionManager("local:target/default", "admin", "admin").getNewConnection();
+        try {
+            database.begin();
+            orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{2},
+                    new String[]{"1"})));
+            try {
+                orientEventStore.storeEvents(otherDatabase, "Simple", createSimpleDomainEvents(new int[]{2},
+                        new String[]{"1"}));
+                fail("Aggregate reserved by concurrent transaction should not be appended.");
+            } catch (ConcurrencyException e) {
+                // expected
+            }
+            database.commit();
+
+            orientEventStore.storeEvents(otherDatabase, "Simple", createSimpleDomainEvents(new int[]{3},
+                    new String[]{"1"}));
+        } finally {
+            otherDatabase.close();
+        }
+        assertDomainEventsEquality(createSimpleDomainEvents(new int[]{1, 2, 3}, new String[]{"1", "1", "1"}),
+                orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    private void assertConcurrentAppendIsRejected(int sequenceNumber) {
+        try {
+            orientEventStore.appendEvents("Simple", stream(createSimpleDomainEvents(new int[]{sequenceNumber},
+                    new String[]{"1"})));
+            fail("Event with sequence number " + sequenceNumber + " should be rejected.");
+        } catch (ConcurrencyException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBinaryEnvelopeFormat() {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(0, 1)));
+        orientEventStore.setStorageFormat(StorageFormat.BINARY_ENVELOPE);
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(1, 2)));
+
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+
+        final ODocument envelopeDocument = (ODocument) database.query(new OSQLSynchQuery<ODocument>(
+                "select from DomainEvent where sequenceNumber = 2")).get(0);
+        assertEquals(StorageFormat.BINARY_ENVELOPE, StorageFormat.of(envelopeDocument));
+        assertFalse(envelopeDocument.containsField(DomainEventEntry.BODY_FIELD));
+        assertFalse(envelopeDocument.containsField(DomainEventEntry.TIMESTAMP_OFFSET_FIELD));
+        assertEquals(domainEvents.get(1).getTimestamp(), DomainEventEntry.getTimestamp(envelopeDocument));
+    }
+
+    @Test
+    public void testCompressedEventsReading() {
+        final CompressionPolicy compressionPolicy = new CompressionPolicy();
+        compressionPolicy.setMinimumSize(0);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(0, 1)));
+        orientEventStore.setCompressionPolicy(compressionPolicy);
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(1, 2)));
+        orientEventStore.setStorageFormat(StorageFormat.BINARY_ENVELOPE);
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(2, 3)));
+
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+
+        final ODocument compressedDocument = (ODocument) database.query(new OSQLSynchQuery<ODocument>(
+                "select from DomainEvent where sequenceNumber = 2")).get(0);
+        assertEquals((Integer) CompressionPolicy.DEFLATE,
+                compressedDocument.<Integer>field(DomainEventEntry.COMPRESSION_FIELD));
+    }
+
+    @Test
+    public void testSerializedEventsAppending() {
+        orientEventStore.setClusterRoutingStrategy(new AggregateTypeClusterRoutingStrategy());
+        orientEventStore.setCheckDomainEventUniqueness(true);
+        final XStreamEventSerializer serializer = new XStreamEventSerializer();
+        final List<SimpleDomainEvent> domainEventsDocOne = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        final List<SimpleDomainEvent> domainEventsDocTwo = createSimpleDomainEvents(new int[]{1},
+                new String[]{"1"});
+
+        final List<SerializedDomainEvent> serializedEvents = new ArrayList<SerializedDomainEvent>();
+        for (SimpleDomainEvent event : domainEventsDocOne) {
+            serializedEvents.add(new SerializedDomainEvent("DocOne", event.getAggregateIdentifier().asString(),
+                    event.getSequenceNumber(), event.getTimestamp(), serializer.serialize(event)));
+        }
+        for (SimpleDomainEvent event : domainEventsDocTwo) {
+            serializedEvents.add(new SerializedDomainEvent("DocTwo", event.getAggregateIdentifier().asString(),
+                    event.getSequenceNumber(), event.getTimestamp(), serializer.serialize(event)));
+        }
+        orientEventStore.appendSerializedEvents(serializedEvents);
+
+        assertEquals(2, database.countClusterElements("domainevent_docone"));
+        assertEquals(1, database.countClusterElements("domainevent_doctwo"));
+        assertDomainEventsEquality(domainEventsDocOne, orientEventStore.readEvents("DocOne", agId("1")));
+        assertDomainEventsEquality(domainEventsDocTwo, orientEventStore.readEvents("DocTwo", agId("1")));
+
+        try {
+            orientEventStore.appendSerializedEvents(serializedEvents.subList(2, 3));
+            fail("Serialized event with duplicated sequence number should be rejected.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(1, database.countClusterElements("domainevent_doctwo"));
+    }
+
+    @Test
+    public void testPagedEventsReading() {
+        orientEventStore.setReadPageSize(2);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3, 4, 5},
+                new String[]{"1", "1", "1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        final DomainEventStream eventStream = orientEventStore.readEvents("Simple", agId("1"));
+        for (SimpleDomainEvent domainEvent : domainEvents) {
+            assertTrue(eventStream.hasNext());
+            assertEquals(domainEvent, eventStream.peek());
+            assertEquals(domainEvent, eventStream.next());
+        }
+        assertFalse(eventStream.hasNext());
+    }
+
+    @Test
+    public void testParallelDeserialization() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        orientEventStore.setDeserializationExecutor(executor);
+        orientEventStore.setParallelDeserializationThreshold(16);
+        orientEventStore.setReadPageSize(64);
+        final int[] sequenceNumbers = new int[100];
+        final String[] ids = new String[100];
+        for (int i = 0; i < 100; i++) {
+            sequenceNumbers[i] = i;
+            ids[i] = "1";
+        }
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(sequenceNumbers, ids);
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        try {
+            assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullPageIsDeserializedInParallelByDefault() throws Exception {
+        assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+        final AtomicInteger submittedTasks = new AtomicInteger();
+        final ExecutorService executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                submittedTasks.incrementAndGet();
+                super.execute(command);
+            }
+        };
+        orientEventStore.setDeserializationExecutor(executor);
+        final int[] sequenceNumbers = new int[100];
+        final String[] ids = new String[100];
+        for (int i = 0; i < 100; i++) {
+            sequenceNumbers[i] = i;
+            ids[i] = "1";
+        }
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(sequenceNumbers, ids);
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        try {
+            assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+            assertTrue(submittedTasks.get() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEventsAreReadAfterPosition() {
+        orientEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        orientEventStore.setPositionBlockSize(2);
+        final List<SimpleDomainEvent> domainEventsDocOne = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+        final List<SimpleDomainEvent> domainEventsDocTwo = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"2", "2"});
+        orientEventStore.appendEvents("DocOne", stream(domainEventsDocOne));
+        orientEventStore.appendEvents("DocTwo", stream(domainEventsDocTwo));
+
+        final List<PositionedDomainEvent> allEvents = orientEventStore.readEventsAfter(-1, 100);
+        assertEquals(5, allEvents.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, allEvents.get(i).getPosition());
+            assertEquals("DocOne", allEvents.get(i).getAggregateType());
+            assertEquals(domainEventsDocOne.get(i), allEvents.get(i).getEvent());
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(i + 3, allEvents.get(i + 3).getPosition());
+            assertEquals("DocTwo", allEvents.get(i + 3).getAggregateType());
+            assertEquals(domainEventsDocTwo.get(i), allEvents.get(i + 3).getEvent());
+        }
+
+        final List<PositionedDomainEvent> page = orientEventStore.readEventsAfter(1, 2);
+        assertEquals(2, page.size());
+        assertEquals(2, page.get(0).getPosition());
+        assertEquals(3, page.get(1).getPosition());
+        assertTrue(orientEventStore.readEventsAfter(4, 100).isEmpty());
+
+        final OrientEventStore otherEventStore = new OrientEventStore();
+        otherEventStore.setDatabase(database);
+        otherEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        otherEventStore.setPositionBlockSize(2);
+        otherEventStore.appendEvents("DocTwo", stream(createSimpleDomainEvents(new int[]{3},
+                new String[]{"2"})));
+        final List<PositionedDomainEvent> newEvents = orientEventStore.readEventsAfter(4, 100);
+        assertEquals(1, newEvents.size());
+        // positions 5..7 belong to the blocks reserved in advance by the first store
+        assertEquals(8, newEvents.get(0).getPosition());
+        assertEquals(8, orientEventStore.readEventsAfter(4, 1).get(0).getPosition());
+    }
+
+    @Test
+    public void testEventsAreNotReadPastPositionInFlight() {
+        final ConnectionManager connectionManager = new ConnectionManager("local:target/default", "admin", "admin");
+        orientEventStore.setConnectionManager(connectionManager);
+        orientEventStore.setPositionBlockSize(2);
+
+        final ODatabaseDocument otherDatabase = connectionManager.getNewConnection();
+        try {
+            final OrientEventStore otherEventStore = new OrientEventStore();
+            otherEventStore.setDatabase(otherDatabase);
+            otherEventStore.setConnectionManager(connectionManager);
+            otherEventStore.setPositionBlockSize(2);
+            assertTrue(orientEventStore.readEventsAfter(-1, 100).isEmpty());
+
+            database.begin();
+            orientEventStore.appendEvents("DocOne", stream(createSimpleDomainEvents(new int[]{1},
+                    new String[]{"1"})));
+            otherEventStore.appendEvents("DocTwo", stream(createSimpleDomainEvents(new int[]{1},
+                    new String[]{"2"})));
+            assertTrue(otherEventStore.readEventsAfter(-1, 100).isEmpty());
+
+            database.commit();
+            final List<PositionedDomainEvent> events = otherEventStore.readEventsAfter(-1, 100);
+            assertEquals(2, events.size());
+            assertEquals("DocOne", events.get(0).getAggregateType());
+            assertEquals("DocTwo", events.get(1).getAggregateType());
+            assertTrue(events.get(0).getPosition() < events.get(1).getPosition());
+        } finally {
+            otherDatabase.close();
+        }
+    }
+
+    @Test
+    public void testEventsAreReadByTimeRange() {
+        final XStreamEventSerializer serializer = new XStreamEventSerializer();
+        final DateTime day = new DateTime(2011, 4, 10, 0, 0, 0, 0, DateTimeZone.UTC);
+        final SimpleDomainEvent firstEvent = new SimpleDomainEvent(0, agId("1"), "first");
+        final SimpleDomainEvent nextDayEvent = new SimpleDomainEvent(1, agId("1"), "next day");
+        final SimpleDomainEvent otherTypeEvent = new SimpleDomainEvent(0, agId("1"), "other type");
+
+        final List<SerializedDomainEvent> serializedEvents = new ArrayList<SerializedDomainEvent>();
+        serializedEvents.add(new SerializedDomainEvent("DocOne", "1", 0, day.plusHours(2),
+                serializer.serialize(firstEvent)));
+        serializedEvents.add(new SerializedDomainEvent("DocOne", "1", 1, day.plusHours(25),
+                serializer.serialize(nextDayEvent)));
+        serializedEvents.add(new SerializedDomainEvent("DocTwo", "1", 0, day.plusHours(1),
+                serializer.serialize(otherTypeEvent)));
+        orientEventStore.appendSerializedEvents(serializedEvents);
+
+        final List<SimpleDomainEvent> expected = new ArrayList<SimpleDomainEvent>();
+        expected.add(firstEvent);
+        assertDomainEventsEquality(expected, orientEventStore.readEventsBetween("DocOne", day, day.plusDays(1)));
+
+        expected.add(0, otherTypeEvent);
+        assertDomainEventsEquality(expected, orientEventStore.readEventsBetween(null, day, day.plusDays(1)));
+
+        assertFalse(orientEventStore.readEventsBetween("DocOne", day, day.plusHours(2)).hasNext());
+        assertFalse(orientEventStore.readEventsBetween("DocTwo", day.plusHours(2), day.plusDays(2)).hasNext());
+    }
+
+    @Test
+    public void testStaleIndexEntryFailsEventStream() {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{0, 1, 2},
+                new String[]{"1", "1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+
+        final ODocument document = (ODocument) database.query(new OSQLSynchQuery<ODocument>(
+                "select from DomainEvent where sequenceNumber = 1")).get(0);
+        final String key = AggregateSequenceIndex.generateKey(document);
+        document.delete();
+        AggregateSequenceIndex.createIndex(database, database.getMetadata().getSchema().
+                getClass(DomainEventEntry.DOMAIN_EVENT_CLASS)).put(key, document);
+
+        try {
+            orientEventStore.readEvents("Simple", agId("1"));
+            fail("Stream which refers to removed document should fail.");
+        } catch (EventStoreException e) {
+            assertTrue(e.getMessage().contains(document.getIdentity().toString()));
+            assertTrue(e.getMessage().contains("sequence number 0"));
+        }
+
+        final List<SimpleDomainEvent> storedEvents = new ArrayList<SimpleDomainEvent>();
+        storedEvents.add(domainEvents.get(0));
+        storedEvents.add(domainEvents.get(2));
+        orientEventStore.rebuildIndexes();
+        assertDomainEventsEquality(storedEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test
+    public void testFailedAppendIsNotPublishedByNextCommit() {
+        final XStreamEventSerializer serializer = new XStreamEventSerializer();
+        orientEventStore = new OrientEventStore(new EventSerializer() {
+            @Override
+            public byte[] serialize(DomainEvent event) {
+                if ("fail".equals(((SimpleDomainEvent) event).getValue())) {
+                    throw new IllegalStateException("Event can not be serialized.");
+                }
+                return serializer.serialize(event);
+            }
+
+            @Override
+            public DomainEvent deserialize(byte[] serializedEvent) {
+                return serializer.deserialize(serializedEvent);
+            }
+        });
+        orientEventStore.setDatabase(database);
+        orientEventStore.setLastSequenceCacheSize(10);
+        orientEventStore.setAggregateEventCache(new AggregateEventCache());
+
+        final List<SimpleDomainEvent> domainEvents = new ArrayList<SimpleDomainEvent>();
+        domainEvents.add(new SimpleDomainEvent(0, agId("1"), "first"));
+        orientEventStore.appendEvents("Simple", stream(domainEvents));
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+
+        try {
+            orientEventStore.appendEvents("Simple", stream(Collections.singletonList(
+                    new SimpleDomainEvent(1, agId("1"), "fail"))));
+            fail("Event which can not be serialized should be rejected.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        orientEventStore.appendEvents("Simple", stream(Collections.singletonList(
+                new SimpleDomainEvent(0, agId("2"), "other"))));
+
+        domainEvents.add(new SimpleDomainEvent(1, agId("1"), "second"));
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(1, 2)));
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
 }
@@ -0,0 +1,158 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.assertDomainEventsEquality;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+
+/**
+ * Integration test for {@link GroupCommitAppender}.
+ *
+ * @author EniSh
+ */
+public class GroupCommitAppenderTest {
+    private ODatabaseDocumentTx database;
+    private OrientEventStore orientEventStore;
+    private GroupCommitAppender appender;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        orientEventStore = new OrientEventStore();
+        orientEventStore.setDatabase(database);
+        orientEventStore.setConnectionManager(new ConnectionManager("local:target/default", "admin", "admin"));
+        orientEventStore.initializeSchema();
+
+        appender = new GroupCommitAppender();
+        appender.setWriterCount(2);
+        appender.setMaxBatchDelayMillis(10);
+        orientEventStore.setGroupCommitAppender(appender);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        appender.stop();
+        database.delete();
+    }
+
+    @Test
+    public void testConcurrentAppendsAreCommitted() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            final String id = String.valueOf(i);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    orientEventStore.appendEvents("Simple", OrientEventStoreTestUtils.stream(
+                            createSimpleDomainEvents(new int[]{1, 2, 3}, new String[]{id, id, id})));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(30, database.countClass(DomainEventEntry.DOMAIN_EVENT_CLASS));
+        for (int i = 0; i < 10; i++) {
+            final String id = String.valueOf(i);
+            assertDomainEventsEquality(createSimpleDomainEvents(new int[]{1, 2, 3}, new String[]{id, id, id}),
+                    orientEventStore.readEvents("Simple", agId(id)));
+        }
+        assertTrue(appender.getCommitStatistics().getBatchCount() <= 10);
+    }
+
+    @Test
+    public void testSubmittedEventsAreCommitted() throws Exception {
+        final Future<Void> future = appender.submit("Simple",
+                createSimpleDomainEvents(new int[]{1, 2}, new String[]{"1", "1"}));
+        future.get();
+
+        assertTrue(future.isDone());
+        assertDomainEventsEquality(createSimpleDomainEvents(new int[]{1, 2}, new String[]{"1", "1"}),
+                orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterStopIsRejected() throws Exception {
+        appender.stop();
+        appender.submit("Simple", createSimpleDomainEvents(new int[]{1}, new String[]{"1"}));
+    }
+
+    @Test
+    public void testReplacedAppenderIsStopped() throws Exception {
+        final GroupCommitAppender previousAppender = appender;
+        final Future<Void> future = previousAppender.submit("Simple",
+                createSimpleDomainEvents(new int[]{1, 2}, new String[]{"1", "1"}));
+
+        appender = new GroupCommitAppender();
+        orientEventStore.setGroupCommitAppender(appender);
+
+        future.get();
+        try {
+            previousAppender.submit("Simple", createSimpleDomainEvents(new int[]{3}, new String[]{"1"}));
+            fail("Replaced appender should not accept events.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        orientEventStore.appendEvents("Simple", OrientEventStoreTestUtils.stream(
+                createSimpleDomainEvents(new int[]{3}, new String[]{"1"})));
+        assertDomainEventsEquality(createSimpleDomainEvents(new int[]{1, 2, 3}, new String[]{"1", "1", "1"}),
+                orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendInsideTransactionIsRejected() {
+        database.begin();
+        try {
+            orientEventStore.appendEvents("Simple", OrientEventStoreTestUtils.stream(
+                    createSimpleDomainEvents(new int[]{1}, new String[]{"1"})));
+        } finally {
+            database.rollback();
+        }
+    }
+
+    @Test
+    public void testRequestsFailWhenWriterDies() throws Exception {
+        appender.stop();
+        appender = new GroupCommitAppender();
+        appender.start(orientEventStore, new ConnectionManager("local:target/default", "admin", "admin") {
+            @Override
+            public ODatabaseDocument getNewConnection() {
+                throw new IllegalStateException("Connection is not available.");
+            }
+        });
+
+        try {
+            appender.submit("Simple", createSimpleDomainEvents(new int[]{1}, new String[]{"1"})).get();
+            fail("Request should fail when writer is dead.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } catch (IllegalStateException e) {
+            // writer died before request was submitted
+        }
+
+        try {
+            appender.submit("Simple", createSimpleDomainEvents(new int[]{1}, new String[]{"1"}));
+            fail("Appender with dead writer should reject requests.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
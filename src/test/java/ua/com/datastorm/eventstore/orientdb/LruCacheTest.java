@@ -0,0 +1,60 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link LruCache}.
+ *
+ * @author EniSh
+ */
+public class LruCacheTest {
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        final LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+
+    @Test
+    public void testSegmentedCacheDoesNotExceedMaxSize() {
+        final int maxSize = LruCache.MIN_SEGMENT_SIZE * LruCache.MAX_SEGMENT_COUNT * 2 + 3;
+        final LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(maxSize);
+        for (int i = 0; i < maxSize * 4; i++) {
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= maxSize);
+        assertEquals(Integer.valueOf(maxSize * 4 - 1), cache.get(maxSize * 4 - 1));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLastSequenceCacheKeepsGreatestSequenceNumber() {
+        final LastSequenceCache cache = new LastSequenceCache(10);
+        final AggregateKey key = new AggregateKey("Simple", "1");
+        cache.update(key, 5);
+        cache.update(new AggregateKey("Simple", "1"), 3);
+
+        assertEquals(Long.valueOf(5), cache.get(key));
+        assertNull(cache.get(new AggregateKey("Other", "1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeShouldBePositive() {
+        new LruCache<String, Integer>(0);
+    }
+}
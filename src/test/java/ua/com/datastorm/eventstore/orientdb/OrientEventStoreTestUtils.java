@@ -127,19 +127,34 @@ abstract class OrientEventStoreTestUtils {
         assertTrue(sequenceNumberProperty.isNotNull());
         assertEquals(OType.LONG, sequenceNumberProperty.getType());
 
-        final OProperty timestampProperty = eventClass.getProperty("timestamp");
-        assertNotNull(timestampProperty);
-        assertTrue(timestampProperty.isMandatory());
-        assertTrue(timestampProperty.isNotNull());
-        assertEquals("29", timestampProperty.getMin());
-        assertEquals("29", timestampProperty.getMax());
-        assertEquals(OType.STRING, timestampProperty.getType());
+        assertNull(eventClass.getProperty("timestamp"));
+
+        final OProperty timestampMillisProperty = eventClass.getProperty("timestampMillis");
+        assertNotNull(timestampMillisProperty);
+        assertTrue(timestampMillisProperty.isIndexed());
+        assertEquals(OType.LONG, timestampMillisProperty.getType());
+
+        final OProperty positionProperty = eventClass.getProperty("position");
+        assertNotNull(positionProperty);
+        assertTrue(positionProperty.isIndexed());
+        assertEquals(OType.LONG, positionProperty.getType());
+
+        final OProperty timestampOffsetProperty = eventClass.getProperty("timestampOffset");
+        assertNotNull(timestampOffsetProperty);
+        assertEquals(OType.INTEGER, timestampOffsetProperty.getType());
+
+        final OProperty formatProperty = eventClass.getProperty("format");
+        assertNotNull(formatProperty);
+        assertEquals(OType.INTEGER, formatProperty.getType());
 
         final OProperty bodyProperty = eventClass.getProperty("body");
         assertNotNull(bodyProperty);
-        assertTrue(bodyProperty.isMandatory());
-        assertTrue(bodyProperty.isNotNull());
+        assertFalse(bodyProperty.isMandatory());
         assertEquals(OType.BINARY, bodyProperty.getType());
+
+        final OProperty envelopeProperty = eventClass.getProperty("envelope");
+        assertNotNull(envelopeProperty);
+        assertEquals(OType.BINARY, envelopeProperty.getType());
     }
 
     /**
@@ -171,20 +186,30 @@ abstract class OrientEventStoreTestUtils {
         assertTrue(sequenceNumberProperty.isNotNull());
         assertEquals(OType.LONG, sequenceNumberProperty.getType());
 
-        final OProperty timestampProperty = eventClass.getProperty("timestamp");
-        assertNotNull(timestampProperty);
-        assertTrue(timestampProperty.isMandatory());
-        assertTrue(timestampProperty.isNotNull());
-        assertEquals("29", timestampProperty.getMin());
-        assertEquals("29", timestampProperty.getMax());
-        assertEquals(OType.STRING, timestampProperty.getType());
+        assertNull(eventClass.getProperty("timestamp"));
+
+        final OProperty timestampMillisProperty = eventClass.getProperty("timestampMillis");
+        assertNotNull(timestampMillisProperty);
+        assertTrue(timestampMillisProperty.isIndexed());
+        assertEquals(OType.LONG, timestampMillisProperty.getType());
+
+        final OProperty timestampOffsetProperty = eventClass.getProperty("timestampOffset");
+        assertNotNull(timestampOffsetProperty);
+        assertEquals(OType.INTEGER, timestampOffsetProperty.getType());
+
+        final OProperty formatProperty = eventClass.getProperty("format");
+        assertNotNull(formatProperty);
+        assertEquals(OType.INTEGER, formatProperty.getType());
 
         final OProperty bodyProperty = eventClass.getProperty("body");
         assertNotNull(bodyProperty);
-        assertTrue(bodyProperty.isMandatory());
-        assertTrue(bodyProperty.isNotNull());
+        assertFalse(bodyProperty.isMandatory());
         assertEquals(OType.BINARY, bodyProperty.getType());
 
+        final OProperty envelopeProperty = eventClass.getProperty("envelope");
+        assertNotNull(envelopeProperty);
+        assertEquals(OType.BINARY, envelopeProperty.getType());
+
         final OClass parent = eventClass.getSuperClass();
         assertDomainEventSchema(parent);
     }
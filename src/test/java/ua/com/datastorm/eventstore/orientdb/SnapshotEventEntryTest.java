@@ -82,7 +82,9 @@ public class SnapshotEventEntryTest {
                 SnapshotEventEntry.SEQUENCE_NUMBER_FIELD,
                 SnapshotEventEntry.AGGREGATE_TYPE_FIELD,
                 SnapshotEventEntry.BODY_FIELD,
-                SnapshotEventEntry.TIMESTAMP_FIELD
+                SnapshotEventEntry.TIMESTAMP_MILLIS_FIELD,
+                SnapshotEventEntry.TIMESTAMP_OFFSET_FIELD,
+                SnapshotEventEntry.FORMAT_FIELD
         ));
 
         final Set<String> fieldNames = result.fieldNames();
@@ -92,7 +94,10 @@ public class SnapshotEventEntryTest {
         expectedFieldValues.put(SnapshotEventEntry.AGGREGATE_IDENTIFIER_FIELD, "1");
         expectedFieldValues.put(SnapshotEventEntry.SEQUENCE_NUMBER_FIELD, 1L);
         expectedFieldValues.put(SnapshotEventEntry.AGGREGATE_TYPE_FIELD, "Simple");
-        expectedFieldValues.put(SnapshotEventEntry.TIMESTAMP_FIELD, domainEvent.getTimestamp().toString());
+        expectedFieldValues.put(SnapshotEventEntry.TIMESTAMP_MILLIS_FIELD, domainEvent.getTimestamp().getMillis());
+        expectedFieldValues.put(SnapshotEventEntry.TIMESTAMP_OFFSET_FIELD,
+                domainEvent.getTimestamp().getZone().getOffset(domainEvent.getTimestamp().getMillis()));
+        expectedFieldValues.put(SnapshotEventEntry.FORMAT_FIELD, StorageFormat.MILLIS_TIMESTAMP.getVersion());
         expectedFieldValues.put(SnapshotEventEntry.BODY_FIELD, eventSerializer.serialize(domainEvent));
 
         for (String fieldName : fieldNames) {
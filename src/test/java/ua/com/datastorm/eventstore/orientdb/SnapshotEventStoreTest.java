@@ -5,18 +5,22 @@ import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.iterator.ORecordIteratorClass;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.domain.AggregateIdentifier;
 import org.axonframework.domain.DomainEventStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.*;
 import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
 import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.assertDomainEventsEquality;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -132,4 +136,112 @@ public class SnapshotEventStoreTest {
         long snapshotCounts = database.countClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS);
         assertEquals(1, snapshotCounts);
     }
+
+    @Test
+    public void testOldSnapshotsWithQuotedIdAreRemoved() {
+        orientEventStore.setLeaveLastSnapshotOnly(true);
+        orientEventStore.appendSnapshotEvent("Simple", new SimpleDomainEvent(1, agId("O'Neil"), "val"));
+        orientEventStore.appendSnapshotEvent("Simple", new SimpleDomainEvent(1, agId("O"), "val"));
+        final SimpleDomainEvent snapshotEvent = new SimpleDomainEvent(2, agId("O'Neil"), "val");
+        orientEventStore.appendSnapshotEvent("Simple", snapshotEvent);
+
+        assertEquals(2, database.countClass(SnapshotEventEntry.SNAPSHOT_EVENT_CLASS));
+        final List<SimpleDomainEvent> resultEvents = new ArrayList<SimpleDomainEvent>();
+        resultEvents.add(snapshotEvent);
+        assertDomainEventsEquality(resultEvents, orientEventStore.readEvents("Simple", agId("O'Neil")));
+    }
+
+    @Test
+    public void testCachedSnapshotPosition() {
+        orientEventStore.setSnapshotPositionCacheSize(10);
+        orientEventStore.setReadPageSize(2);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3, 4, 5},
+                new String[]{"1", "1", "1", "1", "1"});
+        orientEventStore.appendEvents("Aggregate", stream(domainEvents));
+        final SimpleDomainEvent snapshotEvent = new SimpleDomainEvent(2, agId("1"), "val");
+        orientEventStore.appendSnapshotEvent("Aggregate", snapshotEvent);
+
+        final List<SimpleDomainEvent> resultEvents = new ArrayList<SimpleDomainEvent>();
+        resultEvents.add(snapshotEvent);
+        resultEvents.addAll(domainEvents.subList(2, 5));
+        assertDomainEventsEquality(resultEvents, orientEventStore.readEvents("Aggregate", agId("1")));
+        assertDomainEventsEquality(resultEvents, orientEventStore.readEvents("Aggregate", agId("1")));
+
+        final ORecordIteratorClass<ODocument> snapshots = database.browseClass(
+                SnapshotEventEntry.SNAPSHOT_EVENT_CLASS, false);
+        snapshots.next().delete();
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Aggregate", agId("1")));
+    }
+
+    @Test
+    public void testAggregateEventCache() {
+        final AggregateEventCache cache = new AggregateEventCache();
+        orientEventStore.setAggregateEventCache(cache);
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+        orientEventStore.appendEvents("Aggregate", stream(domainEvents.subList(0, 2)));
+        assertDomainEventsEquality(domainEvents.subList(0, 2), orientEventStore.readEvents("Aggregate", agId("1")));
+
+        orientEventStore.appendEvents("Aggregate", stream(domainEvents.subList(2, 3)));
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Aggregate", agId("1")));
+
+        final SimpleDomainEvent snapshotEvent = new SimpleDomainEvent(2, agId("1"), "val");
+        orientEventStore.appendSnapshotEvent("Aggregate", snapshotEvent);
+        final List<SimpleDomainEvent> resultEvents = new ArrayList<SimpleDomainEvent>();
+        resultEvents.add(snapshotEvent);
+        resultEvents.add(domainEvents.get(2));
+        assertDomainEventsEquality(resultEvents, orientEventStore.readEvents("Aggregate", agId("1")));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testEventsAreReadFromSequenceNumber() {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2, 3, 4},
+                new String[]{"1", "1", "1", "1"});
+        orientEventStore.appendEvents("Aggregate", stream(domainEvents));
+        orientEventStore.appendSnapshotEvent("Aggregate", new SimpleDomainEvent(3, agId("1"), "val"));
+
+        assertDomainEventsEquality(domainEvents.subList(1, 4),
+                orientEventStore.readEvents("Aggregate", agId("1"), 2));
+        assertFalse(orientEventStore.readEvents("Aggregate", agId("1"), 5).hasNext());
+    }
+
+    @Test
+    public void testLastSequenceNumberAndEventCount() {
+        assertEquals(null, orientEventStore.getLastSequenceNumber("Aggregate", agId("1")));
+        assertEquals(0, orientEventStore.countEventsSinceSnapshot("Aggregate", agId("1")));
+
+        orientEventStore.appendEvents("Aggregate", stream(createSimpleDomainEvents(new int[]{1, 2, 3, 4},
+                new String[]{"1", "1", "1", "1"})));
+        assertEquals(Long.valueOf(4), orientEventStore.getLastSequenceNumber("Aggregate", agId("1")));
+        assertEquals(4, orientEventStore.countEventsSinceSnapshot("Aggregate", agId("1")));
+
+        orientEventStore.appendSnapshotEvent("Aggregate", new SimpleDomainEvent(3, agId("1"), "val"));
+        assertEquals(1, orientEventStore.countEventsSinceSnapshot("Aggregate", agId("1")));
+    }
+
+    @Test
+    public void testEventsOfManyAggregatesAreRead() {
+        final List<SimpleDomainEvent> firstEvents = createSimpleDomainEvents(new int[]{1, 2, 3},
+                new String[]{"1", "1", "1"});
+        final List<SimpleDomainEvent> secondEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"2", "2"});
+        orientEventStore.appendEvents("Aggregate", stream(firstEvents));
+        orientEventStore.appendEvents("Aggregate", stream(secondEvents));
+        final SimpleDomainEvent snapshotEvent = new SimpleDomainEvent(2, agId("1"), "val");
+        orientEventStore.appendSnapshotEvent("Aggregate", snapshotEvent);
+
+        final Map<AggregateIdentifier, DomainEventStream> eventStreams = orientEventStore.readEvents("Aggregate",
+                Arrays.asList(agId("1"), agId("2"), agId("3")));
+
+        assertEquals(3, eventStreams.size());
+        final List<SimpleDomainEvent> firstResult = new ArrayList<SimpleDomainEvent>();
+        firstResult.add(snapshotEvent);
+        firstResult.add(firstEvents.get(2));
+        assertDomainEventsEquality(firstResult, eventStreams.get(agId("1")));
+        assertDomainEventsEquality(secondEvents, eventStreams.get(agId("2")));
+        assertFalse(eventStreams.get(agId("3")).hasNext());
+    }
 }
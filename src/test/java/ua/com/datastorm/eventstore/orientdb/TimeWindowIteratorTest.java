@@ -0,0 +1,67 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORecordId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link TimeWindowIterator}.
+ *
+ * @author EniSh
+ */
+public class TimeWindowIteratorTest {
+    @Test
+    public void testAllEventsOfPeriodAreReturnedInOrder() {
+        final long[] timestamps = {0, 1, 2, 59999, 60000, 3600000, 3600001, 86400000L * 30, 86400000L * 30 + 5};
+        final WindowCountingIterator iterator = new WindowCountingIterator(timestamps, 1, 86400000L * 30 + 4, 2);
+
+        final List<Long> returned = new ArrayList<Long>();
+        while (iterator.hasNext()) {
+            returned.add(iterator.next().getIdentity().getClusterPosition());
+        }
+
+        final List<Long> expected = new ArrayList<Long>();
+        for (long timestamp : timestamps) {
+            if (timestamp >= 1 && timestamp <= 86400000L * 30 + 4) {
+                expected.add(timestamp);
+            }
+        }
+        assertEquals(expected, returned);
+        assertTrue(iterator.windows < 40);
+    }
+
+    @Test
+    public void testEmptyPeriod() {
+        assertFalse(new WindowCountingIterator(new long[]{5}, 10, 9, 10).hasNext());
+        assertFalse(new WindowCountingIterator(new long[]{5}, 6, 100, 10).hasNext());
+    }
+
+    private static class WindowCountingIterator extends TimeWindowIterator {
+        private final long[] timestamps;
+        private int windows;
+
+        private WindowCountingIterator(long[] timestamps, long fromMillis, long toMillis, int targetCount) {
+            super(fromMillis, toMillis, targetCount);
+            this.timestamps = timestamps;
+        }
+
+        @Override
+        protected List<OIdentifiable> fetch(long fromMillis, long toMillis) {
+            windows++;
+            final List<OIdentifiable> ids = new ArrayList<OIdentifiable>();
+            for (long timestamp : timestamps) {
+                if (timestamp >= fromMillis && timestamp <= toMillis) {
+                    ids.add(new ORecordId(1, timestamp));
+                }
+            }
+            return ids;
+        }
+    }
+}
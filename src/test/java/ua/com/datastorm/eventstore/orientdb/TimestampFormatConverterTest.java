@@ -0,0 +1,77 @@
+package ua.com.datastorm.eventstore.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.agId;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.assertDomainEventsEquality;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.createSimpleDomainEvents;
+import static ua.com.datastorm.eventstore.orientdb.OrientEventStoreTestUtils.stream;
+
+/**
+ * Integration test for {@link TimestampFormatConverter}.
+ *
+ * @author EniSh
+ */
+public class TimestampFormatConverterTest {
+    private ODatabaseDocumentTx database;
+    private OrientEventStore orientEventStore;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new ODatabaseDocumentTx("local:target/default");
+        database.create();
+        orientEventStore = new OrientEventStore();
+        orientEventStore.setDatabase(database);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.delete();
+    }
+
+    @Test
+    public void testLegacyEventsAreConverted() {
+        final List<SimpleDomainEvent> domainEvents = createSimpleDomainEvents(new int[]{1, 2},
+                new String[]{"1", "1"});
+        orientEventStore.appendEvents("Simple", stream(domainEvents.subList(1, 2)));
+        final ODocument legacyDocument = saveLegacyDocument(domainEvents.get(0));
+        assertEquals(StorageFormat.STRING_TIMESTAMP, StorageFormat.of(legacyDocument));
+
+        final TimestampFormatConverter converter = new TimestampFormatConverter(
+                new ConnectionManager("local:target/default", "admin", "admin"));
+        converter.setTransactionSize(1);
+        converter.run();
+
+        assertEquals(1, converter.getConvertedCount());
+        final ODocument converted = database.load(legacyDocument.getIdentity());
+        converted.reload();
+        assertEquals(StorageFormat.MILLIS_TIMESTAMP, StorageFormat.of(converted));
+        assertFalse(converted.containsField(DomainEventEntry.TIMESTAMP_FIELD));
+        assertEquals(domainEvents.get(0).getTimestamp(), DomainEventEntry.getTimestamp(converted));
+        assertEquals(domainEvents.get(0).getTimestamp().getMillis(), DomainEventEntry.getTimestampMillis(converted));
+
+        assertDomainEventsEquality(domainEvents, orientEventStore.readEvents("Simple", agId("1")));
+    }
+
+    private ODocument saveLegacyDocument(SimpleDomainEvent domainEvent) {
+        final ODocument document = new ODocument(database, DomainEventEntry.DOMAIN_EVENT_CLASS);
+        document.field(DomainEventEntry.AGGREGATE_IDENTIFIER_FIELD, domainEvent.getAggregateIdentifier().asString());
+        document.field(DomainEventEntry.AGGREGATE_TYPE_FIELD, "Simple");
+        document.field(DomainEventEntry.SEQUENCE_NUMBER_FIELD, domainEvent.getSequenceNumber());
+        document.field(DomainEventEntry.TIMESTAMP_FIELD, domainEvent.getTimestamp().toString());
+        document.field(DomainEventEntry.BODY_FIELD, new XStreamEventSerializer().serialize(domainEvent));
+        database.begin();
+        document.save();
+        database.commit();
+        return document;
+    }
+}
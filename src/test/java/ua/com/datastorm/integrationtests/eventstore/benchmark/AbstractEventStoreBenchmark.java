@@ -71,6 +71,13 @@ public abstract class AbstractEventStoreBenchmark {
                 (((float) getThreadCount() * getTransactionCount() * getTransactionSize()) / ((float) (end - start)
                         / 1000))));
 
+        printStatistics();
+    }
+
+    /**
+     * Prints implementation specific statistics gathered during benchmark. Does nothing by default.
+     */
+    protected void printStatistics() {
     }
 
     protected abstract Runnable getRunnableInstance();
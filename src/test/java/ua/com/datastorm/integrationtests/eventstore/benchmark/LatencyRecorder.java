@@ -0,0 +1,56 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects latencies of benchmarked operations and calculates their percentiles.
+ * Can be shared between threads.
+ *
+ * @author EniSh
+ */
+public class LatencyRecorder {
+    private long[] latencies = new long[1024];
+    private int size;
+
+    /**
+     * Registers latency of single operation.
+     *
+     * @param nanos Latency in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = nanos;
+    }
+
+    /**
+     * @return Amount of registered operations.
+     */
+    public synchronized int getCount() {
+        return size;
+    }
+
+    /**
+     * Returns latency which is not exceeded by given percent of operations.
+     *
+     * @param percent Percent of operations, for example 50 or 99.
+     * @return Latency in microseconds.
+     */
+    public synchronized long getPercentileMicros(double percent) {
+        if (size == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percent / 100 * size) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, Math.min(index, size - 1))]);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, p50=%dus, p99=%dus, max=%dus", getCount(), getPercentileMicros(50),
+                getPercentileMicros(99), getPercentileMicros(100));
+    }
+}
@@ -0,0 +1,80 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures latency of aggregate loading by {@link OrientEventStore} with snapshot position cache switched off and on.
+ * Each aggregate has a snapshot followed by several events. Database URL can be passed in as the first argument,
+ * pass URL of the local server, e.g. "remote:localhost/benchmark", to measure network round trips.
+ *
+ * @author EniSh
+ */
+public class AggregateLoadBenchMark {
+    private static final int AGGREGATE_COUNT = 200;
+    private static final int EVENT_COUNT = 30;
+    private static final int SNAPSHOT_SEQUENCE = 20;
+    private static final int LOAD_COUNT = 10;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-aggregate-load";
+        run(url, 0);
+        run(url, AGGREGATE_COUNT);
+    }
+
+    private static void run(String url, int cacheSize) throws Exception {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setSnapshotPositionCacheSize(cacheSize);
+        eventStore.initializeSchema();
+
+        final List<UUIDAggregateIdentifier> aggregateIds = new ArrayList<UUIDAggregateIdentifier>();
+        for (int a = 0; a < AGGREGATE_COUNT; a++) {
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (int e = 0; e < EVENT_COUNT; e++) {
+                events.add(new StubDomainEvent(aggregateId, e));
+            }
+            eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+            eventStore.appendSnapshotEvent("benchmark", new StubDomainEvent(aggregateId, SNAPSHOT_SEQUENCE));
+            aggregateIds.add(aggregateId);
+        }
+
+        final LatencyRecorder latencies = new LatencyRecorder();
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            for (UUIDAggregateIdentifier aggregateId : aggregateIds) {
+                final long callStart = System.nanoTime();
+                final DomainEventStream eventStream = eventStore.readEvents("benchmark", aggregateId);
+                while (eventStream.hasNext()) {
+                    eventStream.next();
+                }
+                latencies.record(System.nanoTime() - callStart);
+            }
+        }
+
+        System.out.println(String.format("Snapshot position cache %s: aggregate load latency [%s]",
+                cacheSize == 0 ? "off" : "on", latencies));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.CompressionPolicy;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares size of the stored events and append and read throughput of {@link OrientEventStore} with and without
+ * {@link CompressionPolicy}. Database URL can be passed in as the first argument, by default embedded database
+ * is used.
+ *
+ * @author EniSh
+ */
+public class CompressionBenchMark {
+    private static final int EVENT_COUNT = 10000;
+    private static final int TRANSACTION_SIZE = 100;
+    private static final int READ_COUNT = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-compression";
+        run(url, null);
+        run(url, new CompressionPolicy());
+    }
+
+    private static void run(String url, CompressionPolicy compressionPolicy) throws Exception {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setCompressionPolicy(compressionPolicy);
+        eventStore.initializeSchema();
+
+        final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+        final long writeStart = System.nanoTime();
+        for (int sequence = 0; sequence < EVENT_COUNT; ) {
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (int e = 0; e < TRANSACTION_SIZE; e++) {
+                events.add(new StubDomainEvent(aggregateId, sequence++));
+            }
+            eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+        }
+        final long writeNanos = System.nanoTime() - writeStart;
+
+        long bytes = 0;
+        for (ODocument document : database.browseClass("DomainEvent")) {
+            bytes += document.toStream().length;
+        }
+
+        final long readStart = System.nanoTime();
+        for (int i = 0; i < READ_COUNT; i++) {
+            final DomainEventStream stream = eventStore.readEvents("benchmark", aggregateId);
+            while (stream.hasNext()) {
+                stream.next();
+            }
+        }
+        final long readNanos = System.nanoTime() - readStart;
+
+        System.out.println(String.format("Compression %s: %.1f bytes per event, %.0f events per second written, " +
+                "%.0f events per second read", compressionPolicy == null ? "off" : "on",
+                ((double) bytes) / EVENT_COUNT, EVENT_COUNT / (writeNanos / 1e9),
+                EVENT_COUNT * READ_COUNT / (readNanos / 1e9)));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
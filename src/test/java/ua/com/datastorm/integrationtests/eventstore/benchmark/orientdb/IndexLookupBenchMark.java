@@ -0,0 +1,73 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures latency of {@link OrientEventStore#getLastSequenceNumber} and
+ * {@link OrientEventStore#countEventsSinceSnapshot} which are answered by the index.
+ * Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class IndexLookupBenchMark {
+    private static final int AGGREGATE_COUNT = 200;
+    private static final int EVENT_COUNT = 50;
+    private static final int LOOKUP_COUNT = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-index-lookup";
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.initializeSchema();
+
+        final List<UUIDAggregateIdentifier> aggregateIds = new ArrayList<UUIDAggregateIdentifier>();
+        for (int a = 0; a < AGGREGATE_COUNT; a++) {
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (int e = 0; e < EVENT_COUNT; e++) {
+                events.add(new StubDomainEvent(aggregateId, e));
+            }
+            eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+            aggregateIds.add(aggregateId);
+        }
+
+        final LatencyRecorder lastSequenceLatencies = new LatencyRecorder();
+        final LatencyRecorder countLatencies = new LatencyRecorder();
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            for (UUIDAggregateIdentifier aggregateId : aggregateIds) {
+                long callStart = System.nanoTime();
+                eventStore.getLastSequenceNumber("benchmark", aggregateId);
+                lastSequenceLatencies.record(System.nanoTime() - callStart);
+
+                callStart = System.nanoTime();
+                eventStore.countEventsSinceSnapshot("benchmark", aggregateId);
+                countLatencies.record(System.nanoTime() - callStart);
+            }
+        }
+
+        System.out.println(String.format("Last sequence number lookup [%s], event count lookup [%s]",
+                lastSequenceLatencies, countLatencies));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
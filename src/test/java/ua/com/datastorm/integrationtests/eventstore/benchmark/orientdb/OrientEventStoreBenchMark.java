@@ -27,6 +27,12 @@ public class OrientEventStoreBenchMark extends AbstractEventStoreBenchmark {
     @Override
     protected void prepareEventStore() {
         database.query(new OSQLSynchQuery<Object>("DELETE FROM DomainEvent"));
+        eventStore.getAppendStatistics().reset();
+    }
+
+    @Override
+    protected void printStatistics() {
+        System.out.println("Append statistics: " + eventStore.getAppendStatistics());
     }
 
     @Override
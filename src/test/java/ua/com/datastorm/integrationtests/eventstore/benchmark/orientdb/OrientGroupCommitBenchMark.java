@@ -0,0 +1,93 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.ConnectionManager;
+import ua.com.datastorm.eventstore.orientdb.GroupCommitAppender;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures throughput and latency of {@link OrientEventStore} in group commit mode for several batch windows.
+ * Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class OrientGroupCommitBenchMark {
+    private static final int THREAD_COUNT = 100;
+    private static final int TRANSACTION_COUNT = 20;
+    private static final int TRANSACTION_SIZE = 10;
+    private static final long[] BATCH_WINDOWS_MILLIS = {0, 1, 5, 10, 20};
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-group-commit";
+        for (long window : BATCH_WINDOWS_MILLIS) {
+            run(url, window);
+        }
+    }
+
+    private static void run(String url, long batchWindow) throws Exception {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setConnectionManager(new ConnectionManager(url, "admin", "admin"));
+        eventStore.initializeSchema();
+
+        final GroupCommitAppender appender = new GroupCommitAppender();
+        appender.setWriterCount(2);
+        appender.setMaxBatchDelayMillis(batchWindow);
+        eventStore.setGroupCommitAppender(appender);
+
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final long start = System.currentTimeMillis();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+                    int sequence = 0;
+                    for (int i = 0; i < TRANSACTION_COUNT; i++) {
+                        final List<DomainEvent> events = new ArrayList<DomainEvent>();
+                        for (int e = 0; e < TRANSACTION_SIZE; e++) {
+                            events.add(new StubDomainEvent(aggregateId, sequence++));
+                        }
+                        final long callStart = System.nanoTime();
+                        eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+                        latencies.record(System.nanoTime() - callStart);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long end = System.currentTimeMillis();
+        appender.stop();
+
+        System.out.println(String.format("Batch window %d ms: %.0f events per second, append latency [%s], %s",
+                batchWindow,
+                ((float) THREAD_COUNT * TRANSACTION_COUNT * TRANSACTION_SIZE) / ((float) (end - start) / 1000),
+                latencies, appender.getCommitStatistics()));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
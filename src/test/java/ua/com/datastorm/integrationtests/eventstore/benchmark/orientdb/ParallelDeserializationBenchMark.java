@@ -0,0 +1,80 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares latency of aggregate loading by {@link OrientEventStore} with serial and parallel deserialization
+ * for different lengths of event stream. Database URL can be passed in as the first argument,
+ * by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class ParallelDeserializationBenchMark {
+    private static final int[] STREAM_LENGTHS = {100, 1000, 10000};
+    private static final int LOAD_COUNT = 20;
+    private static final int PAGE_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-parallel-deserialization";
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setReadPageSize(PAGE_SIZE);
+        eventStore.initializeSchema();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        for (int length : STREAM_LENGTHS) {
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (int e = 0; e < length; e++) {
+                events.add(new StubDomainEvent(aggregateId, e));
+            }
+            eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+
+            eventStore.setDeserializationExecutor(null);
+            final LatencyRecorder serial = measure(eventStore, aggregateId);
+            eventStore.setDeserializationExecutor(executor);
+            final LatencyRecorder parallel = measure(eventStore, aggregateId);
+
+            System.out.println(String.format("%d events: serial [%s], parallel [%s]", length, serial, parallel));
+        }
+        executor.shutdown();
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+
+    private static LatencyRecorder measure(OrientEventStore eventStore, UUIDAggregateIdentifier aggregateId) {
+        final LatencyRecorder latencies = new LatencyRecorder();
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            final long callStart = System.nanoTime();
+            final DomainEventStream eventStream = eventStore.readEvents("benchmark", aggregateId);
+            while (eventStream.hasNext()) {
+                eventStream.next();
+            }
+            latencies.record(System.nanoTime() - callStart);
+        }
+        return latencies;
+    }
+}
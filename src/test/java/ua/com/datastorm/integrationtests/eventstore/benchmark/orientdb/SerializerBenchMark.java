@@ -0,0 +1,78 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import org.axonframework.eventstore.EventSerializer;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import ua.com.datastorm.eventstore.orientdb.BinaryEventSerializer;
+import ua.com.datastorm.eventstore.orientdb.ConnectionManager;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares size of serialized events and serialization throughput of {@link XStreamEventSerializer} and
+ * {@link BinaryEventSerializer}. Database URL can be passed in as the first argument, it is used to store class
+ * dictionary of {@link BinaryEventSerializer}, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class SerializerBenchMark {
+    private static final int EVENT_COUNT = 100000;
+    private static final int WARM_UP_COUNT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-serializer";
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        try {
+            final List<DomainEvent> events = new ArrayList<DomainEvent>(EVENT_COUNT);
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                events.add(new StubDomainEvent(aggregateId, i));
+            }
+
+            run("XStream", new XStreamEventSerializer(), events);
+            run("Binary", new BinaryEventSerializer(new ConnectionManager(url, "admin", "admin")), events);
+        } finally {
+            if (url.startsWith("local:")) {
+                database.delete();
+            } else {
+                database.close();
+            }
+        }
+    }
+
+    private static void run(String name, EventSerializer serializer, List<DomainEvent> events) {
+        for (int i = 0; i < WARM_UP_COUNT; i++) {
+            serializer.deserialize(serializer.serialize(events.get(i)));
+        }
+
+        final List<byte[]> serialized = new ArrayList<byte[]>(events.size());
+        long bytes = 0;
+        final long serializeStart = System.nanoTime();
+        for (DomainEvent event : events) {
+            final byte[] body = serializer.serialize(event);
+            bytes += body.length;
+            serialized.add(body);
+        }
+        final long serializeNanos = System.nanoTime() - serializeStart;
+
+        final long deserializeStart = System.nanoTime();
+        for (byte[] body : serialized) {
+            serializer.deserialize(body);
+        }
+        final long deserializeNanos = System.nanoTime() - deserializeStart;
+
+        System.out.println(String.format("%s serializer: %.1f bytes per event, %.0f events per second serialized, " +
+                "%.0f events per second deserialized", name, ((double) bytes) / events.size(),
+                events.size() / (serializeNanos / 1e9), events.size() / (deserializeNanos / 1e9)));
+    }
+}
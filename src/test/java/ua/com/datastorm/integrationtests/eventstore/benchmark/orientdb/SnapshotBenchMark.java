@@ -0,0 +1,59 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+/**
+ * Measures per call latency of {@link OrientEventStore#appendSnapshotEvent(String, org.axonframework.domain.DomainEvent)}
+ * which replaces previous snapshot and {@link OrientEventStore#readEvents(String,
+ * org.axonframework.domain.AggregateIdentifier)} which looks snapshot up.
+ * Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class SnapshotBenchMark {
+    private static final int AGGREGATE_COUNT = 200;
+    private static final int SNAPSHOT_COUNT = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-snapshot";
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setLeaveLastSnapshotOnly(true);
+        eventStore.initializeSchema();
+
+        final LatencyRecorder appendLatencies = new LatencyRecorder();
+        final LatencyRecorder readLatencies = new LatencyRecorder();
+        for (int a = 0; a < AGGREGATE_COUNT; a++) {
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            for (int i = 0; i < SNAPSHOT_COUNT; i++) {
+                long callStart = System.nanoTime();
+                eventStore.appendSnapshotEvent("benchmark", new StubDomainEvent(aggregateId, i));
+                appendLatencies.record(System.nanoTime() - callStart);
+
+                callStart = System.nanoTime();
+                eventStore.readEvents("benchmark", aggregateId).next();
+                readLatencies.record(System.nanoTime() - callStart);
+            }
+        }
+
+        System.out.println(String.format("Snapshot replacement latency [%s], snapshot lookup latency [%s]",
+                appendLatencies, readLatencies));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.eventstore.orientdb.StorageFormat;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares size of the stored events and time of reading of large aggregate for different
+ * {@link StorageFormat}s. Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class StorageFormatBenchMark {
+    private static final int EVENT_COUNT = 10000;
+    private static final int TRANSACTION_SIZE = 100;
+    private static final int READ_COUNT = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-storage-format";
+        run(url, StorageFormat.MILLIS_TIMESTAMP);
+        run(url, StorageFormat.BINARY_ENVELOPE);
+    }
+
+    private static void run(String url, StorageFormat storageFormat) throws Exception {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setStorageFormat(storageFormat);
+        eventStore.initializeSchema();
+
+        final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+        for (int sequence = 0; sequence < EVENT_COUNT; ) {
+            final List<DomainEvent> events = new ArrayList<DomainEvent>();
+            for (int e = 0; e < TRANSACTION_SIZE; e++) {
+                events.add(new StubDomainEvent(aggregateId, sequence++));
+            }
+            eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+        }
+
+        long bytes = 0;
+        for (ODocument document : database.browseClass("DomainEvent")) {
+            bytes += document.toStream().length;
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < READ_COUNT; i++) {
+            final DomainEventStream stream = eventStore.readEvents("benchmark", aggregateId);
+            while (stream.hasNext()) {
+                stream.next();
+            }
+        }
+        final long readNanos = (System.nanoTime() - start) / READ_COUNT;
+
+        System.out.println(String.format("Format %s: %.1f bytes per event, %.2f ms to read %d events",
+                storageFormat, ((double) bytes) / EVENT_COUNT, readNanos / 1000000.0, EVENT_COUNT));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.DomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import org.axonframework.eventstore.XStreamEventSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.eventstore.orientdb.SerializedDomainEvent;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares reading of one day of events of one aggregate type by {@link OrientEventStore#readEventsBetween}
+ * with the SQL query which scans all events. Events of several types are spread over a month.
+ * Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class TimeRangeBenchMark {
+    private static final String[] TYPES = {"order", "invoice", "shipment", "customer"};
+    private static final int DAY_COUNT = 30;
+    private static final int AGGREGATES_PER_DAY = 50;
+    private static final int EVENT_COUNT = 5;
+    private static final int QUERY_COUNT = 20;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-time-range";
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.initializeSchema();
+
+        final XStreamEventSerializer serializer = new XStreamEventSerializer();
+        final DateTime start = new DateTime(2011, 4, 1, 0, 0, 0, 0, DateTimeZone.UTC);
+        for (int day = 0; day < DAY_COUNT; day++) {
+            final List<SerializedDomainEvent> events = new ArrayList<SerializedDomainEvent>();
+            for (int a = 0; a < AGGREGATES_PER_DAY; a++) {
+                final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+                final String type = TYPES[a % TYPES.length];
+                for (int e = 0; e < EVENT_COUNT; e++) {
+                    final DomainEvent event = new StubDomainEvent(aggregateId, e);
+                    events.add(new SerializedDomainEvent(type, aggregateId.asString(), e,
+                            start.plusDays(day).plusMinutes(a * EVENT_COUNT + e), serializer.serialize(event)));
+                }
+            }
+            eventStore.appendSerializedEvents(events);
+        }
+
+        final DateTime from = start.plusDays(DAY_COUNT / 2);
+        final DateTime to = from.plusDays(1);
+        final LatencyRecorder indexLatencies = new LatencyRecorder();
+        final LatencyRecorder scanLatencies = new LatencyRecorder();
+        int indexCount = 0;
+        int scanCount = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            long callStart = System.nanoTime();
+            final DomainEventStream eventStream = eventStore.readEventsBetween(TYPES[0], from, to);
+            indexCount = 0;
+            while (eventStream.hasNext()) {
+                eventStream.next();
+                indexCount++;
+            }
+            indexLatencies.record(System.nanoTime() - callStart);
+
+            callStart = System.nanoTime();
+            final List<ODocument> documents = database.query(new OSQLSynchQuery<ODocument>(
+                    "select from DomainEvent where aggregateType = '" + TYPES[0] + "' and timestampMillis >= " +
+                            from.getMillis() + " and timestampMillis < " + to.getMillis()));
+            for (ODocument document : documents) {
+                serializer.deserialize(document.<byte[]>field("body"));
+            }
+            scanCount = documents.size();
+            scanLatencies.record(System.nanoTime() - callStart);
+        }
+
+        System.out.println(String.format("Index range read of %d events [%s], SQL read of %d events [%s]",
+                indexCount, indexLatencies, scanCount, scanLatencies));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}
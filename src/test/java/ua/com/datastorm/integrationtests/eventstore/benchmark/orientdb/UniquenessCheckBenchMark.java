@@ -0,0 +1,72 @@
+package ua.com.datastorm.integrationtests.eventstore.benchmark.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.axonframework.domain.DomainEvent;
+import org.axonframework.domain.SimpleDomainEventStream;
+import org.axonframework.domain.UUIDAggregateIdentifier;
+import ua.com.datastorm.eventstore.orientdb.OrientEventStore;
+import ua.com.datastorm.integrationtests.commandhandling.StubDomainEvent;
+import ua.com.datastorm.integrationtests.eventstore.benchmark.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares append throughput of {@link OrientEventStore} with Domain Event uniqueness check switched off and on.
+ * Database URL can be passed in as the first argument, by default embedded database is used.
+ *
+ * @author EniSh
+ */
+public class UniquenessCheckBenchMark {
+    private static final int AGGREGATE_COUNT = 200;
+    private static final int TRANSACTION_COUNT = 20;
+    private static final int TRANSACTION_SIZE = 10;
+
+    public static void main(String[] args) throws Exception {
+        final String url = args.length > 0 ? args[0] : "local:target/benchmark-uniqueness";
+        run(url, false);
+        run(url, true);
+    }
+
+    private static void run(String url, boolean checkUniqueness) throws Exception {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        if (url.startsWith("local:")) {
+            database.create();
+        } else {
+            database.open("admin", "admin");
+        }
+
+        final OrientEventStore eventStore = new OrientEventStore();
+        eventStore.setDatabase(database);
+        eventStore.setCheckDomainEventUniqueness(checkUniqueness);
+        eventStore.initializeSchema();
+
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final long start = System.currentTimeMillis();
+        for (int a = 0; a < AGGREGATE_COUNT; a++) {
+            final UUIDAggregateIdentifier aggregateId = new UUIDAggregateIdentifier();
+            int sequence = 0;
+            for (int i = 0; i < TRANSACTION_COUNT; i++) {
+                final List<DomainEvent> events = new ArrayList<DomainEvent>();
+                for (int e = 0; e < TRANSACTION_SIZE; e++) {
+                    events.add(new StubDomainEvent(aggregateId, sequence++));
+                }
+                final long callStart = System.nanoTime();
+                eventStore.appendEvents("benchmark", new SimpleDomainEventStream(events));
+                latencies.record(System.nanoTime() - callStart);
+            }
+        }
+        final long end = System.currentTimeMillis();
+
+        System.out.println(String.format("Uniqueness check %s: %.0f events per second, append latency [%s], %s",
+                checkUniqueness ? "on" : "off",
+                ((float) AGGREGATE_COUNT * TRANSACTION_COUNT * TRANSACTION_SIZE) / ((float) (end - start) / 1000),
+                latencies, eventStore.getAppendStatistics()));
+
+        if (url.startsWith("local:")) {
+            database.delete();
+        } else {
+            database.close();
+        }
+    }
+}